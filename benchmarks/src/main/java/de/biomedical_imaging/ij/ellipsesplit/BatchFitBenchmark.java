@@ -0,0 +1,96 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 Thorsten Wagner (wagner@biomedical-imaging.de)
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.biomedical_imaging.ij.ellipsesplit;
+
+import java.util.concurrent.TimeUnit;
+
+import org.doube.geometry.FitEllipse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Direct fits of many noisy contours: one call per contour with its own arrays, as in
+ * the splitter, compared with the batch fit of a {@link ContourBatch}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchFitBenchmark {
+	
+	/** Number of contour points */
+	@Param({"20", "200"})
+	public int n;
+	
+	/** Number of contours */
+	@Param({"10000"})
+	public int contours;
+	
+	private int[][] x;
+	private int[][] y;
+	private ContourBatch batch;
+	
+	@Setup
+	public void setup(){
+		x = new int[contours][];
+		y = new int[contours][];
+		batch = new ContourBatch(contours, contours*n);
+		for (int i = 0; i < contours; i++) {
+			int[][] p = BenchmarkImages.noisyEllipse(n, i);
+			x[i] = p[0];
+			y[i] = p[1];
+			batch.add(x[i], y[i], n);
+		}
+	}
+	
+	@Benchmark
+	public double single(){
+		double sum = 0;
+		for (int i = 0; i < contours; i++) {
+			sum += FitEllipse.direct(x[i], y[i], n)[0];
+		}
+		return sum;
+	}
+	
+	@Benchmark
+	public double[] batch(){
+		return batch.fitDirect();
+	}
+	
+	@Benchmark
+	public double[] batchParallel(){
+		return batch.fitDirect(Runtime.getRuntime().availableProcessors());
+	}
+
+}
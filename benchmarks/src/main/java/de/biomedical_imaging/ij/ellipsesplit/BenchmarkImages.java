@@ -0,0 +1,111 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 Thorsten Wagner (wagner@biomedical-imaging.de)
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.biomedical_imaging.ij.ellipsesplit;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import ij.ImagePlus;
+import ij.gui.EllipseRoi;
+import ij.io.Opener;
+import ij.process.ByteProcessor;
+
+/**
+ * Test images for the benchmarks. Names ending with .tif are loaded from the
+ * images bundled with the plugin, "dense-N" creates a synthetic N x N binary image
+ * densely covered with touching and overlapping ellipses.
+ */
+final class BenchmarkImages {
+	
+	private BenchmarkImages() {
+	}
+	
+	public static ImagePlus load(String name){
+		if(name.startsWith("dense-")){
+			int size = Integer.parseInt(name.substring("dense-".length()));
+			return new ImagePlus(name, dense(size, 42));
+		}
+		InputStream in = BenchmarkImages.class.getResourceAsStream("/"+name);
+		if(in==null){
+			throw new IllegalArgumentException("Unknown image "+name);
+		}
+		try {
+			ImagePlus imp = new Opener().openTiff(in, name);
+			if(imp==null){
+				throw new IllegalArgumentException("Can't open image "+name);
+			}
+			return imp;
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+	
+	/**
+	 * Creates a binary image (objects 255, background 0) with randomly placed ellipses.
+	 * About half of the image area is covered, so that many ellipses touch or overlap
+	 * and have to be split by the watershed.
+	 */
+	public static ByteProcessor dense(int size, long seed){
+		ByteProcessor ip = new ByteProcessor(size, size);
+		ip.setColor(255);
+		Random random = new Random(seed);
+		double meanRadius = 12;
+		int n = (int)(0.5*size*size/(Math.PI*meanRadius*meanRadius*0.75));
+		for (int i = 0; i < n; i++) {
+			double a = 6 + 12*random.nextDouble();
+			double aspectRatio = 0.5 + 0.5*random.nextDouble();
+			double theta = Math.PI*random.nextDouble();
+			double x = size*random.nextDouble();
+			double y = size*random.nextDouble();
+			double dx = a*Math.cos(theta);
+			double dy = a*Math.sin(theta);
+			ip.fill(new EllipseRoi(x-dx, y-dy, x+dx, y+dy, aspectRatio));
+		}
+		return ip;
+	}
+	
+	/**
+	 * Contour points of a rotated ellipse with uniform noise, rounded to pixels.
+	 * @return [0] x-coordinates, [1] y-coordinates
+	 */
+	public static int[][] noisyEllipse(int n, long seed){
+		Random random = new Random(seed);
+		int[][] points = new int[2][n];
+		double cos = Math.cos(0.6), sin = Math.sin(0.6);
+		for (int i = 0; i < n; i++) {
+			double t = 2*Math.PI*i/n;
+			double u = 40*Math.cos(t) + random.nextDouble() - 0.5;
+			double v = 25*Math.sin(t) + random.nextDouble() - 0.5;
+			points[0][i] = (int)Math.round(200 + u*cos - v*sin);
+			points[1][i] = (int)Math.round(150 + u*sin + v*cos);
+		}
+		return points;
+	}
+
+}
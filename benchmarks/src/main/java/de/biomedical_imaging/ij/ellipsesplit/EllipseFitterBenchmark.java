@@ -0,0 +1,144 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 Thorsten Wagner (wagner@biomedical-imaging.de)
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.biomedical_imaging.ij.ellipsesplit;
+
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+
+/**
+ * Cost per fit of the {@link EllipseFitMethod}s on the contours of the bundled test
+ * images. Each invocation fits one contour, the contours are fitted in turn.
+ * <p>
+ * The accuracy is printed once per trial: the mean Sampson distance of the contour
+ * points to the fitted ellipse (a first order approximation of the geometric
+ * distance, in pixels) and the number of contours for which the fit failed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EllipseFitterBenchmark {
+	
+	@Param({"ellipse_example.tif", "Ellipse_Test_Stack.tif", "Ellipse_Test_Stack2.tif"})
+	public String image;
+	
+	@Param({"DIRECT", "TAUBIN", "HYPER", "RANSAC", "LMEDS"})
+	public String method;
+	
+	/** True to refine the fits with {@link GeometricEllipseFitter} */
+	@Param({"false", "true"})
+	public boolean refine;
+	
+	private EllipseFitter fitter;
+	private IntPointList[] contours;
+	private int next;
+	
+	@Setup
+	public void setup(){
+		fitter = EllipseFitMethod.valueOf(method);
+		if(refine){
+			fitter = new GeometricEllipseFitter(fitter, 50, 1e-8);
+		}
+		ImagePlus imp = BenchmarkImages.load(image);
+		ImageStack stack = imp.getStack();
+		// the contour points as used for the fit in the split pipeline
+		EllipseSplitter splitter = new EllipseSplitter(new EllipseSplitOptions());
+		ArrayList<IntPointList> points = new ArrayList<IntPointList>();
+		for (int i = 1; i <= stack.getSize(); i++) {
+			for (Ellipse ellipse : splitter.split(stack.getProcessor(i), imp.getCalibration())) {
+				points.add(ellipse.getPoints());
+			}
+		}
+		contours = points.toArray(new IntPointList[points.size()]);
+		next = 0;
+		printAccuracy();
+	}
+	
+	@Benchmark
+	public double[] fit(){
+		IntPointList points = contours[next];
+		next = (next + 1) % contours.length;
+		try {
+			return fitter.fit(points.getXArray(), points.getYArray(), points.size());
+		}
+		catch(RuntimeException e){
+			return null;
+		}
+	}
+	
+	private void printAccuracy(){
+		double sum = 0;
+		int n = 0;
+		int failed = 0;
+		for (IntPointList points : contours) {
+			double[] p;
+			try {
+				p = fitter.fit(points.getXArray(), points.getYArray(), points.size());
+			}
+			catch(RuntimeException e){
+				failed++;
+				continue;
+			}
+			for (int i = 0; i < points.size(); i++) {
+				sum += sampsonDistance(p, points.getX(i), points.getY(i));
+				n++;
+			}
+		}
+		System.out.println(String.format(Locale.ENGLISH,
+				"%s%s on %s: %d contours, mean Sampson distance %.4f px, %d failed fits",
+				method, refine ? " refined" : "", image, contours.length, sum/n, failed));
+		if(refine){
+			System.out.println(((GeometricEllipseFitter)fitter).getStatistics());
+		}
+	}
+	
+	/**
+	 * |Q(x,y)| / |grad Q(x,y)| for the conic Q = ax^2 + bxy + cy^2 + dx + ey + f
+	 */
+	static double sampsonDistance(double[] p, double x, double y){
+		double q = p[0]*x*x + p[1]*x*y + p[2]*y*y + p[3]*x + p[4]*y + p[5];
+		double gx = 2*p[0]*x + p[1]*y + p[3];
+		double gy = p[1]*x + 2*p[2]*y + p[4];
+		return Math.abs(q) / Math.sqrt(gx*gx + gy*gy);
+	}
+
+}
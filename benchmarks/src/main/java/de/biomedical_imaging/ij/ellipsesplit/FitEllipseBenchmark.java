@@ -0,0 +1,109 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 Thorsten Wagner (wagner@biomedical-imaging.de)
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.biomedical_imaging.ij.ellipsesplit;
+
+import java.util.concurrent.TimeUnit;
+
+import org.doube.geometry.FitEllipse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.measure.Calibration;
+
+/**
+ * Ellipse fit and the conversion of the algebraic parameters for a single contour.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FitEllipseBenchmark {
+	
+	/** Number of contour points */
+	@Param({"20", "200", "2000"})
+	public int n;
+	
+	private int[] x;
+	private int[] y;
+	private double[][] points;
+	private double[] params;
+	private Calibration cal;
+	private Ellipse ellipse;
+	
+	@Setup
+	public void setup(){
+		int[][] p = BenchmarkImages.noisyEllipse(n, 1);
+		x = p[0];
+		y = p[1];
+		points = new double[n][2];
+		for (int i = 0; i < n; i++) {
+			points[i][0] = x[i];
+			points[i][1] = y[i];
+		}
+		params = FitEllipse.direct(x, y, n);
+		cal = new Calibration();
+		ellipse = new Ellipse(params, cal);
+		ellipse.getRoi();
+	}
+	
+	@Benchmark
+	public double[] direct(){
+		return FitEllipse.direct(x, y, n);
+	}
+	
+	/** The matrix based implementation for comparison */
+	@Benchmark
+	public double[] directReference(){
+		return FitEllipse.direct(points);
+	}
+	
+	@Benchmark
+	public double[] varToDimensions(){
+		return FitEllipse.varToDimensions(params);
+	}
+	
+	/** Creates the rotated ROI of a new ellipse */
+	@Benchmark
+	public Object createRoi(){
+		return new Ellipse(params, cal).getRoi();
+	}
+	
+	/** Copy of the ROI of an ellipse whose ROI is already cached */
+	@Benchmark
+	public Object cachedRoi(){
+		return ellipse.getRoi();
+	}
+
+}
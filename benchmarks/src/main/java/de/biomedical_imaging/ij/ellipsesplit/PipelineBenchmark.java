@@ -0,0 +1,168 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 Thorsten Wagner (wagner@biomedical-imaging.de)
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.biomedical_imaging.ij.ellipsesplit;
+
+import java.awt.Polygon;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.blob.Blob;
+import ij.blob.ManyBlobs;
+import ij.measure.Calibration;
+import ij.plugin.filter.EDM;
+import ij.process.ImageProcessor;
+
+/**
+ * The stages of the split pipeline on whole images. Each invocation processes
+ * all slices of the image.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBenchmark {
+	
+	@Param({"ellipse_example.tif", "Ellipse_Test_Stack.tif", "dense-1024"})
+	public String image;
+	
+	/**
+	 * Settings of the merge step. A separate state, so that only the benchmarks which merge
+	 * are run for each overlap calculation.
+	 */
+	@State(Scope.Thread)
+	public static class Merge {
+		
+		/** Overlap calculation used by the merge step: analytic or polygon (GPCJ) */
+		@Param({"analytic", "polygon"})
+		public String overlap;
+		
+		private EllipseSplitter splitter;
+		private EllipseOverlap ellipseOverlap;
+		
+		@Setup
+		public void setup(){
+			splitter = new EllipseSplitter(new EllipseSplitOptions()
+					.withMerge(true, 0.95)
+					.withPolygonOverlap(overlap.equals("polygon")));
+			ellipseOverlap = overlap.equals("polygon") ? null : new EllipseOverlap(64);
+		}
+	}
+	
+	private ImageProcessor[] slices;
+	private Calibration cal;
+	private EllipseSplitter splitter;
+	private ManyEllipses[] unmerged;
+	private ArrayList<Polygon[]> contours;
+	private SeparatorMask[] separators;
+	
+	@Setup
+	public void setup(){
+		ImagePlus imp = BenchmarkImages.load(image);
+		ImageStack stack = imp.getStack();
+		slices = new ImageProcessor[stack.getSize()];
+		for (int i = 0; i < slices.length; i++) {
+			slices[i] = stack.getProcessor(i+1);
+		}
+		cal = imp.getCalibration();
+		splitter = new EllipseSplitter(new EllipseSplitOptions());
+		
+		unmerged = new ManyEllipses[slices.length];
+		contours = new ArrayList<Polygon[]>();
+		separators = new SeparatorMask[slices.length];
+		for (int i = 0; i < slices.length; i++) {
+			unmerged[i] = splitter.split(slices[i], cal);
+			
+			// Same preparation as in EllipseSplitter.split
+			ImageProcessor watershed = slices[i].duplicate();
+			new EDM().toWatershed(watershed);
+			ManyBlobs mb = new ManyBlobs(new ImagePlus("", watershed));
+			mb.setBackground(0);
+			mb.findConnectedComponents();
+			Polygon[] c = new Polygon[mb.size()];
+			for (int j = 0; j < c.length; j++) {
+				Blob blob = mb.get(j);
+				c[j] = blob.getOuterContour();
+			}
+			contours.add(c);
+			separators[i] = new SeparatorMask(slices[i], watershed);
+		}
+	}
+	
+	@Benchmark
+	public void split(Blackhole bh){
+		for (ImageProcessor ip : slices) {
+			bh.consume(splitter.split(ip, cal));
+		}
+	}
+	
+	@Benchmark
+	public void splitAndMerge(Merge merge, Blackhole bh){
+		for (ImageProcessor ip : slices) {
+			bh.consume(merge.splitter.split(ip, cal));
+		}
+	}
+	
+	/**
+	 * Merge step alone. The polygons of the input ellipses are cached after the first
+	 * invocation, so the polygon variant measures the clipping without the rasterization.
+	 */
+	@Benchmark
+	public void merge(Merge merge, Blackhole bh){
+		for (int i = 0; i < slices.length; i++) {
+			ManyEllipses ellipses = new ManyEllipses(unmerged[i]);
+			new EllipseMerger(splitter, 0.95, cal, merge.ellipseOverlap).merge(ellipses, slices[i].getWidth(), slices[i].getHeight());
+			bh.consume(ellipses);
+		}
+	}
+	
+	@Benchmark
+	public void fillSeperatorFreeXYCoordinates(Blackhole bh){
+		IntPointList points = new IntPointList();
+		for (int i = 0; i < slices.length; i++) {
+			for (Polygon contour : contours.get(i)) {
+				points.clear();
+				splitter.fillSeperatorFreeXYCoordinates(contour, points, separators[i]);
+				bh.consume(points.size());
+			}
+		}
+	}
+
+}
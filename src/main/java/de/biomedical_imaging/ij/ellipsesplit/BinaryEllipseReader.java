@@ -0,0 +1,224 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 Thorsten Wagner (wagner@biomedical-imaging.de)
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.biomedical_imaging.ij.ellipsesplit;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import ij.measure.Calibration;
+
+/**
+ * Reads files of {@link BinaryEllipseSink}. Opening a file only reads the block headers,
+ * the blocks of the frames are memory-mapped when they are accessed. An incomplete last block
+ * (e.g. of a run which was canceled) is ignored.
+ */
+public class BinaryEllipseReader implements Closeable {
+	
+	private final FileChannel channel;
+	private final int[] frames;
+	private final int[] counts;
+	private final long[] offsets;
+	private final boolean sorted;
+	private int mappedBlock;
+	private ByteBuffer mapped;
+	
+	/**
+	 * @throws IOException If the file can't be read or is not an ellipse file
+	 */
+	public BinaryEllipseReader(File file) throws IOException {
+		channel = new RandomAccessFile(file, "r").getChannel();
+		try{
+			long size = channel.size();
+			ByteBuffer header = ByteBuffer.allocate(BinaryEllipseSink.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(header, 0);
+			byte[] magic = new byte[BinaryEllipseSink.MAGIC.length];
+			header.get(magic);
+			if(!Arrays.equals(magic, BinaryEllipseSink.MAGIC) || header.getInt() != BinaryEllipseSink.VERSION
+					|| header.getInt() != BinaryEllipseSink.COLUMNS.length){
+				throw new IOException("Not an ellipse file of version "+BinaryEllipseSink.VERSION+": "+file);
+			}
+			
+			int[] frames = new int[16];
+			int[] counts = new int[16];
+			long[] offsets = new long[16];
+			int blocks = 0;
+			boolean sorted = true;
+			ByteBuffer blockHeader = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+			long position = BinaryEllipseSink.HEADER_SIZE;
+			while(position + 8 <= size){
+				blockHeader.clear();
+				readFully(blockHeader, position);
+				int frame = blockHeader.getInt();
+				int n = blockHeader.getInt();
+				long blockSize = BinaryEllipseSink.blockSize(n);
+				if(n < 0 || position + blockSize > size){
+					break;
+				}
+				if(blocks == frames.length){
+					frames = Arrays.copyOf(frames, 2*blocks);
+					counts = Arrays.copyOf(counts, 2*blocks);
+					offsets = Arrays.copyOf(offsets, 2*blocks);
+				}
+				sorted &= blocks == 0 || frames[blocks-1] < frame;
+				frames[blocks] = frame;
+				counts[blocks] = n;
+				offsets[blocks] = position;
+				blocks++;
+				position += blockSize;
+			}
+			this.frames = Arrays.copyOf(frames, blocks);
+			this.counts = Arrays.copyOf(counts, blocks);
+			this.offsets = Arrays.copyOf(offsets, blocks);
+			this.sorted = sorted;
+			mappedBlock = -1;
+		}
+		catch(IOException e){
+			channel.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * @return The frame numbers in the order of the file
+	 */
+	public int[] getFrames(){
+		return frames.clone();
+	}
+	
+	/**
+	 * @return Number of ellipses of the frame, 0 if the frame is not in the file
+	 */
+	public int getEllipseCount(int frame){
+		int block = block(frame);
+		return block < 0 ? 0 : counts[block];
+	}
+	
+	/**
+	 * @return The labels of the ellipses of the frame
+	 */
+	public synchronized int[] readLabels(int frame) throws IOException {
+		int block = block(frame);
+		if(block < 0){
+			return new int[0];
+		}
+		int[] labels = new int[counts[block]];
+		ByteBuffer b = map(block);
+		b.position(8);
+		b.asIntBuffer().get(labels);
+		return labels;
+	}
+	
+	/**
+	 * @param column Index in {@link BinaryEllipseSink#COLUMNS}
+	 * @return The values of the column for all ellipses of the frame
+	 */
+	public synchronized double[] readColumn(int frame, int column) throws IOException {
+		int block = block(frame);
+		if(block < 0){
+			return new double[0];
+		}
+		int n = counts[block];
+		double[] values = new double[n];
+		ByteBuffer b = map(block);
+		b.position(8 + 4*n + 8*n*column);
+		b.asDoubleBuffer().get(values);
+		return values;
+	}
+	
+	/**
+	 * Restores the ellipses of a frame from their algebraic parameters, with their
+	 * labels and without contour points.
+	 * @param cal Calibration of the image the ellipses were fitted in
+	 */
+	public synchronized ManyEllipses readFrame(int frame, Calibration cal) throws IOException {
+		int block = block(frame);
+		if(block < 0){
+			return new ManyEllipses();
+		}
+		int n = counts[block];
+		int[] labels = readLabels(frame);
+		double[][] parameters = new double[6][];
+		for (int i = 0; i < parameters.length; i++) {
+			parameters[i] = readColumn(frame, 6 + i);
+		}
+		ManyEllipses ellipses = new ManyEllipses(n);
+		for (int i = 0; i < n; i++) {
+			double[] parameterVector = new double[6];
+			for (int j = 0; j < parameterVector.length; j++) {
+				parameterVector[j] = parameters[j][i];
+			}
+			Ellipse e = new Ellipse(new EllipseRecord(parameterVector), cal);
+			e.setLabel(labels[i]);
+			ellipses.add(e);
+		}
+		return ellipses;
+	}
+	
+	@Override
+	public synchronized void close() throws IOException {
+		mapped = null;
+		channel.close();
+	}
+	
+	private int block(int frame){
+		if(sorted){
+			int i = Arrays.binarySearch(frames, frame);
+			return i < 0 ? -1 : i;
+		}
+		for (int i = 0; i < frames.length; i++) {
+			if(frames[i] == frame){
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * The last mapped block is kept, because the columns of a frame are usually read together.
+	 */
+	private ByteBuffer map(int block) throws IOException {
+		if(block != mappedBlock){
+			mapped = channel.map(FileChannel.MapMode.READ_ONLY, offsets[block], BinaryEllipseSink.blockSize(counts[block]));
+			mappedBlock = block;
+		}
+		return mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+	}
+	
+	private void readFully(ByteBuffer b, long position) throws IOException {
+		while(b.hasRemaining()){
+			int read = channel.read(b, position + b.position());
+			if(read < 0){
+				throw new IOException("Unexpected end of file");
+			}
+		}
+		b.flip();
+	}
+
+}
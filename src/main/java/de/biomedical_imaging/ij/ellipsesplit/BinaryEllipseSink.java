@@ -0,0 +1,146 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 Thorsten Wagner (wagner@biomedical-imaging.de)
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.biomedical_imaging.ij.ellipsesplit;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes the ellipses in a compact columnar binary format, which can be read back with
+ * {@link BinaryEllipseReader}. All values are little-endian.
+ * <p>
+ * The file starts with a header of 12 bytes: the magic bytes "ELSP", the format version and
+ * the number of double columns (int each). Each frame follows as a block: the frame number
+ * and the number n of ellipses (int each), the labels (n ints) and then the columns
+ * of {@link #COLUMNS} one after the other (n doubles each). The algebraic parameters a to f
+ * refer to pixel coordinates, the other columns are the measurements of the results table.
+ * The blocks may be in any frame order.
+ */
+public class BinaryEllipseSink implements UnorderedEllipseSink {
+	
+	static final byte[] MAGIC = {'E', 'L', 'S', 'P'};
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 12;
+	
+	/**
+	 * Names of the double columns in the order of the file
+	 */
+	public static final String[] COLUMNS = {"X", "Y", "Length long axis", "Length short axis",
+			"Aspect ratio", "Rotation angle", "a", "b", "c", "d", "e", "f"};
+	
+	private final WritableByteChannel channel;
+	private ByteBuffer buffer;
+	
+	/**
+	 * @param file Is created or overwritten
+	 */
+	public BinaryEllipseSink(File file) throws IOException {
+		this(new FileOutputStream(file).getChannel());
+	}
+	
+	/**
+	 * @param channel Receives the blocks, it is closed together with the sink or if the
+	 * header can't be written
+	 */
+	public BinaryEllipseSink(WritableByteChannel channel) throws IOException {
+		this.channel = channel;
+		try{
+			buffer = ByteBuffer.allocateDirect(64*1024).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.put(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(COLUMNS.length);
+			flush();
+		}
+		catch(IOException e){
+			channel.close();
+			throw e;
+		}
+		catch(RuntimeException e){
+			channel.close();
+			throw e;
+		}
+	}
+	
+	@Override
+	public void write(int frame, ManyEllipses ellipses) throws IOException {
+		int n = ellipses.size();
+		long size = blockSize(n);
+		if(size > buffer.capacity()){
+			buffer = ByteBuffer.allocateDirect((int)Math.max(size, 2L*buffer.capacity())).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		buffer.putInt(frame);
+		buffer.putInt(n);
+		for (int i = 0; i < n; i++) {
+			buffer.putInt(ellipses.get(i).getLabel());
+		}
+		for (int column = 0; column < COLUMNS.length; column++) {
+			for (int i = 0; i < n; i++) {
+				buffer.putDouble(value(ellipses.get(i), column));
+			}
+		}
+		flush();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+	
+	private void flush() throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()){
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+	
+	/**
+	 * @return Size in bytes of the block of a frame with n ellipses
+	 */
+	static long blockSize(int n){
+		return 8 + n*(4L + 8L*COLUMNS.length);
+	}
+	
+	private static double value(Ellipse e, int column){
+		switch (column) {
+		case 0: return e.getX();
+		case 1: return e.getY();
+		case 2: return e.getLengthLongAxis()*2;
+		case 3: return e.getLengthShortAxis()*2;
+		case 4: return 1.0/e.getAspectRatio();
+		case 5: return e.getRotationAngle();
+		case 6: return e.getA();
+		case 7: return e.getB();
+		case 8: return e.getC();
+		case 9: return e.getD();
+		case 10: return e.getE();
+		default: return e.getF();
+		}
+	}
+
+}
@@ -0,0 +1,237 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 Thorsten Wagner (wagner@biomedical-imaging.de)
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package de.biomedical_imaging.ij.ellipsesplit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.doube.geometry.FitEllipse;
+
+/**
+ * Many contours stored as a structure of arrays for batch fits: the coordinates of all
+ * contours one after the other in two primitive arrays and the index of the first point
+ * of each contour in a third. The fits of all contours are calculated in one call and
+ * returned packed in a single array, six algebraic parameters per contour (see
+ * {@link FitEllipse#direct(int[], int[], int[], int)}).
+ */
+public class ContourBatch {
+	
+	private final IntPointList points;
+	private int[] offsets;
+	private int size;
+	
+	public ContourBatch() {
+		this(16, 1024);
+	}
+	
+	/**
+	 * @param contourCapacity Initial number of contours
+	 * @param pointCapacity Initial number of points of all contours
+	 */
+	public ContourBatch(int contourCapacity, int pointCapacity) {
+		points = new IntPointList(pointCapacity);
+		offsets = new int[Math.max(contourCapacity, 1) + 1];
+		size = 0;
+	}
+	
+	/**
+	 * Appends a contour.
+	 */
+	public void add(IntPointList contour){
+		points.addAll(contour);
+		endContour();
+	}
+	
+	/**
+	 * Appends a contour given by the first nPoints coordinates of x and y.
+	 */
+	public void add(int[] x, int[] y, int nPoints){
+		points.ensureCapacity(points.size() + nPoints);
+		for (int i = 0; i < nPoints; i++) {
+			points.add(x[i], y[i]);
+		}
+		endContour();
+	}
+	
+	private void endContour(){
+		if(size + 2 > offsets.length){
+			offsets = Arrays.copyOf(offsets, 2*offsets.length);
+		}
+		size++;
+		offsets[size] = points.size();
+	}
+	
+	/**
+	 * @return The number of contours
+	 */
+	public int size(){
+		return size;
+	}
+	
+	/**
+	 * @return The number of points of all contours
+	 */
+	public int getPointCount(){
+		return points.size();
+	}
+	
+	/**
+	 * @return The number of points of contour i
+	 */
+	public int getPointCount(int i){
+		return offsets[i+1] - offsets[i];
+	}
+	
+	public void clear(){
+		points.clear();
+		size = 0;
+	}
+	
+	/**
+	 * Direct fits of all contours in the calling thread.
+	 * @see #fitDirect(int)
+	 */
+	public double[] fitDirect(){
+		return fitDirect(1);
+	}
+	
+	/**
+	 * Direct fits of all contours. With more than one thread, the contours are split into
+	 * chunks with about the same number of points, which are fitted in parallel.
+	 * @param threads Number of threads
+	 * @return The parameters of contour i at the indices 6*i to 6*i+5. They are NaN if no
+	 * ellipse fits the contour.
+	 */
+	public double[] fitDirect(int threads){
+		final double[] result = new double[6*size];
+		final int[] x = points.getXArray();
+		final int[] y = points.getYArray();
+		final int[] chunks = chunks(threads);
+		if(chunks.length == 2){
+			FitEllipse.direct(x, y, offsets, 0, size, result);
+			return result;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(chunks.length-1);
+		try{
+			ArrayList<Future<Object>> fits = new ArrayList<Future<Object>>();
+			for (int i = 0; i < chunks.length-1; i++) {
+				final int first = chunks[i];
+				final int last = chunks[i+1];
+				fits.add(executor.submit(new Callable<Object>() {
+					@Override
+					public Object call() {
+						FitEllipse.direct(x, y, offsets, first, last, result);
+						return null;
+					}
+				}));
+			}
+			for (Future<Object> future : fits) {
+				get(future);
+			}
+		}
+		finally{
+			executor.shutdownNow();
+		}
+		return result;
+	}
+	
+	/**
+	 * Fits all contours with the given fitter in the calling thread. The direct fit uses
+	 * {@link #fitDirect()}, other fitters are called for one contour after the other.
+	 * @return The parameters of contour i at the indices 6*i to 6*i+5. They are NaN if the
+	 * fit failed.
+	 */
+	public double[] fit(EllipseFitter fitter){
+		if(fitter == EllipseFitMethod.DIRECT){
+			return fitDirect();
+		}
+		double[] result = new double[6*size];
+		int[] x = new int[0];
+		int[] y = new int[0];
+		for (int i = 0; i < size; i++) {
+			int n = getPointCount(i);
+			if(n > x.length){
+				x = new int[n];
+				y = new int[n];
+			}
+			System.arraycopy(points.getXArray(), offsets[i], x, 0, n);
+			System.arraycopy(points.getYArray(), offsets[i], y, 0, n);
+			double[] params = null;
+			if(n > 0){
+				try{
+					params = fitter.fit(x, y, n);
+				}
+				catch(RuntimeException e){
+					// no ellipse solution
+				}
+			}
+			if(params != null){
+				System.arraycopy(params, 0, result, 6*i, 6);
+			}
+			else{
+				Arrays.fill(result, 6*i, 6*i+6, Double.NaN);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * @return The first contour of each chunk and the number of contours as last element,
+	 * so that each chunk has about the same number of points
+	 */
+	private int[] chunks(int threads){
+		int nChunks = Math.max(1, Math.min(threads, size));
+		int[] chunks = new int[nChunks+1];
+		long total = points.size();
+		int contour = 0;
+		for (int i = 1; i < nChunks; i++) {
+			long start = total*i/nChunks;
+			while(contour < size && offsets[contour] < start){
+				contour++;
+			}
+			chunks[i] = Math.max(contour, chunks[i-1]);
+		}
+		chunks[nChunks] = size;
+		return chunks;
+	}
+	
+	private static <T> T get(Future<T> future){
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for a fit", e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException){
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+}
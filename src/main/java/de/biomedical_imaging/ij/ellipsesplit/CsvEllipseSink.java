@@ -0,0 +1,84 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 Thorsten Wagner (wagner@biomedical-imaging.de)
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.biomedical_imaging.ij.ellipsesplit;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes the ellipses as comma separated values with the same columns as the results table.
+ * Numbers are written with full precision and independent of the locale. Every line starts
+ * with its frame number, so the frames may be written in any order.
+ */
+public class CsvEllipseSink implements UnorderedEllipseSink {
+	
+	private final Writer writer;
+	private final double[] values;
+	
+	/**
+	 * @param file Is created or overwritten
+	 */
+	public CsvEllipseSink(File file) throws IOException {
+		this(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+	}
+	
+	/**
+	 * @param writer Receives the lines, it is closed together with the sink
+	 */
+	public CsvEllipseSink(Writer writer) throws IOException {
+		this.writer = new BufferedWriter(writer);
+		values = new double[ResultsTableSink.MEASUREMENTS.length];
+		this.writer.write("Frame,Label");
+		for (String measurement : ResultsTableSink.MEASUREMENTS) {
+			this.writer.write(',');
+			this.writer.write(measurement);
+		}
+		this.writer.write('\n');
+	}
+	
+	@Override
+	public void write(int frame, ManyEllipses ellipses) throws IOException {
+		for (Ellipse e : ellipses) {
+			writer.write(Integer.toString(frame));
+			writer.write(',');
+			writer.write(Integer.toString(e.getLabel()));
+			ResultsTableSink.measure(e, values);
+			for (double value : values) {
+				writer.write(',');
+				writer.write(Double.toString(value));
+			}
+			writer.write('\n');
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		writer.close();
+	}
+
+}
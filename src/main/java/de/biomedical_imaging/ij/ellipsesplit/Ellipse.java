@@ -34,8 +34,6 @@ import java.awt.geom.Point2D;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 
-import org.doube.geometry.FitEllipse;
-
 import de.biomedical_imaging.ij.ellipsesplit.CircleFitter.LocalException;
 
 
@@ -53,26 +51,16 @@ public class Ellipse {
 	 * so that ||A||=1
 	 */
 	
-	// a bis f sind die 6 algebraischen Parameter
-	private double a;	
-	private double b;	
-	private double c;	
-	private double d;	
-	private double e;	
-	private double f;
+	// Algebraische und geometrische Parameter
+	private final EllipseRecord record;
 	private double[] parameterVector;
 	
-	// Geometrische Parameter:
-	private double x;
-	private double y;
-	private double shortAxis;
-	private double longAxis;
-	private double phi;
-	private double aspectRatio;
-	
 	// Polygon data which was used for fitting
-	private ArrayList<Integer> xpoints;
-	private ArrayList<Integer> ypoints;
+	private IntPointList points;
+	
+	// Rotated ROI and its polygon, calculated on first use
+	private volatile Roi roi;
+	private volatile Polygon polygon;
 	
 	/**
 	 * Mean algebraic distance of segment to ellipse
@@ -81,46 +69,84 @@ public class Ellipse {
 	
 	private Calibration cal;
 	
-	private int label = 0;
-	private static int labelCounter = 0;
+	/**
+	 * Label of an ellipse which was not labeled by a {@link LabelAllocator} yet
+	 */
+	public static final int UNLABELED = -1;
+	
+	private int label = UNLABELED;
 	
 	public Ellipse() {
-		label = labelCounter++;
+		record = EllipseRecord.EMPTY;
 	}
 	
+	/**
+	 * Creates an ellipse with the calibration of the input image of the running plugin instance.
+	 * @param parameterVector Algebraic parameters a, b, c, d, e, f
+	 */
 	public Ellipse(double[] parameterVector) {
-		label = labelCounter++;
-		cal = EllipseSplit_.getInstance().getInputImage().getCalibration();
-		xpoints = new ArrayList<Integer>();
-		ypoints = new ArrayList<Integer>();
+		this(parameterVector, pluginCalibration());
+	}
+	
+	/**
+	 * @param parameterVector Algebraic parameters a, b, c, d, e, f
+	 * @param cal Calibration of the image the ellipse was fitted in
+	 */
+	public Ellipse(double[] parameterVector, Calibration cal) {
+		this(new EllipseRecord(parameterVector), cal);
 		this.parameterVector = parameterVector;
-		this.a = parameterVector[0];
-		this.b = parameterVector[1];
-		this.c = parameterVector[2];
-		this.d = parameterVector[3];
-		this.e = parameterVector[4];
-		this.f = parameterVector[5];
-		
-		double[] geometricParams = FitEllipse.varToDimensions(parameterVector);
-		this.x = geometricParams[0];
-		this.y = geometricParams[1];
-		this.shortAxis = geometricParams[2]<=geometricParams[3] ? geometricParams[2] : geometricParams[3];
-		this.longAxis = geometricParams[2]>=geometricParams[3] ? geometricParams[2] : geometricParams[3];
-		this.phi = geometricParams[4];
-		this.aspectRatio = shortAxis / longAxis;
+		points = new IntPointList();
+	}
+	
+	/**
+	 * Creates the ellipse of a fit without computing the geometric parameters again.
+	 * The contour points have to be set with {@link #setPoints(IntPointList)}.
+	 * @param record Result of the fit
+	 * @param cal Calibration of the image the ellipse was fitted in
+	 */
+	Ellipse(EllipseRecord record, Calibration cal) {
+		this.record = record;
+		this.cal = cal;
 	}
 
 	public Ellipse(double a, double b, double c, double d, double e, double f) {
 		this(new double[]{a, b, c, d, e, f});
 	}
 	
+	private static Calibration pluginCalibration(){
+		EllipseSplit_ plugin = EllipseSplit_.getInstance();
+		if(plugin==null || plugin.getInputImage()==null){
+			return new Calibration();
+		}
+		return plugin.getInputImage().getCalibration();
+	}
+	
+	/**
+	 * @return A copy of the rotated ellipse ROI, which may be modified by the caller.
+	 */
 	public Roi getRoi() {
+		return (Roi) getCachedRoi().clone();
+	}
+	
+	private Roi getCachedRoi() {
+		Roi cached = roi;
+		if(cached==null){
+			cached = createRoi();
+			roi = cached;
+		}
+		return cached;
+	}
+	
+	private Roi createRoi() {
+		double x = record.getX();
+		double y = record.getY();
+		double longAxis = record.getLongAxis();
 		double x1 = x-longAxis;
 		double y1 = y;
 		double x2 = x+longAxis;
 		double y2 = y;
 		
-		EllipseRoi unrotatedEllipse = new EllipseRoi(x1, y1, x2, y2, aspectRatio);
+		EllipseRoi unrotatedEllipse = new EllipseRoi(x1, y1, x2, y2, record.getAspectRatio());
 		//return unrotatedEllipse;		
 
 		double rotationAngle = getRotationAngle();
@@ -128,84 +154,165 @@ public class Ellipse {
 		return RoiRotator.rotate(unrotatedEllipse, rotationAngle);
 	}
 	
+	/**
+	 * @return The polygon of the rotated ellipse ROI. The polygon is cached and shared,
+	 * it must not be modified.
+	 */
 	public Polygon getPolygon() {
-		return getRoi().getPolygon();
+		Polygon cached = polygon;
+		if(cached==null){
+			cached = getCachedRoi().getPolygon();
+			polygon = cached;
+		}
+		return cached;
+	}
+	
+	/**
+	 * @param points Contour points which were used for fitting
+	 */
+	public void setPoints(IntPointList points){
+		this.points = points;
+	}
+	
+	/**
+	 * @return Contour points which were used for fitting, or null if they were dropped
+	 * (see {@link EllipseSplitOptions#withDropPoints(boolean)})
+	 */
+	public IntPointList getPoints(){
+		return points;
 	}
 	
+	/**
+	 * Replaces the x coordinates of the contour points. Adapter for {@link #setPoints(IntPointList)}.
+	 */
 	public void setXCoordinates(ArrayList<Integer> xpoints){
-		this.xpoints = xpoints;
+		points = replaceCoordinates(xpoints, true);
 	}
 	
+	/**
+	 * Replaces the y coordinates of the contour points. Adapter for {@link #setPoints(IntPointList)}.
+	 */
 	public void setYCoordinates(ArrayList<Integer> ypoints){
-		this.ypoints = ypoints;
+		points = replaceCoordinates(ypoints, false);
 	}
 	
+	private IntPointList replaceCoordinates(ArrayList<Integer> values, boolean x){
+		IntPointList newPoints = new IntPointList(values.size());
+		for(int i = 0; i < values.size(); i++){
+			int other = 0;
+			if(points != null && i < points.size()){
+				other = x ? points.getY(i) : points.getX(i);
+			}
+			if(x){
+				newPoints.add(values.get(i), other);
+			}else{
+				newPoints.add(other, values.get(i));
+			}
+		}
+		return newPoints;
+	}
+	
+	/**
+	 * @return Copy of the x coordinates of the contour points. Adapter for {@link #getPoints()}.
+	 * @throws IllegalStateException If the contour points were dropped
+	 */
 	public ArrayList<Integer> getXCoordinates(){
-		return xpoints;
+		return requirePoints().getXList();
 	}
 	
+	/**
+	 * @return Copy of the y coordinates of the contour points. Adapter for {@link #getPoints()}.
+	 * @throws IllegalStateException If the contour points were dropped
+	 */
 	public ArrayList<Integer> getYCoordinates(){
-		return ypoints;
+		return requirePoints().getYList();
+	}
+	
+	private IntPointList requirePoints(){
+		if(points==null){
+			throw new IllegalStateException("The contour points of the ellipse were dropped, see EllipseSplitOptions.withDropPoints");
+		}
+		return points;
 	}
 	
 	public double getA() {
-		return a;
+		return record.getA();
 	}
 
 	public double getB() {
-		return b;
+		return record.getB();
 	}
 
 	public double getC() {
-		return c;
+		return record.getC();
 	}
 
 	public double getD() {
-		return d;
+		return record.getD();
 	}
 
 	public double getE() {
-		return e;
+		return record.getE();
 	}
 
 	public double getF() {
-		return f;
+		return record.getF();
 	}
 
 	public double[] getParameterVector() {
+		if(parameterVector==null){
+			parameterVector = record.getParameterVector();
+		}
 		return parameterVector;
 	}
 	
+	/**
+	 * @return The fit result with the algebraic and geometric parameters in pixels
+	 */
+	public EllipseRecord getRecord() {
+		return record;
+	}
+	
 	public double getPhi() {
-		return phi;
+		return record.getPhi();
 	}
 	
 	public double getRotationAngle(){
-		double rotationAngle = phi*180/Math.PI;
-		if (f < 0) {
-			rotationAngle = rotationAngle + 90;
-		}
-		return rotationAngle;
+		return record.getRotationAngle();
 	}
 
 	public double getX() {
-		return x;
+		return record.getX();
 	}
 
 	public double getY() {
-		return y;
+		return record.getY();
 	}
 
 	public double getLengthShortAxis() {
-		return shortAxis*cal.pixelHeight;
+		return record.getShortAxis()*cal.pixelHeight;
 	}
 
 	public double getLengthLongAxis() {
-		return longAxis*cal.pixelHeight;
+		return record.getLongAxis()*cal.pixelHeight;
+	}
+
+	/**
+	 * @return Long semi axis in pixels
+	 */
+	double getLongAxis() {
+		return record.getLongAxis();
+	}
+	
+	/**
+	 * @return Short semi axis in pixels
+	 */
+	double getShortAxis() {
+		return record.getShortAxis();
 	}
 
 	public double getAspectRatio() {
-		return aspectRatio;
+		return record.getAspectRatio();
 	}
 
 	public double getDis() {
@@ -216,36 +323,48 @@ public class Ellipse {
 		this.dis = dis;
 	}
 	
+	/**
+	 * @return The label, which is assigned by {@link EllipseSplitter} after the geometric
+	 * filtering, or {@link #UNLABELED}. Labels repeat across frames, therefore ellipses are
+	 * compared by identity and not by label.
+	 */
 	public int getLabel(){
 		return label;
 	}
+	
+	/**
+	 * @param label Label from a {@link LabelAllocator} or of an ellipse which was read from a file
+	 */
+	void setLabel(int label){
+		this.label = label;
+	}
 
 	@Override
 	public String toString() {
 		DecimalFormat df = new DecimalFormat( "0.00000" );
 		return "Ellipse [" + 
-					"phi(deg)= " + df.format(phi*180/Math.PI) + 
-					"phi= " + df.format(phi) +
-					", a= " + df.format(a) +
-					", b= " + df.format(b) +
-					", c= " + df.format(c) +
-					", d= " + df.format(d) +
-					", e= " + df.format(e) +
-					", f= " + df.format(f) +
-					", x= " + df.format(x) +
-					", y= " + df.format(y) +
-					", minA= " + df.format(shortAxis) +
-					", maxA= " + df.format(longAxis) +
-					", AR= " + df.format(aspectRatio) +
+					"phi(deg)= " + df.format(getPhi()*180/Math.PI) + 
+					"phi= " + df.format(getPhi()) +
+					", a= " + df.format(getA()) +
+					", b= " + df.format(getB()) +
+					", c= " + df.format(getC()) +
+					", d= " + df.format(getD()) +
+					", e= " + df.format(getE()) +
+					", f= " + df.format(getF()) +
+					", x= " + df.format(getX()) +
+					", y= " + df.format(getY()) +
+					", minA= " + df.format(getShortAxis()) +
+					", maxA= " + df.format(getLongAxis()) +
+					", AR= " + df.format(getAspectRatio()) +
 				"]";
 	}	
 	
 	
 	public double[] shortestDistanceToPoint(double xp, double yp){
-		 double deltaPhi = 2*Math.PI/getPolygon().npoints;
+		 Polygon pol = getPolygon();
+		 double deltaPhi = 2*Math.PI/pol.npoints;
 		 double parPhi = 0;
 		 double minDistance = Double.MAX_VALUE;
-		 Polygon pol = getPolygon();
 		 int minIndex = 0;
 		 for(int i = 0; i < pol.npoints; i++){
 			 double dist = Math.pow( xp - pol.xpoints[i], 2)+Math.pow( yp - pol.ypoints[i], 2);
@@ -259,20 +378,27 @@ public class Ellipse {
 		 return res;
 	}
 	
+	/**
+	 * @return Coefficient of determination of the fit to the contour points, or NaN if the
+	 * contour points were dropped (see {@link EllipseSplitOptions#withDropPoints(boolean)})
+	 */
 	public double getRValue(){
+		if(points==null || points.size()==0){
+			return Double.NaN;
+		}
 		double dataDistanceFromMean = 0;
 		double dataDistanceFromModel = 0;
 		double xMean= 0;
 		double yMean = 0;
 		
 		// fit a circle to the test points
-		Point2D.Double[] points = new Point2D.Double[xpoints.size()];
-		for(int i = 0; i < xpoints.size(); i++){
-			points[i] = new Point2D.Double(xpoints.get(i), ypoints.get(i));
+		Point2D.Double[] circlePoints = new Point2D.Double[points.size()];
+		for(int i = 0; i < points.size(); i++){
+			circlePoints[i] = new Point2D.Double(points.getX(i), points.getY(i));
 		}
 		CircleFitter fitter = new CircleFitter();
 		try {
-			fitter.initialize(points);
+			fitter.initialize(circlePoints);
 			// minimize the residuals
 			fitter.minimize(100, 0.1, 1.0e-12);
 		} catch (LocalException e) {
@@ -282,25 +408,19 @@ public class Ellipse {
 		
 		
 		
-		for(int i = 0; i < xpoints.size(); i++){
-			xMean += xpoints.get(i);
-			yMean += ypoints.get(i);
+		for(int i = 0; i < points.size(); i++){
+			xMean += points.getX(i);
+			yMean += points.getY(i);
 		}
-		xMean = xMean / xpoints.size();
-		yMean = yMean / ypoints.size();
-		for( int i = 0; i < xpoints.size(); i++){
-			double[] s = shortestDistanceToPoint(xpoints.get(i), ypoints.get(i));
+		xMean = xMean / points.size();
+		yMean = yMean / points.size();
+		for( int i = 0; i < points.size(); i++){
+			double[] s = shortestDistanceToPoint(points.getX(i), points.getY(i));
 			dataDistanceFromModel += s[0]*s[0];
-			dataDistanceFromMean += Math.pow(xpoints.get(i)-xMean, 2)+Math.pow(ypoints.get(i)-yMean, 2);
+			dataDistanceFromMean += Math.pow(points.getX(i)-xMean, 2)+Math.pow(points.getY(i)-yMean, 2);
 		}
 		
 		return 1.0 - dataDistanceFromModel/dataDistanceFromMean;
 	}
-	
-	@Override
-	public boolean equals(Object obj) {
-	
-		return getLabel() == ((Ellipse)obj).getLabel();
-	}
 
 }
@@ -0,0 +1,147 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 Thorsten Wagner (wagner@biomedical-imaging.de)
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.biomedical_imaging.ij.ellipsesplit;
+
+import org.doube.geometry.FitEllipse;
+
+/**
+ * The ellipse fits which can be selected in the dialog.
+ */
+public enum EllipseFitMethod implements EllipseFitter {
+	
+	/**
+	 * Direct least squares fit (Fitzgibbon, Halir and Flusser). Always returns an
+	 * ellipse, but its axes are biased towards smaller and rounder ellipses for noisy or
+	 * partial contours. This is the default.
+	 */
+	DIRECT("Direct") {
+		@Override
+		public double[] fit(int[] x, int[] y, int nPoints) {
+			return FitEllipse.direct(x, y, nPoints);
+		}
+	},
+	
+	/**
+	 * Taubin fit. Less biased than the direct fit, at the cost of a 5x5 eigenvalue
+	 * decomposition per fit.
+	 */
+	TAUBIN("Taubin") {
+		@Override
+		public double[] fit(int[] x, int[] y, int nPoints) {
+			return checkEllipse(FitEllipse.taubin(x, y, nPoints));
+		}
+	},
+	
+	/**
+	 * Hyper-renormalization (Kanatani). Iterative and the most accurate of the three,
+	 * but several times slower than the Taubin fit.
+	 */
+	HYPER("Hyper-renormalization") {
+		@Override
+		public double[] fit(int[] x, int[] y, int nPoints) {
+			return checkEllipse(FitEllipse.hyper(x, y, nPoints));
+		}
+	},
+	
+	/**
+	 * RANSAC with the default settings of {@link RansacEllipseFitter}, for contours with
+	 * outliers.
+	 */
+	RANSAC("RANSAC") {
+		private final EllipseFitter fitter = new RansacEllipseFitter(false);
+		
+		@Override
+		public double[] fit(int[] x, int[] y, int nPoints) {
+			return fitter.fit(x, y, nPoints);
+		}
+	},
+	
+	/**
+	 * Least median of squares with the default settings of {@link RansacEllipseFitter}.
+	 * Needs no inlier threshold, but at most half of the points may be outliers.
+	 */
+	LMEDS("LMedS") {
+		private final EllipseFitter fitter = new RansacEllipseFitter(true);
+		
+		@Override
+		public double[] fit(int[] x, int[] y, int nPoints) {
+			return fitter.fit(x, y, nPoints);
+		}
+	};
+	
+	private final String name;
+	
+	private EllipseFitMethod(String name) {
+		this.name = name;
+	}
+	
+	/**
+	 * @return The name shown in the dialog
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	@Override
+	public String toString() {
+		return name;
+	}
+	
+	/**
+	 * @return The names of all methods, in the order of {@link #values()}
+	 */
+	public static String[] getNames(){
+		EllipseFitMethod[] methods = values();
+		String[] names = new String[methods.length];
+		for (int i = 0; i < methods.length; i++) {
+			names[i] = methods[i].name;
+		}
+		return names;
+	}
+	
+	/**
+	 * @return The method with the given name
+	 * @throws IllegalArgumentException If there is no method with this name
+	 */
+	public static EllipseFitMethod forName(String name){
+		for (EllipseFitMethod method : values()) {
+			if(method.name.equals(name)){
+				return method;
+			}
+		}
+		throw new IllegalArgumentException("Unknown fit method "+name);
+	}
+	
+	/**
+	 * The Taubin and the hyper-renormalization fit return the best fitting conic, which
+	 * is a hyperbola or parabola for contours which are not elliptic.
+	 */
+	private static double[] checkEllipse(double[] p){
+		if(!(4*p[0]*p[2] - p[1]*p[1] > 0)){
+			throw new RuntimeException("No ellipse solution.");
+		}
+		return p;
+	}
+
+}
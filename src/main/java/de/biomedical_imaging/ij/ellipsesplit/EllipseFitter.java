@@ -0,0 +1,47 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 Thorsten Wagner (wagner@biomedical-imaging.de)
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.biomedical_imaging.ij.ellipsesplit;
+
+/**
+ * Fits an ellipse to contour points. The points are passed as primitive coordinate
+ * buffers (e.g. {@link IntPointList#getXArray()}), of which only the first
+ * <code>nPoints</code> entries are used. Implementations must not keep references to
+ * the buffers and have to be thread safe.
+ * 
+ * @see EllipseFitMethod
+ * @see EllipseSplitOptions#withFitter(EllipseFitter)
+ */
+public interface EllipseFitter {
+	
+	/**
+	 * @param x x coordinates
+	 * @param y y coordinates
+	 * @param nPoints Number of points to use, starting at index 0
+	 * @return The algebraic parameters {a b c d e f} of the ellipse
+	 * ax^2 + bxy + cy^2 + dx + ey + f = 0, normed so that ||A|| = 1
+	 * @throws RuntimeException If no ellipse fits the points
+	 */
+	double[] fit(int[] x, int[] y, int nPoints);
+
+}
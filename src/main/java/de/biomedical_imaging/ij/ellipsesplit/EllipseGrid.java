@@ -0,0 +1,156 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 Thorsten Wagner (wagner@biomedical-imaging.de)
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.biomedical_imaging.ij.ellipsesplit;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over an image for finding ellipses with overlapping bounding boxes.
+ * Each entry is an integer id (e.g. the index of an ellipse in a list) which is
+ * registered in all cells covered by its box. Boxes outside of the grid area are
+ * clamped to the border cells, so overlapping boxes always share at least one cell.
+ */
+class EllipseGrid {
+	
+	private final double cellSize;
+	private final int cols;
+	private final int rows;
+	private final int[][] cellIds;
+	private final int[] cellSizes;
+	private int[] stamps;
+	private int stamp;
+	
+	/**
+	 * @param width Width of the grid area
+	 * @param height Height of the grid area
+	 * @param cellSize Edge length of a cell
+	 */
+	public EllipseGrid(double width, double height, double cellSize) {
+		this.cellSize = cellSize;
+		cols = Math.max(1, (int)Math.ceil(width/cellSize));
+		rows = Math.max(1, (int)Math.ceil(height/cellSize));
+		cellIds = new int[cols*rows][];
+		cellSizes = new int[cols*rows];
+		stamps = new int[16];
+		stamp = 0;
+	}
+	
+	/**
+	 * Chooses a cell size of about the typical box size, but not so small that
+	 * the grid has (much) more cells than entries.
+	 * @param width Width of the grid area
+	 * @param height Height of the grid area
+	 * @param meanBoxSize Mean edge length of the boxes which will be inserted
+	 * @param n Number of boxes which will be inserted
+	 */
+	public static double suggestCellSize(double width, double height, double meanBoxSize, int n){
+		double minimum = Math.sqrt(width*height/Math.max(n, 1));
+		if(Double.isNaN(meanBoxSize) || meanBoxSize < minimum){
+			return Math.max(minimum, 1);
+		}
+		return meanBoxSize;
+	}
+	
+	/**
+	 * Registers an id in all cells covered by the box.
+	 */
+	public void insert(int id, double minX, double minY, double maxX, double maxY){
+		int c0 = col(minX), c1 = col(maxX);
+		int r0 = row(minY), r1 = row(maxY);
+		for(int r = r0; r <= r1; r++){
+			for(int c = c0; c <= c1; c++){
+				int cell = r*cols+c;
+				int[] ids = cellIds[cell];
+				if(ids==null){
+					ids = new int[4];
+					cellIds[cell] = ids;
+				}
+				else if(cellSizes[cell]==ids.length){
+					ids = Arrays.copyOf(ids, 2*ids.length);
+					cellIds[cell] = ids;
+				}
+				ids[cellSizes[cell]++] = id;
+			}
+		}
+		if(id >= stamps.length){
+			stamps = Arrays.copyOf(stamps, Math.max(2*stamps.length, id+1));
+		}
+	}
+	
+	/**
+	 * @return All ids (ascending, without duplicates) registered in a cell covered by the box.
+	 */
+	public int[] query(double minX, double minY, double maxX, double maxY){
+		int c0 = col(minX), c1 = col(maxX);
+		int r0 = row(minY), r1 = row(maxY);
+		stamp++;
+		int[] result = new int[8];
+		int n = 0;
+		for(int r = r0; r <= r1; r++){
+			for(int c = c0; c <= c1; c++){
+				int cell = r*cols+c;
+				int[] ids = cellIds[cell];
+				for(int k = 0; k < cellSizes[cell]; k++){
+					int id = ids[k];
+					if(stamps[id]!=stamp){
+						stamps[id] = stamp;
+						if(n==result.length){
+							result = Arrays.copyOf(result, 2*n);
+						}
+						result[n++] = id;
+					}
+				}
+			}
+		}
+		result = Arrays.copyOf(result, n);
+		Arrays.sort(result);
+		return result;
+	}
+	
+	/**
+	 * @return All ids registered in the cell containing the point.
+	 */
+	public int[] query(double x, double y){
+		return query(x, y, x, y);
+	}
+	
+	private int col(double x){
+		return clamp((int)Math.floor(x/cellSize), cols);
+	}
+	
+	private int row(double y){
+		return clamp((int)Math.floor(y/cellSize), rows);
+	}
+	
+	private static int clamp(int index, int n){
+		if(index < 0){
+			return 0;
+		}
+		if(index >= n){
+			return n-1;
+		}
+		return index;
+	}
+
+}
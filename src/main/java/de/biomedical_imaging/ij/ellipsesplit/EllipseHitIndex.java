@@ -0,0 +1,75 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 Thorsten Wagner (wagner@biomedical-imaging.de)
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.biomedical_imaging.ij.ellipsesplit;
+
+import java.awt.Polygon;
+import java.awt.Rectangle;
+
+/**
+ * Spatial index for finding the ellipse under a point (e.g. a mouse click) in a
+ * single frame. The bounding boxes of the ellipse polygons are registered in an
+ * {@link EllipseGrid}, so only the few ellipses near the point have to be tested.
+ */
+class EllipseHitIndex {
+	
+	private final ManyEllipses ellipses;
+	private final EllipseGrid grid;
+	
+	/**
+	 * @param ellipses Ellipses of one frame
+	 * @param width Width of the image
+	 * @param height Height of the image
+	 */
+	public EllipseHitIndex(ManyEllipses ellipses, int width, int height) {
+		this.ellipses = ellipses;
+		int n = ellipses.size();
+		Rectangle[] bounds = new Rectangle[n];
+		double sumSize = 0;
+		for (int i = 0; i < n; i++) {
+			bounds[i] = ellipses.get(i).getPolygon().getBounds();
+			sumSize += Math.max(bounds[i].width, bounds[i].height);
+		}
+		double cellSize = EllipseGrid.suggestCellSize(width, height, sumSize/n, n);
+		grid = new EllipseGrid(width, height, cellSize);
+		for (int i = 0; i < n; i++) {
+			Rectangle b = bounds[i];
+			grid.insert(i, b.x, b.y, b.x+b.width, b.y+b.height);
+		}
+	}
+	
+	/**
+	 * @return The index of the first ellipse whose polygon contains the point, or -1 if there is none.
+	 */
+	public synchronized int find(double x, double y){
+		int[] candidates = grid.query(x, y);
+		for (int i = 0; i < candidates.length; i++) {
+			Polygon p = ellipses.get(candidates[i]).getPolygon();
+			if(p.contains(x, y)){
+				return candidates[i];
+			}
+		}
+		return -1;
+	}
+
+}
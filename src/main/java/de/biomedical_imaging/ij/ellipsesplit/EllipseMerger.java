@@ -0,0 +1,192 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 Thorsten Wagner (wagner@biomedical-imaging.de)
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.biomedical_imaging.ij.ellipsesplit;
+
+import java.awt.Polygon;
+import java.util.ArrayList;
+import java.util.TreeSet;
+
+import ij.measure.Calibration;
+
+import com.seisw.util.geom.*;
+
+/**
+ * Merges ellipses whose relative overlap is larger than a threshold. Two ellipses are
+ * merged by fitting a new ellipse to the union of their contour points.
+ * <p>
+ * The result is the same as of the original merge loop: the ellipses are examined in list
+ * order, the first ellipse which overlaps with ellipses after it is merged with all of them,
+ * and the examination starts again at the second ellipse of the list. So the first ellipse
+ * takes part in no merge after the first one. If the fit of a merged ellipse fails, its
+ * parts are removed, as the original loop put an invalid fit in their place which the
+ * geometric filters removed.
+ * <p>
+ * Candidate pairs are found with an {@link EllipseGrid}: the center distance criterion
+ * (distance &lt; sum of the long axes / 2) implies that the boxes center &plusmn; long axis / 2
+ * overlap. Instead of starting again after every merge, only the merged ellipse and the
+ * ellipses before it which it may overlap are examined again, since the pairs between the
+ * other ellipses did not change.
+ */
+class EllipseMerger {
+	
+	private final EllipseSplitter splitter;
+	private final double overlappingThreshold;
+	private final Calibration cal;
+	private final EllipseOverlap overlap;
+	
+	/**
+	 * @param splitter Used to fit the merged ellipses
+	 * @param overlappingThreshold Relative overlap (0..1) above which two ellipses are merged
+	 * @param cal Calibration of the image
+	 * @param overlap Calculates the relative overlap. If null, the overlap is calculated by
+	 * clipping the ellipse polygons.
+	 */
+	public EllipseMerger(EllipseSplitter splitter, double overlappingThreshold, Calibration cal, EllipseOverlap overlap) {
+		this.splitter = splitter;
+		this.overlappingThreshold = overlappingThreshold;
+		this.cal = cal;
+		this.overlap = overlap;
+	}
+	
+	/**
+	 * Merges the overlapping ellipses in place. A merged ellipse takes the position of
+	 * the first of its parts, the other parts are removed.
+	 * @param ellipses Ellipses to merge
+	 * @param width Width of the image
+	 * @param height Height of the image
+	 */
+	public void merge(ArrayList<Ellipse> ellipses, int width, int height){
+		int n = ellipses.size();
+		if(n < 2){
+			return;
+		}
+		Ellipse[] slots = ellipses.toArray(new Ellipse[n]);
+		
+		double meanSize = 0;
+		for (Ellipse e : slots) {
+			meanSize += e.getLengthLongAxis();
+		}
+		meanSize /= n;
+		EllipseGrid grid = new EllipseGrid(width, height, EllipseGrid.suggestCellSize(width, height, meanSize, n));
+		for(int i = 0; i < n; i++){
+			insert(grid, i, slots[i]);
+		}
+		
+		// Ellipses which may overlap with an ellipse after them. The list order is kept in
+		// the slots, so the smallest one is the ellipse which the original loop merged next.
+		TreeSet<Integer> unchecked = new TreeSet<Integer>();
+		for(int i = 0; i < n; i++){
+			unchecked.add(i);
+		}
+		boolean mergedOnce = false;
+		
+		while(!unchecked.isEmpty()){
+			int i = unchecked.pollFirst();
+			Ellipse ei = slots[i];
+			if(ei == null || (mergedOnce && i == 0) || !isValid(ei)){
+				continue;
+			}
+			double halfSize = ei.getLengthLongAxis()/2.0;
+			int[] candidates = grid.query(ei.getX()-halfSize, ei.getY()-halfSize, ei.getX()+halfSize, ei.getY()+halfSize);
+			
+			ArrayList<Integer> mergeEllipses = new ArrayList<Integer>();
+			Poly p1 = null;
+			double p1Area = 0;
+			for (int j : candidates) {
+				Ellipse ej = slots[j];
+				if(j <= i || ej == null){
+					continue;
+				}
+				if( Math.sqrt(Math.pow(ej.getX()-ei.getX(),2)+
+						Math.pow(ej.getY()-ei.getY(),2)) < (ej.getLengthLongAxis()+ei.getLengthLongAxis())/2.0){
+					double relativeOverlap;
+					if(overlap != null){
+						relativeOverlap = overlap.relativeOverlap(ei, ej);
+					}else{
+						if(p1 == null){
+							p1 = polygonToPoly(ei.getPolygon());
+							p1Area = p1.getArea();
+						}
+						Poly p2 = polygonToPoly(ej.getPolygon());
+						double p2Area = p2.getArea();
+						
+						double interArea = Clip.intersection(p1, p2).getArea();
+						relativeOverlap = Math.max(interArea/p2Area,interArea/p1Area);
+					}
+					if(relativeOverlap>overlappingThreshold){
+						mergeEllipses.add(j);
+					}
+				}
+			}
+			
+			if(mergeEllipses.size()>0){
+				IntPointList newPoints = new IntPointList(ei.getPoints());
+				for (int j : mergeEllipses) {
+					newPoints.addAll(slots[j].getPoints());
+					slots[j] = null;
+				}
+				Ellipse merged = splitter.fitEllipse(newPoints, cal);
+				slots[i] = merged;
+				mergedOnce = true;
+				if(merged == null || !isValid(merged)){
+					// An invalid fit overlaps with nothing and is removed by the geometric filters
+					continue;
+				}
+				insert(grid, i, merged);
+				unchecked.add(i);
+				halfSize = merged.getLengthLongAxis()/2.0;
+				for (int j : grid.query(merged.getX()-halfSize, merged.getY()-halfSize, merged.getX()+halfSize, merged.getY()+halfSize)) {
+					if(j < i && slots[j] != null){
+						unchecked.add(j);
+					}
+				}
+			}
+		}
+		
+		ellipses.clear();
+		for (Ellipse e : slots) {
+			if(e != null){
+				ellipses.add(e);
+			}
+		}
+	}
+	
+	private boolean isValid(Ellipse e){
+		return !(Double.isNaN(e.getX()) || Double.isNaN(e.getY()) || Double.isNaN(e.getLengthLongAxis()));
+	}
+	
+	private void insert(EllipseGrid grid, int id, Ellipse e){
+		double halfSize = e.getLengthLongAxis()/2.0;
+		grid.insert(id, e.getX()-halfSize, e.getY()-halfSize, e.getX()+halfSize, e.getY()+halfSize);
+	}
+	
+	private Poly polygonToPoly(Polygon p){
+		Poly p2 = new PolyDefault();
+		for(int i = 0; i < p.npoints; i++){
+			p2.add(p.xpoints[i],p.ypoints[i]);
+		}
+		return p2;
+	}
+
+}
@@ -0,0 +1,148 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 Thorsten Wagner (wagner@biomedical-imaging.de)
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.biomedical_imaging.ij.ellipsesplit;
+
+/**
+ * Computes the overlap of two ellipses directly from their center, semi axes and rotation
+ * (the same geometry as {@link Ellipse#getRoi()}), without creating polygons.
+ * <p>
+ * Disjoint ellipses are rejected by a bounding circle test and a separating axis test on
+ * the four ellipse axes. Otherwise the intersection area is integrated over scan lines
+ * parallel to the long axis of the smaller ellipse. The scan lines are placed at
+ * t = b sin(phi) for equally spaced phi, which integrates a single ellipse exactly. The
+ * error of the intersection area decreases with 1/n<sup>2</sup> for n scan lines; with
+ * 64 lines it is below 0.5% of the area of the smaller ellipse.
+ */
+class EllipseOverlap {
+	
+	private final int scanLines;
+	
+	/**
+	 * @param scanLines Number of scan lines used for the area integration (precision)
+	 */
+	public EllipseOverlap(int scanLines) {
+		this.scanLines = Math.max(2, scanLines);
+	}
+	
+	/**
+	 * @return The intersection area divided by the area of the smaller ellipse,
+	 * i.e. max(intersection/area1, intersection/area2)
+	 */
+	public double relativeOverlap(Ellipse e1, Ellipse e2){
+		double area1 = Math.PI*e1.getLongAxis()*e1.getShortAxis();
+		double area2 = Math.PI*e2.getLongAxis()*e2.getShortAxis();
+		double interArea = intersectionArea(e1, e2);
+		return Math.max(interArea/area2, interArea/area1);
+	}
+	
+	/**
+	 * @return Intersection area of the ellipses in square pixels
+	 */
+	public double intersectionArea(Ellipse e1, Ellipse e2){
+		if(e1.getLongAxis()*e1.getShortAxis() > e2.getLongAxis()*e2.getShortAxis()){
+			Ellipse tmp = e1;
+			e1 = e2;
+			e2 = tmp;
+		}
+		double a1 = e1.getLongAxis();
+		double b1 = e1.getShortAxis();
+		double a2 = e2.getLongAxis();
+		double b2 = e2.getShortAxis();
+		if(!(a1 > 0 && b1 > 0 && a2 > 0 && b2 > 0)){
+			return 0;
+		}
+		double dx = e1.getX()-e2.getX();
+		double dy = e1.getY()-e2.getY();
+		if(dx*dx+dy*dy >= (a1+a2)*(a1+a2)){
+			return 0;
+		}
+		
+		double phi1 = Math.toRadians(e1.getRotationAngle());
+		double phi2 = Math.toRadians(e2.getRotationAngle());
+		// unit vectors of the long (u) and short (v) axes
+		double u1x = Math.cos(phi1), u1y = Math.sin(phi1);
+		double v1x = -u1y, v1y = u1x;
+		double u2x = Math.cos(phi2), u2y = Math.sin(phi2);
+		double v2x = -u2y, v2y = u2x;
+		
+		if(separated(u1x, u1y, dx, dy, a1, b1, u1x, u1y, a2, b2, u2x, u2y) ||
+				separated(v1x, v1y, dx, dy, a1, b1, u1x, u1y, a2, b2, u2x, u2y) ||
+				separated(u2x, u2y, dx, dy, a1, b1, u1x, u1y, a2, b2, u2x, u2y) ||
+				separated(v2x, v2y, dx, dy, a1, b1, u1x, u1y, a2, b2, u2x, u2y)){
+			return 0;
+		}
+		
+		// A scan line of ellipse 1 is c1 + t*v1 + s*u1. In the frame of ellipse 2 its
+		// points are (al + s*ga, be + s*de) with al, be linear in t.
+		double ga = (u1x*u2x+u1y*u2y)/a2;
+		double de = (u1x*v2x+u1y*v2y)/b2;
+		double alT = (v1x*u2x+v1y*u2y)/a2;
+		double beT = (v1x*v2x+v1y*v2y)/b2;
+		double al0 = (dx*u2x+dy*u2y)/a2;
+		double be0 = (dx*v2x+dy*v2y)/b2;
+		double qa = ga*ga+de*de;
+		
+		double area = 0;
+		double dPhi = Math.PI/scanLines;
+		for(int k = 0; k < scanLines; k++){
+			double phi = -Math.PI/2 + (k+0.5)*dPhi;
+			double cosPhi = Math.cos(phi);
+			double t = b1*Math.sin(phi);
+			double halfChord = a1*cosPhi;
+			
+			double al = al0 + t*alT;
+			double be = be0 + t*beT;
+			double qb = 2*(al*ga+be*de);
+			double qc = al*al+be*be-1;
+			double disc = qb*qb-4*qa*qc;
+			if(disc <= 0){
+				continue;
+			}
+			double sqrtDisc = Math.sqrt(disc);
+			double lo = Math.max(-halfChord, (-qb-sqrtDisc)/(2*qa));
+			double hi = Math.min(halfChord, (-qb+sqrtDisc)/(2*qa));
+			if(hi > lo){
+				// dt = b1*cos(phi)*dPhi
+				area += (hi-lo)*b1*cosPhi*dPhi;
+			}
+		}
+		return area;
+	}
+	
+	/**
+	 * Separating axis test with the exact projections of both ellipses onto the axis n.
+	 */
+	private static boolean separated(double nx, double ny, double dx, double dy,
+			double a1, double b1, double u1x, double u1y,
+			double a2, double b2, double u2x, double u2y){
+		double pu1 = a1*(nx*u1x+ny*u1y);
+		double pv1 = b1*(ny*u1x-nx*u1y);
+		double pu2 = a2*(nx*u2x+ny*u2y);
+		double pv2 = b2*(ny*u2x-nx*u2y);
+		double r1 = Math.sqrt(pu1*pu1+pv1*pv1);
+		double r2 = Math.sqrt(pu2*pu2+pv2*pv2);
+		return Math.abs(nx*dx+ny*dy) >= r1+r2;
+	}
+
+}
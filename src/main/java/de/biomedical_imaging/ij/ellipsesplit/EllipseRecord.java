@@ -0,0 +1,148 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 Thorsten Wagner (wagner@biomedical-imaging.de)
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.biomedical_imaging.ij.ellipsesplit;
+
+import org.doube.geometry.FitEllipse;
+
+/**
+ * Immutable result of an ellipse fit: the algebraic parameters and the geometric parameters
+ * derived from them, in pixels. It consists of primitive fields only and is produced for every
+ * fitted candidate. The {@link Ellipse} with the contour points, the calibration and the ROI is
+ * only created for the candidates which pass the fit checks.
+ */
+public final class EllipseRecord {
+	
+	static final EllipseRecord EMPTY = new EllipseRecord(new double[6], new double[5]);
+	
+	// Algebraic parameters of ax² + bxy + cy² + dx + ey + f = 0
+	private final double a;
+	private final double b;
+	private final double c;
+	private final double d;
+	private final double e;
+	private final double f;
+	
+	private final double x;
+	private final double y;
+	private final double shortAxis;
+	private final double longAxis;
+	private final double phi;
+	
+	/**
+	 * @param parameterVector Algebraic parameters a, b, c, d, e, f
+	 */
+	public EllipseRecord(double[] parameterVector) {
+		this(parameterVector, FitEllipse.varToDimensions(parameterVector));
+	}
+	
+	private EllipseRecord(double[] parameterVector, double[] dimensions) {
+		a = parameterVector[0];
+		b = parameterVector[1];
+		c = parameterVector[2];
+		d = parameterVector[3];
+		e = parameterVector[4];
+		f = parameterVector[5];
+		x = dimensions[0];
+		y = dimensions[1];
+		shortAxis = dimensions[2]<=dimensions[3] ? dimensions[2] : dimensions[3];
+		longAxis = dimensions[2]>=dimensions[3] ? dimensions[2] : dimensions[3];
+		phi = dimensions[4];
+	}
+	
+	public double getA() {
+		return a;
+	}
+	
+	public double getB() {
+		return b;
+	}
+	
+	public double getC() {
+		return c;
+	}
+	
+	public double getD() {
+		return d;
+	}
+	
+	public double getE() {
+		return e;
+	}
+	
+	public double getF() {
+		return f;
+	}
+	
+	/**
+	 * @return A new array with the algebraic parameters a, b, c, d, e, f
+	 */
+	public double[] getParameterVector() {
+		return new double[]{a, b, c, d, e, f};
+	}
+	
+	public double getX() {
+		return x;
+	}
+	
+	public double getY() {
+		return y;
+	}
+	
+	/**
+	 * @return Short semi axis in pixels
+	 */
+	public double getShortAxis() {
+		return shortAxis;
+	}
+	
+	/**
+	 * @return Long semi axis in pixels
+	 */
+	public double getLongAxis() {
+		return longAxis;
+	}
+	
+	public double getPhi() {
+		return phi;
+	}
+	
+	/**
+	 * @return Short axis / long axis
+	 */
+	public double getAspectRatio() {
+		return shortAxis / longAxis;
+	}
+	
+	/**
+	 * @return Rotation angle in degrees as shown in the results table
+	 */
+	public double getRotationAngle(){
+		double rotationAngle = phi*180/Math.PI;
+		if (f < 0) {
+			rotationAngle = rotationAngle + 90;
+		}
+		return rotationAngle;
+	}
+
+}
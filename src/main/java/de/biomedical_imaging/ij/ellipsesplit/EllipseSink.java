@@ -0,0 +1,44 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 Thorsten Wagner (wagner@biomedical-imaging.de)
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.biomedical_imaging.ij.ellipsesplit;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Receives the ellipses of each frame as soon as the frame is done, so that the results of
+ * long stacks do not have to be kept in memory. A sink is called for one frame at a time
+ * and, unless it is an {@link UnorderedEllipseSink}, in increasing frame order (see
+ * {@link FrameOrderedSink}), therefore implementations need not be thread-safe.
+ */
+public interface EllipseSink extends Closeable {
+	
+	/**
+	 * @param frame Frame number (1-based, as the slice number of ImageJ)
+	 * @param ellipses Ellipses of the frame. The sink must not modify them.
+	 * @throws IOException If the ellipses could not be written
+	 */
+	public void write(int frame, ManyEllipses ellipses) throws IOException;
+	
+}
@@ -0,0 +1,366 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 Thorsten Wagner (wagner@biomedical-imaging.de)
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.biomedical_imaging.ij.ellipsesplit;
+
+/**
+ * Immutable set of parameters for {@link EllipseSplitter}. New option sets are derived
+ * with the <code>with...</code> methods, which return a modified copy.
+ */
+public final class EllipseSplitOptions {
+	
+	private final boolean removeOnEdge;
+	private final boolean merge;
+	private final double overlappingThreshold;
+	private final int overlapPrecision;
+	private final boolean polygonOverlap;
+	private final boolean reuseBuffers;
+	private final int tileSize;
+	private final int tileOverlap;
+	private final int threads;
+	private final boolean dropPoints;
+	private final int minBlobSize;
+	private final EllipseFitter fitter;
+	private final int maxFitPoints;
+	
+	//Geometric Bounds for filtering
+	private final double[] majorAxisBounds;
+	private final double[] minorAxisBounds;
+	private final double[] aspectRatioBounds;
+	
+	/**
+	 * Default options: no edge removal, no merging and no geometric filtering.
+	 */
+	public EllipseSplitOptions() {
+		this(new Builder());
+	}
+	
+	private EllipseSplitOptions(Builder b) {
+		removeOnEdge = b.removeOnEdge;
+		merge = b.merge;
+		overlappingThreshold = b.overlappingThreshold;
+		overlapPrecision = b.overlapPrecision;
+		polygonOverlap = b.polygonOverlap;
+		reuseBuffers = b.reuseBuffers;
+		tileSize = b.tileSize;
+		tileOverlap = b.tileOverlap;
+		threads = b.threads;
+		dropPoints = b.dropPoints;
+		minBlobSize = b.minBlobSize;
+		fitter = b.fitter;
+		maxFitPoints = b.maxFitPoints;
+		majorAxisBounds = b.majorAxisBounds;
+		minorAxisBounds = b.minorAxisBounds;
+		aspectRatioBounds = b.aspectRatioBounds;
+	}
+	
+	/**
+	 * @param removeOnEdge True when blobs touching the image edge should be ignored
+	 */
+	public EllipseSplitOptions withRemoveOnEdge(boolean removeOnEdge){
+		Builder b = new Builder(this);
+		b.removeOnEdge = removeOnEdge;
+		return b.build();
+	}
+	
+	/**
+	 * @param merge True when overlapping ellipses should be merged
+	 * @param overlappingThreshold When the relative overlapping between two ellipses is larger
+	 * then this value, then the ellipses will be merged. The value has to be between 0 and 1. 
+	 */
+	public EllipseSplitOptions withMerge(boolean merge, double overlappingThreshold){
+		Builder b = new Builder(this);
+		b.merge = merge;
+		b.overlappingThreshold = overlappingThreshold;
+		return b.build();
+	}
+	
+	/**
+	 * @param overlapPrecision Number of scan lines used to integrate the overlap area of two ellipses
+	 */
+	public EllipseSplitOptions withOverlapPrecision(int overlapPrecision){
+		Builder b = new Builder(this);
+		b.overlapPrecision = overlapPrecision;
+		return b.build();
+	}
+	
+	/**
+	 * @param polygonOverlap True when the overlap should be calculated by clipping the ellipse
+	 * polygons (GPCJ) instead of the analytic calculation
+	 */
+	public EllipseSplitOptions withPolygonOverlap(boolean polygonOverlap){
+		Builder b = new Builder(this);
+		b.polygonOverlap = polygonOverlap;
+		return b.build();
+	}
+	
+	/**
+	 * @param reuseBuffers True when the image buffers of the watershed and the separator mask
+	 * should be kept by the splitter and reused for the next image of the same size. This avoids
+	 * two full image allocations per image, but the buffers stay allocated as long as the
+	 * splitter. Splitters which are created per image can share a {@link SplitBuffers} pool
+	 * instead.
+	 */
+	public EllipseSplitOptions withReuseBuffers(boolean reuseBuffers){
+		Builder b = new Builder(this);
+		b.reuseBuffers = reuseBuffers;
+		return b.build();
+	}
+	
+	/**
+	 * Images larger than the tile size are processed in overlapping tiles. The result is
+	 * the same as for the whole image: every object is fitted in the tile which contains its
+	 * first pixel, objects which are cut by the border of that tile are processed separately
+	 * and merging is done afterwards for the whole image.
+	 * <p>
+	 * Tiling parallelizes the split of a single image and bounds the memory of the watershed to
+	 * the tiles, but the image itself still has to fit in memory (see {@link TiledSplit}).
+	 * @param tileSize Edge length of the tiles in pixels, 0 to process the whole image at once
+	 * @param tileOverlap Number of pixels by which the tiles are extended on each side. Objects
+	 * smaller than the overlap are never cut.
+	 */
+	public EllipseSplitOptions withTiles(int tileSize, int tileOverlap){
+		Builder b = new Builder(this);
+		b.tileSize = Math.max(0, tileSize);
+		b.tileOverlap = Math.max(0, tileOverlap);
+		return b.build();
+	}
+	
+	/**
+	 * @param threads Number of threads used to process the tiles
+	 */
+	public EllipseSplitOptions withThreads(int threads){
+		Builder b = new Builder(this);
+		b.threads = Math.max(1, threads);
+		return b.build();
+	}
+	
+	/**
+	 * @param dropPoints True when the contour points should be removed from the ellipses after
+	 * merging and filtering. The points are usually the largest part of an ellipse, dropping them
+	 * keeps the memory of long stacks small when the ellipses are retained.
+	 */
+	public EllipseSplitOptions withDropPoints(boolean dropPoints){
+		Builder b = new Builder(this);
+		b.dropPoints = dropPoints;
+		return b.build();
+	}
+	
+	/**
+	 * @param minBlobSize Blobs whose bounding box is smaller than this size (in pixels) in both
+	 * directions are ignored before fitting, e.g. to skip debris. 0 to fit all blobs.
+	 */
+	public EllipseSplitOptions withMinBlobSize(int minBlobSize){
+		Builder b = new Builder(this);
+		b.minBlobSize = Math.max(0, minBlobSize);
+		return b.build();
+	}
+	
+	/**
+	 * @param fitter Fit of the ellipses to the contour points, e.g. one of the
+	 * {@link EllipseFitMethod}s. The default is {@link EllipseFitMethod#DIRECT}.
+	 */
+	public EllipseSplitOptions withFitter(EllipseFitter fitter){
+		if(fitter == null){
+			throw new IllegalArgumentException("fitter must not be null");
+		}
+		Builder b = new Builder(this);
+		b.fitter = fitter;
+		return b.build();
+	}
+	
+	/**
+	 * @param maxFitPoints Contours with more points are reduced to this number of points,
+	 * equally spaced in arc length, before fitting (see {@link IntPointList#decimate(int)}).
+	 * This bounds the cost of the fit and the memory of the kept contour points for large
+	 * blobs. On the bundled test images 128 points keep the centres within 0.7 px and the
+	 * axis lengths within 0.4 px of the full resolution fits. Fits to the short arcs of
+	 * split blobs degrade quickly with fewer points. 0 to fit all points.
+	 */
+	public EllipseSplitOptions withMaxFitPoints(int maxFitPoints){
+		Builder b = new Builder(this);
+		b.maxFitPoints = Math.max(0, maxFitPoints);
+		return b.build();
+	}
+	
+	/**
+	 * Geometric filters. The axis bounds are full axis lengths in pixels, the aspect ratio
+	 * bounds refer to long axis / short axis.
+	 * @param majorAxisBounds [0] lower bound, [1] upper bound
+	 * @param minorAxisBounds [0] lower bound, [1] upper bound
+	 * @param aspectRatioBounds [0] lower bound, [1] upper bound
+	 */
+	public EllipseSplitOptions withBounds(double[] majorAxisBounds, double[] minorAxisBounds, double[] aspectRatioBounds){
+		Builder b = new Builder(this);
+		b.majorAxisBounds = majorAxisBounds.clone();
+		b.minorAxisBounds = minorAxisBounds.clone();
+		b.aspectRatioBounds = aspectRatioBounds.clone();
+		return b.build();
+	}
+	
+	public boolean isRemoveOnEdge() {
+		return removeOnEdge;
+	}
+	
+	public boolean isMerge() {
+		return merge;
+	}
+	
+	public double getOverlappingThreshold() {
+		return overlappingThreshold;
+	}
+	
+	public int getOverlapPrecision() {
+		return overlapPrecision;
+	}
+	
+	public boolean isPolygonOverlap() {
+		return polygonOverlap;
+	}
+	
+	public boolean isReuseBuffers() {
+		return reuseBuffers;
+	}
+	
+	public int getTileSize() {
+		return tileSize;
+	}
+	
+	public int getTileOverlap() {
+		return tileOverlap;
+	}
+	
+	public int getThreads() {
+		return threads;
+	}
+	
+	public boolean isDropPoints() {
+		return dropPoints;
+	}
+	
+	public int getMinBlobSize() {
+		return minBlobSize;
+	}
+	
+	public EllipseFitter getFitter() {
+		return fitter;
+	}
+	
+	public int getMaxFitPoints() {
+		return maxFitPoints;
+	}
+	
+	public double[] getMajorAxisBounds() {
+		return majorAxisBounds.clone();
+	}
+	
+	public double[] getMinorAxisBounds() {
+		return minorAxisBounds.clone();
+	}
+	
+	public double[] getAspectRatioBounds() {
+		return aspectRatioBounds.clone();
+	}
+	
+	boolean checkMajorAxis(double value){
+		return checkBounds(value, majorAxisBounds);
+	}
+	
+	boolean checkMinorAxis(double value){
+		return checkBounds(value, minorAxisBounds);
+	}
+	
+	boolean checkAspectRatio(double value){
+		return checkBounds(value, aspectRatioBounds);
+	}
+	
+	private static boolean checkBounds(double value, double[] bounds){
+		return value >= bounds[0] && value <= bounds[1];
+	}
+	
+	/**
+	 * Values of an option set while it is derived.
+	 */
+	private static final class Builder {
+		
+		boolean removeOnEdge;
+		boolean merge;
+		double overlappingThreshold;
+		int overlapPrecision;
+		boolean polygonOverlap;
+		boolean reuseBuffers;
+		int tileSize;
+		int tileOverlap;
+		int threads;
+		boolean dropPoints;
+		int minBlobSize;
+		EllipseFitter fitter;
+		int maxFitPoints;
+		double[] majorAxisBounds;
+		double[] minorAxisBounds;
+		double[] aspectRatioBounds;
+		
+		Builder() {
+			removeOnEdge = false;
+			merge = false;
+			overlappingThreshold = 1;
+			overlapPrecision = 64;
+			polygonOverlap = false;
+			reuseBuffers = false;
+			tileSize = 0;
+			tileOverlap = 64;
+			threads = Runtime.getRuntime().availableProcessors();
+			dropPoints = false;
+			minBlobSize = 0;
+			fitter = EllipseFitMethod.DIRECT;
+			maxFitPoints = 0;
+			majorAxisBounds = new double[]{0, Double.POSITIVE_INFINITY};
+			minorAxisBounds = new double[]{0, Double.POSITIVE_INFINITY};
+			aspectRatioBounds = new double[]{1, Double.POSITIVE_INFINITY};
+		}
+		
+		Builder(EllipseSplitOptions o) {
+			removeOnEdge = o.removeOnEdge;
+			merge = o.merge;
+			overlappingThreshold = o.overlappingThreshold;
+			overlapPrecision = o.overlapPrecision;
+			polygonOverlap = o.polygonOverlap;
+			reuseBuffers = o.reuseBuffers;
+			tileSize = o.tileSize;
+			tileOverlap = o.tileOverlap;
+			threads = o.threads;
+			dropPoints = o.dropPoints;
+			minBlobSize = o.minBlobSize;
+			fitter = o.fitter;
+			maxFitPoints = o.maxFitPoints;
+			majorAxisBounds = o.majorAxisBounds;
+			minorAxisBounds = o.minorAxisBounds;
+			aspectRatioBounds = o.aspectRatioBounds;
+		}
+		
+		EllipseSplitOptions build() {
+			return new EllipseSplitOptions(this);
+		}
+	}
+
+}
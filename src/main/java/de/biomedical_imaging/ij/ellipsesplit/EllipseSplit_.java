@@ -24,31 +24,21 @@
 package de.biomedical_imaging.ij.ellipsesplit;
 
 import java.awt.AWTEvent;
-import java.awt.Polygon;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
-
-import org.doube.geometry.FitEllipse;
 
 import ij.IJ;
 import ij.ImagePlus;
+import ij.Prefs;
 import ij.WindowManager;
-import ij.blob.Blob;
-import ij.blob.ManyBlobs;
 import ij.gui.DialogListener;
 import ij.gui.GenericDialog;
-import ij.gui.PolygonRoi;
-import ij.gui.Roi;
 import ij.measure.ResultsTable;
-import ij.plugin.ImageCalculator;
-import ij.plugin.filter.EDM;
 import ij.plugin.filter.ExtendedPlugInFilter;
 import ij.plugin.filter.PlugInFilterRunner;
 import ij.plugin.frame.RoiManager;
 import ij.process.ImageProcessor;
 
-import com.seisw.util.geom.*;
-
 
 
 public class EllipseSplit_ implements ExtendedPlugInFilter, DialogListener {
@@ -61,7 +51,25 @@ public class EllipseSplit_ implements ExtendedPlugInFilter, DialogListener {
 	private double overlappingThreshold;
 	private boolean useSplitImage;
 	private boolean removeOnEdge;
+	private int tileSize;
+	private int minBlobSize;
+	private int maxFitPoints;
+	private boolean dropPoints;
+	private EllipseFitMethod fitMethod;
+	private GeometricEllipseFitter refinement;
 	private ArrayList<ManyEllipses> allEllipses;
+	private ManyEllipses[] ellipsesPerSlice;
+	/** Bytes allocated by the thread which processed the slice, see {@link ThreadAllocation} */
+	private long[] threadAllocatedBytesPerSlice;
+	private FrameOrderedSink sink;
+	/**
+	 * Shared by the splitters of the frames of a stack, released at the end of the run
+	 */
+	private SplitBuffers buffers;
+	private boolean preview;
+	private ResultsTableSink resultsTableSink;
+	private final ArrayList<EllipseSink> additionalSinks;
+	private EllipseHitIndex[] hitIndices;
 	private ImagePlus splitImage;
 	private ImagePlus imp;
 	private ResultsTable results;
@@ -82,72 +90,155 @@ public class EllipseSplit_ implements ExtendedPlugInFilter, DialogListener {
 		overlappingThreshold = 1;
 		useSplitImage = false;
 		removeOnEdge = false;
+		tileSize = 0;
+		minBlobSize = 0;
+		maxFitPoints = 0;
+		dropPoints = false;
+		fitMethod = EllipseFitMethod.DIRECT;
+		additionalSinks = new ArrayList<EllipseSink>();
 	}
 	
 	@Override
 	public int setup(String arg, ImagePlus imp) {
 		if(arg=="final"){
+			collectSlices();
 			if(addToResultsTable){
-				results.show("Results");
-				rtsd = new ResultsTableSelectionDrawer(imp);
-				IJ.getTextPanel().addMouseListener(rtsd);
-				irts = new ImageResultsTableSelector(imp);
-				if(imp.getWindow()!=null){
-					imp.getWindow().getComponent(0).addMouseListener(irts);
-				}
-				
+				showResults();
 				return DONE;
 			}
 		}
 	
-		return FLAGS | DOES_STACKS;
+		return FLAGS | DOES_STACKS | PARALLELIZE_STACKS;
+	}
+	
+	/**
+	 * Shows the results table and installs the selection tools on the table and the image.
+	 */
+	private void showResults(){
+		results.show("Results");
+		rtsd = new ResultsTableSelectionDrawer(imp);
+		IJ.getTextPanel().addMouseListener(rtsd);
+		irts = new ImageResultsTableSelector(imp);
+		if(imp.getWindow()!=null){
+			imp.getWindow().getComponent(0).addMouseListener(irts);
+		}
+	}
+	
+	/**
+	 * Shows the ellipses of a file written by {@link BinaryEllipseSink} in the results table
+	 * and enables the selection tools for them, as after a run of the plugin.
+	 * @param imp Image the ellipses were fitted in
+	 * @param reader Ellipse file
+	 */
+	public void load(ImagePlus imp, BinaryEllipseReader reader) throws IOException {
+		this.imp = imp;
+		addToManager = false;
+		addToResultsTable = true;
+		createSinks(false, 1);
+		for (int frame = 1; frame <= imp.getStackSize(); frame++) {
+			ManyEllipses ellipses = reader.readFrame(frame, imp.getCalibration());
+			ellipsesPerSlice[frame-1] = ellipses;
+			sink.write(frame, ellipses);
+		}
+		collectSlices();
+		showResults();
 	}
 
+	/**
+	 * Processes a single slice. For stacks this method is called concurrently for different slices
+	 * (PARALLELIZE_STACKS). The ellipses are passed to the sinks (ROI Manager, Results Table and
+	 * the additional sinks) in frame order as soon as all previous slices are done, or at once for sinks which
+	 * accept any order, see {@link FrameOrderedSink}.
+	 * The ellipses are only kept afterwards if the results table is shown, because the selection tools need them.
+	 */
 	@Override
 	public void run(ImageProcessor ip) {
 		// Split ellipses
+		long allocatedBefore = ThreadAllocation.allocatedBytes();
 		ManyEllipses ellipses = splitAndFitEllipse(ip, addToManager, addToResultsTable, merge,removeOnEdge, overlappingThreshold);
+		long allocatedAfter = ThreadAllocation.allocatedBytes();
+		
+		int slice = ip.getSliceNumber();
+		if(addToResultsTable){
+			ellipsesPerSlice[slice-1] = ellipses;
+		}
+		threadAllocatedBytesPerSlice[slice-1] = allocatedBefore < 0 ? -1 : allocatedAfter - allocatedBefore;
+		try {
+			sink.write(slice, ellipses);
+			if(preview){
+				// there is no final processing for the preview
+				sink.close();
+			}
+		} catch (IOException e) {
+			IJ.handleException(e);
+		}
+	}
 	
+	/**
+	 * Writes the frames which are still pending, closes the sinks, drops the buffer pool and collects the kept
+	 * ellipses into allEllipses in frame order.
+	 */
+	private void collectSlices(){
+		try {
+			sink.close();
+		} catch (IOException e) {
+			IJ.handleException(e);
+		}
+		buffers = null;
+		additionalSinks.clear();
+		allEllipses = new ArrayList<ManyEllipses>();
+		hitIndices = new EllipseHitIndex[ellipsesPerSlice.length];
+		for(int i = 0; i < ellipsesPerSlice.length; i++){
+			ManyEllipses ellipses = ellipsesPerSlice[i];
+			if(ellipses==null){
+				ellipses = new ManyEllipses();
+			}
+			if(IJ.debugMode && threadAllocatedBytesPerSlice[i] > 0){
+				IJ.log("Ellipse split frame "+(i+1)+": "+IJ.d2s(threadAllocatedBytesPerSlice[i]/(1024.0*1024.0), 1)+" MB allocated (calling thread only)");
+			}
+			allEllipses.add(ellipses);
+		}
+		if(IJ.debugMode && refinement != null){
+			IJ.log("Ellipse split geometric refinement: "+refinement.getStatistics());
+		}
+	}
 	
-		
-		// Output
-		RoiManager  rm = RoiManager.getInstance();
-		if(rm==null && addToManager){
-			rm = new RoiManager();
-			rm.runCommand("Show all");
+	/**
+	 * Creates the sinks for the current settings and clears the per-slice results.
+	 * @param withAdditionalSinks False for the preview, which is not written to the additional sinks
+	 * @param firstFrame First frame which is written. The preview processes only the current slice,
+	 * so its sinks have to start there instead of waiting for the frames before it.
+	 */
+	private void createSinks(boolean withAdditionalSinks, int firstFrame){
+		preview = false;
+		int frames = imp.getStackSize();
+		ArrayList<EllipseSink> sinks = new ArrayList<EllipseSink>();
+		if(addToManager){
+			sinks.add(new RoiManagerSink(imp));
 		}
 		results = ResultsTable.getResultsTable();
 		if(results==null){
 			results =  new ResultsTable();
-			
 		}
-		for (Ellipse e : ellipses) {
-			if(addToManager){
-				Roi r = e.getRoi();
-				r.setPosition(ip.getSliceNumber());
-				r.setName(""+e.getLabel());
-				rm.addRoi(r);
-			}
-			
-			if(addToResultsTable){
-				results.incrementCounter();
-				results.addValue("Frame",ip.getSliceNumber());
-				results.addValue("Label",e.getLabel());
-				results.addValue("X", e.getX());
-				results.addValue("Y", e.getY());
-				results.addValue("Area", Math.PI*e.getLengthLongAxis()*e.getLengthShortAxis());
-				results.addValue("Length long axis", e.getLengthLongAxis()*2);
-				results.addValue("Length short axis", e.getLengthShortAxis()*2);
-				results.addValue("Aspect ratio", 1.0/e.getAspectRatio());
-				results.addValue("Rotation angle", e.getRotationAngle());
-				//results.addValue("R", e.getRValue());
-				//IJ.log("Distance: " + e.shortestDistanceToPoint(0, 0));
-				
-			}
+		resultsTableSink = null;
+		if(addToResultsTable){
+			resultsTableSink = new ResultsTableSink(results, frames);
+			sinks.add(resultsTableSink);
 		}
-		
-		allEllipses.add(ellipses);
-		
+		if(withAdditionalSinks){
+			sinks.addAll(additionalSinks);
+		}
+		sink = new FrameOrderedSink(sinks, firstFrame);
+		ellipsesPerSlice = new ManyEllipses[frames];
+		threadAllocatedBytesPerSlice = new long[frames];
+	}
+	
+	/**
+	 * Adds a sink which receives the ellipses of each frame of the next run (not of the preview).
+	 * The sink is closed when the run is done.
+	 */
+	public void addSink(EllipseSink sink){
+		additionalSinks.add(sink);
 	}
 	
 	/**
@@ -163,95 +254,21 @@ public class EllipseSplit_ implements ExtendedPlugInFilter, DialogListener {
 	 * @return All fitted ellipses
 	 */
 	public ManyEllipses splitAndFitEllipse(ImageProcessor ip, boolean addToManager,boolean addToResultsTable, boolean merge, boolean removeOnEdge,double overlappingThreshold){
-
-		ImagePlus origImp = new ImagePlus("",ip.duplicate());
-		ImageProcessor ipForBlobDetection;
-		if(useSplitImage==false){
-			splitImage = new ImagePlus("", ip.duplicate());
-			EDM watershedEDM = new EDM();
-			watershedEDM.toWatershed(splitImage.getProcessor());
-			ipForBlobDetection = splitImage.getProcessor();
-		}else{
-			ipForBlobDetection = splitImage.getImageStack().getProcessor(ip.getSliceNumber());
-		}
-		
-		
-		ManyBlobs mb = new ManyBlobs(new ImagePlus("",ipForBlobDetection));
-		mb.setBackground(0);
-		mb.findConnectedComponents();
-		
-		if(removeOnEdge){
-			ArrayList<Blob> blobsOnEdges = new ArrayList<Blob>();
-			for (Blob blob : mb) {
-				if(blob.isOnEdge(ipForBlobDetection)){
-					blobsOnEdges.add(blob);
-				}
-			}
-			mb.removeAll(blobsOnEdges);
-		}
-		ImageCalculator calculateImages = new ImageCalculator();
-		ImagePlus extractedSeparatorsImp = calculateImages.run("XOR create",new ImagePlus("",ipForBlobDetection) , origImp);	
-		
-		ManyEllipses ellipses = new ManyEllipses();
-	
-		//Calculate Ellipses
-		for (Blob blob : mb) {
-			
-			Polygon contour = blob.getOuterContour();
-			ArrayList<Integer> xpoints = new ArrayList<Integer>();
-			ArrayList<Integer> ypoints = new ArrayList<Integer>();
-			fillSeperatorFreeXYCoordinates(contour, xpoints, ypoints, extractedSeparatorsImp.getProcessor());
-			
-			if(xpoints.size()>3){
-				
-				Ellipse ellipse = fitEllipse(xpoints, ypoints);
-				if(ellipse != null){
-					System.out.println("done");
-					ellipses.add(ellipse);
-				}
-			}
-		}
-
-		//Remove bad ellipse fits
-		for (int i = 0; i < ellipses.size(); i++) {
-			Ellipse e = ellipses.get(i);
-
-			if(Double.isNaN(e.getLengthLongAxis()) ||
-					Double.isNaN(e.getLengthShortAxis()) ||
-					Double.isNaN(e.getAspectRatio()) ||
-					Double.isNaN(e.getRotationAngle()) ||
-					1.0/e.getAspectRatio() > 100 ||
-					e.getX()<0 ||
-					e.getX()>ip.getWidth() ||
-					e.getY()<0 ||
-					e.getY()>ip.getHeight()){
-				ellipses.remove(i);
-				i--;
-			}
-		}
-		
-		if(merge){
-		 merge(ellipses,overlappingThreshold);
+		EllipseSplitOptions options = new EllipseSplitOptions()
+				.withRemoveOnEdge(removeOnEdge)
+				.withMerge(merge, overlappingThreshold)
+				.withBounds(majorAxisBounds, minorAxisBounds, aspectRatioBounds)
+				.withTiles(tileSize, 64)
+				.withThreads(imp.getStackSize() > 1 ? 1 : Prefs.getThreads())
+				.withDropPoints(dropPoints)
+				.withMinBlobSize(minBlobSize)
+				.withMaxFitPoints(maxFitPoints)
+				.withFitter(refinement != null ? refinement : fitMethod);
+		ImageProcessor splitIp = null;
+		if(useSplitImage){
+			splitIp = splitImage.getImageStack().getProcessor(ip.getSliceNumber());
 		}
-		
-		//Apply geometric filters
-		
-		for (int i = 0; i < ellipses.size(); i++) {
-			Ellipse e = ellipses.get(i);
-			
-			if(!checkBounds(imp.getCalibration().getRawX(e.getLengthLongAxis()*2), majorAxisBounds) ||
-					!checkBounds(imp.getCalibration().getRawX(e.getLengthShortAxis()*2),minorAxisBounds)||
-					!checkBounds(1.0/e.getAspectRatio(),aspectRatioBounds)){
-				ellipses.remove(i);
-				i--;
-			}
-		}
-		
-		return ellipses;
-	}
-	
-	private boolean checkBounds(double value, double[] bounds){
-		return value >= bounds[0] && value <= bounds[1];
+		return new EllipseSplitter(options, buffers).split(ip, splitIp, imp.getCalibration());
 	}
 	
 	public ArrayList<ManyEllipses> getAllEllipses(){
@@ -266,123 +283,51 @@ public class EllipseSplit_ implements ExtendedPlugInFilter, DialogListener {
 		return irts;
 	}
 	
-	private Ellipse fitEllipse(ArrayList<Integer> xpoints,ArrayList<Integer> ypoints){
-		
-		try {
-			double[] algebraicEllipseParams = FitEllipse.direct(arraylistToPointArray(xpoints,ypoints));
-			Ellipse ellipse = new Ellipse(algebraicEllipseParams);
-			ellipse.setXCoordinates(xpoints);
-			ellipse.setYCoordinates(ypoints);
-			return ellipse;
-			
-		}
-		catch(RuntimeException e){
-			return null;
-		}
-	}
-	private void merge(ArrayList<Ellipse> ellipses, double overlappingThreshold){
-		for(int i = 0; i < ellipses.size(); i++){
-			ArrayList<Integer> mergeEllipses = new ArrayList<Integer>();
-			Poly p1 = polygonToPoly(((PolygonRoi)ellipses.get(i).getRoi()).getPolygon());
-			double p1Area = p1.getArea();
-			for(int j = i+1; j < ellipses.size(); j++){
-				if( Math.sqrt(Math.pow(ellipses.get(j).getX()-ellipses.get(i).getX(),2)+
-						Math.pow(ellipses.get(j).getY()-ellipses.get(i).getY(),2)) < (ellipses.get(j).getLengthLongAxis()+ellipses.get(i).getLengthLongAxis())/2.0){
-					Poly p2 = polygonToPoly(((PolygonRoi)ellipses.get(j).getRoi()).getPolygon());
-					double p2Area = p2.getArea();
-					
-					double interArea = Clip.intersection(p1, p2).getArea();
-					if(Math.max(interArea/p2Area,interArea/p1Area)>overlappingThreshold){
-						mergeEllipses.add(j);
-					}
-				}
-			}
-			
-			if(mergeEllipses.size()>0){
-				ArrayList<Integer> newXPoints = ellipses.get(i).getXCoordinates();
-				ArrayList<Integer> newYPoints = ellipses.get(i).getYCoordinates();
-				for(int j = 0; j < mergeEllipses.size(); j++){
-					newXPoints.addAll(ellipses.get(mergeEllipses.get(j)).getXCoordinates());
-					newYPoints.addAll(ellipses.get(mergeEllipses.get(j)).getYCoordinates());
-				}
-				ellipses.set(i, fitEllipse(newXPoints, newYPoints));
-				Collections.sort(mergeEllipses,Collections.reverseOrder());
-				for(int j = 0; j < mergeEllipses.size(); j++){
-					ellipses.remove(mergeEllipses.get(j).intValue());
-				}
-				i = 0;
-			}
-		}
+	public ImagePlus getInputImage(){
+		return imp;
 	}
 	
-	private Poly polygonToPoly(Polygon p){
-		Poly p2 = new PolyDefault();
-		for(int i = 0; i < p.npoints; i++){
-			p2.add(p.xpoints[i],p.ypoints[i]);
-		}
-		return p2;
+	public Ellipse getEllipseByFrameAndLabel(int frame, int label){
+		return allEllipses.get(frame).getEllipseByLabel(label);
 	}
 	
-	private void fillSeperatorFreeXYCoordinates(Polygon contour, ArrayList<Integer> xpoints, ArrayList<Integer> ypoints, ImageProcessor seperators){
-		for(int i = 0; i < contour.npoints; i++){
-			int x = contour.xpoints[i];
-			int y = contour.ypoints[i];
-			if(!hasWatershedInNeighborhood(seperators, x, y) &&
-					!isAtImageBoundary(seperators, x, y)){
-				xpoints.add(x);
-				ypoints.add(y);
-			}
+	/**
+	 * @param frame Frame index (0-based)
+	 * @param x x-coordinate in pixels
+	 * @param y y-coordinate in pixels
+	 * @return The first ellipse of the frame which contains the point, or null if there is none
+	 */
+	public Ellipse getEllipseAt(int frame, double x, double y){
+		if(allEllipses==null || frame < 0 || frame >= allEllipses.size()){
+			return null;
 		}
+		EllipseHitIndex index = getHitIndex(frame);
+		int i = index.find(x, y);
+		return i < 0 ? null : allEllipses.get(frame).get(i);
 	}
 	
-	private double[][] arraylistToPointArray(ArrayList<Integer> xpoints,ArrayList<Integer> ypoints ){
-		double[][] points = new double[xpoints.size()][2];
-		for(int i = 0; i < xpoints.size(); i++){
-			points[i][0] = xpoints.get(i);
-			points[i][1] = ypoints.get(i);
-		}
-		return points;
-	}
-	private boolean isAtImageBoundary(ImageProcessor ip, int x, int y){
-		return (x==0 || y==0 || x == ip.getWidth() ||
-				y == ip.getHeight());
-		
-	}
-	private boolean hasWatershedInNeighborhood(ImageProcessor ip, int x, int y){
-		
-		if(checkPixelValue(ip,x, y,255) || 
-				checkPixelValue(ip,x+1, y,255) ||
-				checkPixelValue(ip,x-1, y,255) ||
-				checkPixelValue(ip,x, y+1,255) ||
-				checkPixelValue(ip,x, y-1,255) ||
-				checkPixelValue(ip,x+1, y+1,255) ||
-				checkPixelValue(ip,x-1, y+1,255) ||
-				checkPixelValue(ip,x-1, y-1,255)){
-			return true;
+	/**
+	 * The index of a frame is built on the first query, so the polygons of
+	 * frames which are never clicked are not created.
+	 */
+	private synchronized EllipseHitIndex getHitIndex(int frame){
+		if(hitIndices[frame]==null){
+			hitIndices[frame] = new EllipseHitIndex(allEllipses.get(frame), imp.getWidth(), imp.getHeight());
 		}
-		return false;
+		return hitIndices[frame];
 	}
 	
-	
-	
-	private boolean checkPixelValue(ImageProcessor ip, int x, int y, int value){
-		if(x<0 || x >= ip.getWidth() || y < 0 || y >= ip.getHeight()){
-			return false;
-		}
-		else if(ip.get(x,y)==value){
-			return true;
+	/**
+	 * @param frame Frame index (0-based)
+	 * @param label Label of the ellipse
+	 * @return The row in the results table to which the ellipse was written, or -1 if it is unknown.
+	 * The row might be outdated when the table was edited or sorted afterwards.
+	 */
+	public int getResultsTableRow(int frame, int label){
+		if(resultsTableSink==null){
+			return -1;
 		}
-		return false;
-		
-		
-	}
-	
-	public ImagePlus getInputImage(){
-		return imp;
-	}
-	
-	public Ellipse getEllipseByFrameAndLabel(int frame, int label){
-		return allEllipses.get(frame).getEllipseByLabel(label);
+		return resultsTableSink.getRow(frame+1, label);
 	}
 	
 	public static EllipseSplit_ getInstance(){
@@ -411,6 +356,12 @@ public class EllipseSplit_ implements ExtendedPlugInFilter, DialogListener {
 		gd.addStringField("Major axis length", "0-Infinity");
 		gd.addStringField("Minor axis length", "0-Infinity");
 		gd.addStringField("Aspect ratio", "1-Infinity");
+		gd.addNumericField("Minimum blob size (0 = all)", 0, 0, 6, "pixels");
+		gd.addNumericField("Tile size (0 = whole image)", 0, 0, 6, "pixels");
+		gd.addNumericField("Maximum points per fit (0 = all)", 0, 0, 6, "points");
+		gd.addChoice("Fit method", EllipseFitMethod.getNames(), EllipseFitMethod.DIRECT.getName());
+		gd.addCheckbox("Geometric refinement (slower)", false);
+		gd.addCheckbox("Drop contour points after fitting", false);
 		gd.addHelp("http://fiji.sc/Ellipse_split");
 		gd.addPreviewCheckbox(pfr);
 		gd.addDialogListener(this);
@@ -427,13 +378,20 @@ public class EllipseSplit_ implements ExtendedPlugInFilter, DialogListener {
 		majorAxisBounds = stringIntervalToArray(gd.getNextString(), "0-Infinity");
 		minorAxisBounds = stringIntervalToArray(gd.getNextString(), "0-Infinity");
 		aspectRatioBounds = stringIntervalToArray(gd.getNextString(), "1-Infinity");
-		allEllipses = new ArrayList<ManyEllipses>();
+		minBlobSize = Math.max(0, (int)gd.getNextNumber());
+		tileSize = Math.max(0, (int)gd.getNextNumber());
+		maxFitPoints = Math.max(0, (int)gd.getNextNumber());
+		fitMethod = EllipseFitMethod.values()[gd.getNextChoiceIndex()];
+		refinement = gd.getNextBoolean() ? new GeometricEllipseFitter(fitMethod, 50, 1e-8) : null;
+		dropPoints = gd.getNextBoolean();
+		createSinks(true, 1);
+		buffers = imp.getStackSize() > 1 ? new SplitBuffers() : null;
 		useSplitImage = false;
 		if(choiceIndex>0){
 			useSplitImage = true;
 			splitImage=WindowManager.getImage(splitImageChoice[choiceIndex]);
 		}
-		return IJ.setupDialog(imp, FLAGS);
+		return IJ.setupDialog(imp, FLAGS | PARALLELIZE_STACKS);
 	}
 	
 	/**
@@ -492,7 +450,15 @@ public class EllipseSplit_ implements ExtendedPlugInFilter, DialogListener {
 		majorAxisBounds = stringIntervalToArray(gd.getNextString(), "0-Infinity");
 		minorAxisBounds = stringIntervalToArray(gd.getNextString(), "0-Infinity");
 		aspectRatioBounds = stringIntervalToArray(gd.getNextString(), "1-Infinity");
-		allEllipses = new ArrayList<ManyEllipses>();
+		minBlobSize = Math.max(0, (int)gd.getNextNumber());
+		tileSize = Math.max(0, (int)gd.getNextNumber());
+		maxFitPoints = Math.max(0, (int)gd.getNextNumber());
+		fitMethod = EllipseFitMethod.values()[gd.getNextChoiceIndex()];
+		refinement = gd.getNextBoolean() ? new GeometricEllipseFitter(fitMethod, 50, 1e-8) : null;
+		dropPoints = gd.getNextBoolean();
+		createSinks(false, imp.getCurrentSlice());
+		buffers = null;
+		preview = true;
 		useSplitImage = false;
 		if(choiceIndex>0){
 			useSplitImage = true;
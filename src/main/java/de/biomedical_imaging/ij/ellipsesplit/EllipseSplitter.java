@@ -0,0 +1,405 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 Thorsten Wagner (wagner@biomedical-imaging.de)
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.biomedical_imaging.ij.ellipsesplit;
+
+import java.awt.Polygon;
+import java.util.ArrayList;
+
+
+import ij.ImagePlus;
+import ij.blob.Blob;
+import ij.blob.ManyBlobs;
+import ij.measure.Calibration;
+import ij.plugin.filter.EDM;
+import ij.plugin.filter.MaximumFinder;
+import ij.process.Blitter;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * Splits binary objects by a watershed transformation and fits an ellipse to the
+ * separator free part of each contour. The splitter does not depend on the plugin or
+ * any GUI state and holds no mutable state apart from its thread-safe buffer pool, so a
+ * single instance can be used concurrently from several threads.
+ */
+public class EllipseSplitter {
+	
+	private final EllipseSplitOptions options;
+	
+	/**
+	 * Null if the buffers are allocated for every image
+	 */
+	private final SplitBuffers buffers;
+	
+	/**
+	 * With {@link EllipseSplitOptions#isReuseBuffers()} the splitter keeps its own buffer pool,
+	 * which is freed with the splitter.
+	 */
+	public EllipseSplitter(EllipseSplitOptions options) {
+		this(options, options.isReuseBuffers() ? new SplitBuffers() : null);
+	}
+	
+	/**
+	 * @param buffers Pool for the image buffers, which can be shared by several splitters
+	 * (e.g. one per frame of a stack). If null, the buffers are allocated for every image.
+	 */
+	public EllipseSplitter(EllipseSplitOptions options, SplitBuffers buffers) {
+		this.options = options;
+		this.buffers = buffers;
+	}
+	
+	public EllipseSplitOptions getOptions() {
+		return options;
+	}
+	
+	/**
+	 * Splits the objects in ip with the standard watershed and fits the ellipses.
+	 * @param ip Binary image
+	 * @param cal Calibration of the image. If null, an uncalibrated image is assumed.
+	 * @return All fitted ellipses
+	 */
+	public ManyEllipses split(ImageProcessor ip, Calibration cal){
+		return split(ip, null, cal);
+	}
+	
+	/**
+	 * Fits an ellipse to all contours of the split image. Contour points which are neighbours of
+	 * a separator (pixels which differ between ip and the split image) are ignored. Large images
+	 * are processed in tiles if this is enabled in the options (see {@link EllipseSplitOptions#withTiles(int, int)}).
+	 * @param ip Binary image
+	 * @param splitIp Binary split image. If null, the standard watershed is used.
+	 * @param cal Calibration of the image. If null, an uncalibrated image is assumed.
+	 * @return All fitted ellipses
+	 */
+	public ManyEllipses split(ImageProcessor ip, ImageProcessor splitIp, Calibration cal){
+		return split(ip, splitIp, cal, new LabelAllocator());
+	}
+	
+	/**
+	 * Like {@link #split(ImageProcessor, ImageProcessor, Calibration)}, but the ellipses of the
+	 * result are labeled by the given allocator, e.g. to get labels which are unique for a stack.
+	 * @param labels Labels the ellipses of the result in their order
+	 */
+	public ManyEllipses split(ImageProcessor ip, ImageProcessor splitIp, Calibration cal, LabelAllocator labels){
+		if(cal==null){
+			cal = new Calibration();
+		}
+		ManyEllipses ellipses;
+		int tileSize = options.getTileSize();
+		if(tileSize > 0 && (ip.getWidth() > tileSize || ip.getHeight() > tileSize)){
+			ellipses = new TiledSplit(this, ip, splitIp, cal).run();
+		}
+		else{
+			ellipses = new ManyEllipses();
+			fitBlobs(ip, splitIp, cal, 0, 0, ip.getWidth(), ip.getHeight(), Double.NaN, ellipses, null);
+		}
+		
+		if(options.isMerge()){
+			EllipseOverlap overlap = null;
+			if(!options.isPolygonOverlap()){
+				overlap = new EllipseOverlap(options.getOverlapPrecision());
+			}
+			new EllipseMerger(this, options.getOverlappingThreshold(), cal, overlap).merge(ellipses, ip.getWidth(), ip.getHeight());
+		}
+		
+		//Apply geometric filters. Without merging they were already applied to the fits.
+		if(options.isMerge()){
+			int kept = 0;
+			for (int i = 0; i < ellipses.size(); i++) {
+				Ellipse e = ellipses.get(i);
+				if(checkBounds(e.getRecord(), cal)){
+					if(kept != i){
+						ellipses.set(kept, e);
+					}
+					kept++;
+				}
+			}
+			ellipses.subList(kept, ellipses.size()).clear();
+		}
+		
+		if(options.isDropPoints()){
+			for (Ellipse e : ellipses) {
+				e.setPoints(null);
+			}
+		}
+		labels.label(ellipses);
+		
+		return ellipses;
+	}
+	
+	/**
+	 * Splits the blobs of an image (or of a tile of an image) and fits an ellipse to each
+	 * of them. Bad fits are left out.
+	 * @param ip Binary image
+	 * @param splitIp Binary split image. If null, the standard watershed is used.
+	 * @param xOffset x-position of ip in the full image, which is added to the contour points
+	 * @param yOffset y-position of ip in the full image, which is added to the contour points
+	 * @param width Width of the full image
+	 * @param height Height of the full image
+	 * @param edmMax Maximum of the EDM of the full image, which determines the quantization of the
+	 * watershed (see {@link #watershed(ImageProcessor, double)}). NaN if ip is the full image.
+	 * @param ellipses Receives the ellipses in the order of the blobs
+	 * @param order If not null, it receives for each ellipse the raster position (y*width+x in the full image)
+	 * of the first contour point of its blob
+	 */
+	void fitBlobs(ImageProcessor ip, ImageProcessor splitIp, Calibration cal, int xOffset, int yOffset,
+			int width, int height, double edmMax, ManyEllipses ellipses, ArrayList<Long> order){
+		SplitBuffers.Buffers set = buffers != null ? buffers.take() : null;
+		try{
+			fitBlobs(ip, splitIp, cal, xOffset, yOffset, width, height, edmMax, ellipses, order, set);
+		}
+		finally{
+			if(set != null){
+				buffers.give(set);
+			}
+		}
+	}
+	
+	private void fitBlobs(ImageProcessor ip, ImageProcessor splitIp, Calibration cal, int xOffset, int yOffset,
+			int width, int height, double edmMax, ManyEllipses ellipses, ArrayList<Long> order, SplitBuffers.Buffers buffers){
+		ImageProcessor ipForBlobDetection;
+		if(splitIp==null){
+			ipForBlobDetection = copyForWatershed(ip, buffers);
+			watershed(ipForBlobDetection, edmMax);
+		}else{
+			ipForBlobDetection = splitIp;
+		}
+		
+		
+		ManyBlobs mb = new ManyBlobs(new ImagePlus("",ipForBlobDetection));
+		mb.setBackground(0);
+		mb.findConnectedComponents();
+		
+		SeparatorMask separators;
+		if(buffers != null){
+			separators = new SeparatorMask(ip, ipForBlobDetection, buffers.separators);
+			buffers.separators = separators.getBits();
+		}
+		else{
+			separators = new SeparatorMask(ip, ipForBlobDetection);
+		}
+		
+		//Calculate Ellipses. Blobs and fits are rejected as early as possible: blobs on the edge
+		//and small blobs before fitting, bad fits and (if nothing is merged afterwards) fits
+		//outside the geometric bounds before an Ellipse is created.
+		boolean checkBounds = !options.isMerge();
+		for (Blob blob : mb) {
+			if(options.isRemoveOnEdge() && blob.isOnEdge(ipForBlobDetection)){
+				continue;
+			}
+			Polygon contour = blob.getOuterContour();
+			if(!isLargeEnough(contour)){
+				continue;
+			}
+			IntPointList points = new IntPointList(contour.npoints);
+			fillSeperatorFreeXYCoordinates(contour, points, separators, xOffset, yOffset);
+			points.decimate(options.getMaxFitPoints());
+			
+			if(points.size()>3){
+				
+				EllipseRecord record = fitRecord(points);
+				if(record != null && isGoodFit(record, width, height) && (!checkBounds || checkBounds(record, cal))){
+					Ellipse ellipse = new Ellipse(record, cal);
+					ellipse.setPoints(points);
+					ellipses.add(ellipse);
+					if(order != null){
+						order.add(firstRasterPosition(contour, xOffset, yOffset, width));
+					}
+				}
+			}
+		}
+	}
+	
+	private boolean isGoodFit(EllipseRecord e, int width, int height){
+		return !(Double.isNaN(e.getLongAxis()) ||
+				Double.isNaN(e.getShortAxis()) ||
+				Double.isNaN(e.getAspectRatio()) ||
+				Double.isNaN(e.getRotationAngle()) ||
+				1.0/e.getAspectRatio() > 100 ||
+				e.getX()<0 ||
+				e.getX()>width ||
+				e.getY()<0 ||
+				e.getY()>height);
+	}
+	
+	/**
+	 * Geometric filters, see {@link EllipseSplitOptions#withBounds(double[], double[], double[])}
+	 */
+	private boolean checkBounds(EllipseRecord e, Calibration cal){
+		return options.checkMajorAxis(cal.getRawX(e.getLongAxis()*cal.pixelHeight*2)) &&
+				options.checkMinorAxis(cal.getRawX(e.getShortAxis()*cal.pixelHeight*2)) &&
+				options.checkAspectRatio(1.0/e.getAspectRatio());
+	}
+	
+	/**
+	 * @return False if the bounding box of the contour is smaller than the minimum blob size
+	 * in both directions
+	 */
+	private boolean isLargeEnough(Polygon contour){
+		int minBlobSize = options.getMinBlobSize();
+		if(minBlobSize <= 0 || contour.npoints == 0){
+			return true;
+		}
+		int minX = contour.xpoints[0];
+		int maxX = minX;
+		int minY = contour.ypoints[0];
+		int maxY = minY;
+		for (int i = 1; i < contour.npoints; i++) {
+			minX = Math.min(minX, contour.xpoints[i]);
+			maxX = Math.max(maxX, contour.xpoints[i]);
+			minY = Math.min(minY, contour.ypoints[i]);
+			maxY = Math.max(maxY, contour.ypoints[i]);
+		}
+		return maxX-minX+1 >= minBlobSize || maxY-minY+1 >= minBlobSize;
+	}
+	
+	private long firstRasterPosition(Polygon contour, int xOffset, int yOffset, int width){
+		long first = Long.MAX_VALUE;
+		for (int i = 0; i < contour.npoints; i++) {
+			long position = (long)(contour.ypoints[i]+yOffset)*width + contour.xpoints[i]+xOffset;
+			if(position < first){
+				first = position;
+			}
+		}
+		return first;
+	}
+	
+	/**
+	 * Segments the binary image in place like {@link EDM#toWatershed(ImageProcessor)}.
+	 * <p>
+	 * The maximum finder converts the EDM to 8-bit with an offset which depends on the
+	 * maximum of the whole EDM, so the watershed lines of an object depend slightly on the
+	 * other objects in the image. For a part of an image, the maximum of the full image is
+	 * therefore added as a single isolated pixel next to the EDM, which reproduces the
+	 * segmentation of the full image.
+	 * @param edmMax Maximum of the EDM of the full image or NaN if ip is the full image
+	 */
+	static void watershed(ImageProcessor ip, double edmMax){
+		EDM edm = new EDM();
+		if(Double.isNaN(edmMax)){
+			edm.toWatershed(ip);
+			return;
+		}
+		FloatProcessor floatEdm = edm.makeFloatEDM(ip, 0, false);
+		int w = ip.getWidth();
+		int h = ip.getHeight();
+		// Three background columns, the maximum in the middle one is not connected to any object
+		FloatProcessor padded = new FloatProcessor(w+3, h);
+		padded.insert(floatEdm, 0, 0);
+		padded.setf(w+1, 0, (float)edmMax);
+		ByteProcessor maxIp = new MaximumFinder().findMaxima(padded, 0.5,
+				ImageProcessor.NO_THRESHOLD, MaximumFinder.SEGMENTED, false, true);
+		if(maxIp != null){
+			ip.copyBits(maxIp, 0, 0, Blitter.AND);
+		}
+	}
+	
+	/**
+	 * @return The maximum of the EDM of a binary image
+	 */
+	static double edmMax(ImageProcessor ip){
+		float[] pixels = (float[]) new EDM().makeFloatEDM(ip, 0, false).getPixels();
+		float max = 0;
+		for (int i = 0; i < pixels.length; i++) {
+			if(pixels[i] > max){
+				max = pixels[i];
+			}
+		}
+		return max;
+	}
+	
+	/**
+	 * @return A copy of the image for the watershed, which uses the pixel buffer of the set if available
+	 */
+	private ImageProcessor copyForWatershed(ImageProcessor ip, SplitBuffers.Buffers buffers){
+		if(buffers == null || !(ip instanceof ByteProcessor)){
+			return ip.duplicate();
+		}
+		int size = ip.getWidth()*ip.getHeight();
+		if(buffers.watershed == null || buffers.watershed.length != size){
+			buffers.watershed = new byte[size];
+		}
+		System.arraycopy((byte[]) ip.getPixels(), 0, buffers.watershed, 0, size);
+		return new ByteProcessor(ip.getWidth(), ip.getHeight(), buffers.watershed, ip.getColorModel());
+	}
+	
+	/**
+	 * Fits an ellipse to the points.
+	 * @return The ellipse, or null if the fit failed
+	 */
+	Ellipse fitEllipse(IntPointList points, Calibration cal){
+		points.decimate(options.getMaxFitPoints());
+		EllipseRecord record = fitRecord(points);
+		if(record == null){
+			return null;
+		}
+		Ellipse ellipse = new Ellipse(record, cal);
+		ellipse.setPoints(points);
+		return ellipse;
+	}
+	
+	/**
+	 * Fits an ellipse to the points without creating an {@link Ellipse}.
+	 * @return The fit, or null if it failed
+	 */
+	EllipseRecord fitRecord(IntPointList points){
+		try {
+			return new EllipseRecord(options.getFitter().fit(points.getXArray(), points.getYArray(), points.size()));
+		}
+		catch(RuntimeException e){
+			return null;
+		}
+	}
+	
+	/**
+	 * Adds all contour points which are neither next to a separator nor at the image boundary.
+	 */
+	void fillSeperatorFreeXYCoordinates(Polygon contour, IntPointList points, SeparatorMask separators){
+		fillSeperatorFreeXYCoordinates(contour, points, separators, 0, 0);
+	}
+	
+	/**
+	 * Same as {@link #fillSeperatorFreeXYCoordinates(Polygon, IntPointList, SeparatorMask)}, but the
+	 * offset is added to the points.
+	 */
+	void fillSeperatorFreeXYCoordinates(Polygon contour, IntPointList points, SeparatorMask separators,
+			int xOffset, int yOffset){
+		for(int i = 0; i < contour.npoints; i++){
+			int x = contour.xpoints[i];
+			int y = contour.ypoints[i];
+			if(!separators.isNearSeparator(x, y) &&
+					!isAtImageBoundary(separators, x, y)){
+				points.add(x+xOffset, y+yOffset);
+			}
+		}
+	}
+	
+	private boolean isAtImageBoundary(SeparatorMask mask, int x, int y){
+		return (x==0 || y==0 || x == mask.getWidth() ||
+				y == mask.getHeight());
+		
+	}
+
+}
@@ -0,0 +1,171 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 Thorsten Wagner (wagner@biomedical-imaging.de)
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.biomedical_imaging.ij.ellipsesplit;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Passes the frames, which are finished concurrently and in any order, to other sinks.
+ * <p>
+ * {@link UnorderedEllipseSink}s receive each frame as soon as it is done. The other sinks
+ * receive the frames in frame order: a frame is held back until all frames before it are
+ * finished. The thread which finishes the next missing frame writes all frames which are
+ * ready, the other threads return at once. Note that ImageJ gives each thread of
+ * PARALLELIZE_STACKS a contiguous block of slices, so with T threads up to (T-1)/T of the
+ * stack can be held back for the ordered sinks. Frames are only held back if there are
+ * ordered sinks.
+ */
+public class FrameOrderedSink implements EllipseSink {
+	
+	private final List<EllipseSink> sinks;
+	private final List<EllipseSink> unorderedSinks;
+	private final TreeMap<Integer, ManyEllipses> pending;
+	private int nextFrame;
+	private boolean writing;
+	
+	/**
+	 * @param sinks Receive the frames, in order unless they are {@link UnorderedEllipseSink}s
+	 * @param firstFrame Number of the first frame
+	 */
+	public FrameOrderedSink(List<? extends EllipseSink> sinks, int firstFrame) {
+		this.sinks = new ArrayList<EllipseSink>();
+		unorderedSinks = new ArrayList<EllipseSink>();
+		for (EllipseSink sink : sinks) {
+			if(sink instanceof UnorderedEllipseSink){
+				unorderedSinks.add(sink);
+			}
+			else{
+				this.sinks.add(sink);
+			}
+		}
+		pending = new TreeMap<Integer, ManyEllipses>();
+		nextFrame = firstFrame;
+		writing = false;
+	}
+	
+	/**
+	 * Thread-safe, each frame must be written only once.
+	 */
+	@Override
+	public void write(int frame, ManyEllipses ellipses) throws IOException {
+		if(!unorderedSinks.isEmpty()){
+			synchronized (unorderedSinks) {
+				for (EllipseSink sink : unorderedSinks) {
+					sink.write(frame, ellipses);
+				}
+			}
+		}
+		if(sinks.isEmpty()){
+			return;
+		}
+		synchronized (this) {
+			pending.put(frame, ellipses);
+			if(writing || frame != nextFrame){
+				return;
+			}
+			writing = true;
+		}
+		writePending(false);
+	}
+	
+	/**
+	 * Writes the remaining frames in order, even if frames before them are missing (e.g. because
+	 * the processing was canceled), and closes the sinks. All sinks are closed even if one of
+	 * them fails, the first exception is thrown. Must be called after all writes have returned.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			writing = true;
+		}
+		try{
+			writePending(true);
+		}
+		finally{
+			closeAll();
+		}
+	}
+	
+	private void closeAll() throws IOException {
+		IOException ioException = null;
+		RuntimeException runtimeException = null;
+		List<EllipseSink> all = new ArrayList<EllipseSink>(sinks);
+		all.addAll(unorderedSinks);
+		for (EllipseSink sink : all) {
+			try{
+				sink.close();
+			}
+			catch(IOException e){
+				if(ioException == null && runtimeException == null){
+					ioException = e;
+				}
+			}
+			catch(RuntimeException e){
+				if(ioException == null && runtimeException == null){
+					runtimeException = e;
+				}
+			}
+		}
+		if(ioException != null){
+			throw ioException;
+		}
+		if(runtimeException != null){
+			throw runtimeException;
+		}
+	}
+	
+	private void writePending(boolean all) throws IOException {
+		boolean done = false;
+		try{
+			while(true){
+				Map.Entry<Integer, ManyEllipses> next;
+				synchronized (this) {
+					next = pending.firstEntry();
+					if(next==null || (!all && next.getKey() != nextFrame)){
+						writing = false;
+						done = true;
+						return;
+					}
+					pending.remove(next.getKey());
+					nextFrame = next.getKey()+1;
+				}
+				for (EllipseSink sink : sinks) {
+					sink.write(next.getKey(), next.getValue());
+				}
+			}
+		}
+		finally{
+			if(!done){
+				synchronized (this) {
+					writing = false;
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,475 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 Thorsten Wagner (wagner@biomedical-imaging.de)
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.biomedical_imaging.ij.ellipsesplit;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Refines the fit of another {@link EllipseFitter} by minimising the sum of the squared
+ * orthogonal (geometric) distances of the points to the ellipse. The algebraic fits
+ * minimise a distance measure which is biased towards small and round ellipses, which is
+ * noticeable for small ellipses and partial contours.
+ * <p>
+ * The geometric parameters (centre, semi-axes, orientation) are optimised with a
+ * Levenberg-Marquardt solver, started from the algebraic fit. The foot points on the
+ * ellipse are found by Newton iterations on the ellipse angle of each point, which are
+ * warm-started from the previous iteration. The angles are kept as cosine and sine and
+ * the Newton steps are applied as rotations, which avoids trigonometric functions in
+ * the inner loop. The derivatives of the distances are taken
+ * at fixed foot point angles, which is exact at the foot points (Ahn et al.). The
+ * algebraic fit is returned if the refinement fails.
+ * <p>
+ * The fitter counts the fits and measures the time of the algebraic fit and of the
+ * refinement together with the root mean square distance before and after the
+ * refinement, see {@link #getStatistics()}. The counters are atomic, so one fitter can be
+ * shared by the fitting threads without locking.
+ * <p>
+ * The refined parameters have the sign of the algebraic fit, since
+ * {@link EllipseRecord#getRotationAngle()} depends on the sign of f.
+ */
+public class GeometricEllipseFitter implements EllipseFitter {
+	
+	/**
+	 * Maximum number of Newton iterations for the foot points per Levenberg-Marquardt
+	 * iteration. The foot points of the previous iteration are close, so few are needed.
+	 */
+	private static final int FOOT_POINT_ITERATIONS = 3;
+	
+	private final EllipseFitter seed;
+	private final int maxIterations;
+	private final double tolerance;
+	
+	private final AtomicLong fits = new AtomicLong();
+	private final AtomicLong refined = new AtomicLong();
+	private final AtomicLong iterations = new AtomicLong();
+	private final AtomicLong seedNanos = new AtomicLong();
+	private final AtomicLong refineNanos = new AtomicLong();
+	// sums of the squared distances, as bits of a double
+	private final AtomicLong seedSquaredDistance = new AtomicLong();
+	private final AtomicLong refinedSquaredDistance = new AtomicLong();
+	private final AtomicLong points = new AtomicLong();
+	
+	/**
+	 * Refinement of the direct fit with at most 50 iterations and a relative tolerance
+	 * of 1e-8.
+	 */
+	public GeometricEllipseFitter() {
+		this(EllipseFitMethod.DIRECT, 50, 1e-8);
+	}
+	
+	/**
+	 * @param seed The algebraic fit which is refined
+	 * @param maxIterations Maximum number of Levenberg-Marquardt iterations per fit
+	 * @param tolerance The iterations stop when the relative decrease of the sum of the
+	 * squared distances is smaller than this value
+	 */
+	public GeometricEllipseFitter(EllipseFitter seed, int maxIterations, double tolerance) {
+		this.seed = seed;
+		this.maxIterations = maxIterations;
+		this.tolerance = tolerance;
+	}
+	
+	@Override
+	public double[] fit(int[] x, int[] y, int nPoints) {
+		long start = System.nanoTime();
+		double[] conic = seed.fit(x, y, nPoints);
+		long seeded = System.nanoTime();
+		
+		double[] p = toGeometric(conic);
+		double[] t = new double[nPoints*2];
+		double[] r = new double[nPoints];
+		double[] jacobian = new double[nPoints*5];
+		double seedCost = Double.NaN;
+		double cost = Double.NaN;
+		int iteration = 0;
+		boolean converged = false;
+		if(p != null){
+			initFootPoints(p, x, y, nPoints, t);
+			cost = residuals(p, x, y, nPoints, t, r, jacobian);
+			seedCost = cost;
+			double[] normal = new double[25];
+			double[] gradient = new double[5];
+			double[] step = new double[5];
+			double[] trial = new double[5];
+			double[] tTrial = new double[nPoints*2];
+			double[] rTrial = new double[nPoints];
+			double[] jTrial = new double[nPoints*5];
+			double lambda = 1e-3;
+			while(iteration < maxIterations && !converged){
+				iteration++;
+				// normal equations J'J step = -J'r
+				for (int i = 0; i < 5; i++) {
+					double g = 0;
+					for (int k = 0; k < nPoints; k++) {
+						g += jacobian[k*5+i]*r[k];
+					}
+					gradient[i] = -g;
+					for (int j = i; j < 5; j++) {
+						double s = 0;
+						for (int k = 0; k < nPoints; k++) {
+							s += jacobian[k*5+i]*jacobian[k*5+j];
+						}
+						normal[i*5+j] = s;
+						normal[j*5+i] = s;
+					}
+				}
+				boolean improved = false;
+				while(!improved && lambda < 1e10){
+					if(solveDamped(normal, gradient, lambda, step)){
+						boolean negligible = true;
+						for (int i = 0; i < 5; i++) {
+							trial[i] = p[i] + step[i];
+							negligible &= Math.abs(step[i]) <= 1e-10*(1 + Math.abs(p[i]));
+						}
+						if(negligible){
+							break;
+						}
+						if(trial[2] > 0 && trial[3] > 0){
+							System.arraycopy(t, 0, tTrial, 0, nPoints*2);
+							double trialCost = residuals(trial, x, y, nPoints, tTrial, rTrial, jTrial);
+							if(trialCost < cost){
+								converged = cost - trialCost <= tolerance*cost;
+								System.arraycopy(trial, 0, p, 0, 5);
+								double[] swap = t; t = tTrial; tTrial = swap;
+								swap = r; r = rTrial; rTrial = swap;
+								swap = jacobian; jacobian = jTrial; jTrial = swap;
+								cost = trialCost;
+								lambda = Math.max(lambda/10, 1e-12);
+								improved = true;
+								continue;
+							}
+						}
+					}
+					lambda *= 10;
+				}
+				if(!improved){
+					// no descent direction left: at the minimum within the precision
+					converged = true;
+				}
+			}
+		}
+		long end = System.nanoTime();
+		boolean success = p != null && cost < seedCost;
+		record(nPoints, seeded - start, end - seeded, iteration, success, seedCost, success ? cost : seedCost);
+		if(!success){
+			return conic;
+		}
+		double[] refinedConic = toConic(p);
+		double dot = 0;
+		for (int i = 0; i < 6; i++) {
+			dot += conic[i]*refinedConic[i];
+		}
+		if(dot < 0){
+			for (int i = 0; i < 6; i++) {
+				refinedConic[i] = -refinedConic[i];
+			}
+		}
+		return refinedConic;
+	}
+	
+	private void record(int nPoints, long seedTime, long refineTime, int iterations,
+			boolean success, double seedCost, double cost){
+		fits.incrementAndGet();
+		this.iterations.addAndGet(iterations);
+		seedNanos.addAndGet(seedTime);
+		refineNanos.addAndGet(refineTime);
+		if(success){
+			refined.incrementAndGet();
+		}
+		if(!Double.isNaN(seedCost)){
+			add(seedSquaredDistance, seedCost);
+			add(refinedSquaredDistance, cost);
+			points.addAndGet(nPoints);
+		}
+	}
+	
+	private static void add(AtomicLong sum, double value){
+		long bits;
+		do {
+			bits = sum.get();
+		} while(!sum.compareAndSet(bits, Double.doubleToLongBits(Double.longBitsToDouble(bits) + value)));
+	}
+	
+	private static double get(AtomicLong sum){
+		return Double.longBitsToDouble(sum.get());
+	}
+	
+	/**
+	 * @return Summary of the counters: number of fits and of improved fits, mean number of
+	 * iterations, mean time per fit of the algebraic fit and of the refinement and the root
+	 * mean square distance of the points to the ellipses before and after the refinement.
+	 * Fits which finish while the summary is built may be counted partially.
+	 */
+	public String getStatistics(){
+		long fits = this.fits.get();
+		long n = Math.max(1, fits);
+		long m = Math.max(1, points.get());
+		return String.format(Locale.ENGLISH,
+				"%d fits, %d refined, %.1f iterations, algebraic fit %.1f us, refinement %.1f us, "
+				+ "RMS distance %.4f px -> %.4f px",
+				fits, refined.get(), (double)iterations.get()/n, seedNanos.get()/1e3/n,
+				refineNanos.get()/1e3/n, Math.sqrt(get(seedSquaredDistance)/m),
+				Math.sqrt(get(refinedSquaredDistance)/m));
+	}
+	
+	public long getFitCount(){
+		return fits.get();
+	}
+	
+	public long getRefinedCount(){
+		return refined.get();
+	}
+	
+	/**
+	 * @return Total time of the algebraic fits in nanoseconds
+	 */
+	public long getSeedNanos(){
+		return seedNanos.get();
+	}
+	
+	/**
+	 * @return Total time of the refinements in nanoseconds
+	 */
+	public long getRefinementNanos(){
+		return refineNanos.get();
+	}
+	
+	public void resetStatistics(){
+		fits.set(0);
+		refined.set(0);
+		iterations.set(0);
+		seedNanos.set(0);
+		refineNanos.set(0);
+		seedSquaredDistance.set(Double.doubleToLongBits(0));
+		refinedSquaredDistance.set(Double.doubleToLongBits(0));
+		points.set(0);
+	}
+	
+	/**
+	 * Initial foot point angles: the angle of the point in the frame of the ellipse,
+	 * scaled to the unit circle. t receives cos and sin of the angles, interleaved.
+	 */
+	private static void initFootPoints(double[] p, int[] x, int[] y, int n, double[] t){
+		double cos = Math.cos(p[4]);
+		double sin = Math.sin(p[4]);
+		for (int k = 0; k < n; k++) {
+			double dx = x[k] - p[0];
+			double dy = y[k] - p[1];
+			double ct = p[3]*(cos*dx + sin*dy);
+			double st = p[2]*(-sin*dx + cos*dy);
+			double norm = Math.sqrt(ct*ct + st*st);
+			if(norm > 0){
+				t[2*k] = ct/norm;
+				t[2*k+1] = st/norm;
+			}
+			else {
+				t[2*k] = 1;
+				t[2*k+1] = 0;
+			}
+		}
+	}
+	
+	/**
+	 * Updates the foot point angles t and calculates the signed orthogonal distances r
+	 * (positive outside) and their derivatives with respect to the parameters
+	 * (xc, yc, a, b, phi).
+	 * @return Sum of the squared distances
+	 */
+	private static double residuals(double[] p, int[] x, int[] y, int n, double[] t,
+			double[] r, double[] jacobian){
+		double xc = p[0];
+		double yc = p[1];
+		double a = p[2];
+		double b = p[3];
+		double cos = Math.cos(p[4]);
+		double sin = Math.sin(p[4]);
+		double ab = a*a - b*b;
+		double sum = 0;
+		for (int k = 0; k < n; k++) {
+			double dx = x[k] - xc;
+			double dy = y[k] - yc;
+			double u = cos*dx + sin*dy;
+			double v = -sin*dx + cos*dy;
+			// Newton iterations for f(t) = a u sin t - b v cos t - (a^2-b^2) sin t cos t = 0
+			double ct = t[2*k];
+			double st = t[2*k+1];
+			for (int i = 0; i < FOOT_POINT_ITERATIONS; i++) {
+				double f = a*u*st - b*v*ct - ab*st*ct;
+				double df = a*u*ct + b*v*st - ab*(ct*ct - st*st);
+				if(df <= 0){
+					// not at a minimum of the distance, keep the last estimate
+					break;
+				}
+				double delta = -f/df;
+				if(Math.abs(delta) < 1e-9){
+					break;
+				}
+				double cd;
+				double sd;
+				if(Math.abs(delta) < 0.5){
+					double d2 = delta*delta;
+					cd = 1 - d2/2*(1 - d2/12);
+					sd = delta*(1 - d2/6*(1 - d2/20));
+				}
+				else {
+					cd = Math.cos(delta);
+					sd = Math.sin(delta);
+				}
+				double c = ct*cd - st*sd;
+				double s = st*cd + ct*sd;
+				double norm = Math.sqrt(c*c + s*s);
+				ct = c/norm;
+				st = s/norm;
+			}
+			t[2*k] = ct;
+			t[2*k+1] = st;
+			// outward unit normal in the ellipse frame
+			double nu = b*ct;
+			double nv = a*st;
+			double norm = Math.sqrt(nu*nu + nv*nv);
+			nu /= norm;
+			nv /= norm;
+			double distance = (u - a*ct)*nu + (v - b*st)*nv;
+			r[k] = distance;
+			sum += distance*distance;
+			// dr/dp = -n . dX/dp, X = c + R(phi) (a cos t, b sin t)
+			double nx = cos*nu - sin*nv;
+			double ny = sin*nu + cos*nv;
+			int j = k*5;
+			jacobian[j] = -nx;
+			jacobian[j+1] = -ny;
+			jacobian[j+2] = -nu*ct;
+			jacobian[j+3] = -nv*st;
+			jacobian[j+4] = -(nu*(-b*st) + nv*(a*ct));
+		}
+		return sum;
+	}
+	
+	/**
+	 * Solves (N + lambda diag(N)) step = g by Gaussian elimination with partial pivoting.
+	 * @return False if the system is singular
+	 */
+	private static boolean solveDamped(double[] normal, double[] g, double lambda, double[] step){
+		double[] m = new double[30];
+		for (int i = 0; i < 5; i++) {
+			for (int j = 0; j < 5; j++) {
+				m[i*6+j] = normal[i*5+j];
+			}
+			m[i*6+i] *= 1 + lambda;
+			m[i*6+5] = g[i];
+		}
+		for (int k = 0; k < 5; k++) {
+			int pivot = k;
+			for (int i = k+1; i < 5; i++) {
+				if(Math.abs(m[i*6+k]) > Math.abs(m[pivot*6+k])){
+					pivot = i;
+				}
+			}
+			if(!(Math.abs(m[pivot*6+k]) > 0)){
+				return false;
+			}
+			if(pivot != k){
+				for (int j = k; j < 6; j++) {
+					double swap = m[k*6+j];
+					m[k*6+j] = m[pivot*6+j];
+					m[pivot*6+j] = swap;
+				}
+			}
+			for (int i = k+1; i < 5; i++) {
+				double f = m[i*6+k]/m[k*6+k];
+				for (int j = k; j < 6; j++) {
+					m[i*6+j] -= f*m[k*6+j];
+				}
+			}
+		}
+		for (int k = 4; k >= 0; k--) {
+			double s = m[k*6+5];
+			for (int j = k+1; j < 5; j++) {
+				s -= m[k*6+j]*step[j];
+			}
+			step[k] = s/m[k*6+k];
+		}
+		return true;
+	}
+	
+	/**
+	 * Centre, semi-axes and orientation (xc, yc, a, b, phi) of the conic
+	 * ax^2 + bxy + cy^2 + dx + ey + f = 0, where a is the semi-axis in the direction phi.
+	 * @return null if the conic is not an ellipse
+	 */
+	static double[] toGeometric(double[] conic){
+		double a = conic[0];
+		double b = conic[1];
+		double c = conic[2];
+		double d = conic[3];
+		double e = conic[4];
+		double f = conic[5];
+		double det = 4*a*c - b*b;
+		if(!(det > 0)){
+			return null;
+		}
+		double xc = (b*e - 2*c*d)/det;
+		double yc = (b*d - 2*a*e)/det;
+		double f0 = a*xc*xc + b*xc*yc + c*yc*yc + d*xc + e*yc + f;
+		double phi = 0.5*Math.atan2(b, a - c);
+		double cos = Math.cos(phi);
+		double sin = Math.sin(phi);
+		double l1 = a*cos*cos + b*sin*cos + c*sin*sin;
+		double l2 = a*sin*sin - b*sin*cos + c*cos*cos;
+		double a2 = -f0/l1;
+		double b2 = -f0/l2;
+		if(!(a2 > 0 && b2 > 0)){
+			return null;
+		}
+		return new double[]{xc, yc, Math.sqrt(a2), Math.sqrt(b2), phi};
+	}
+	
+	/**
+	 * Inverse of {@link #toGeometric(double[])}, normed so that ||A|| = 1.
+	 */
+	static double[] toConic(double[] p){
+		double xc = p[0];
+		double yc = p[1];
+		double ia = 1/(p[2]*p[2]);
+		double ib = 1/(p[3]*p[3]);
+		double cos = Math.cos(p[4]);
+		double sin = Math.sin(p[4]);
+		double a = cos*cos*ia + sin*sin*ib;
+		double b = 2*sin*cos*(ia - ib);
+		double c = sin*sin*ia + cos*cos*ib;
+		double[] conic = {a, b, c, -2*a*xc - b*yc, -b*xc - 2*c*yc,
+				a*xc*xc + b*xc*yc + c*yc*yc - 1};
+		double norm = 0;
+		for (int i = 0; i < 6; i++) {
+			norm += conic[i]*conic[i];
+		}
+		norm = Math.sqrt(norm);
+		for (int i = 0; i < 6; i++) {
+			conic[i] /= norm;
+		}
+		return conic;
+	}
+
+}
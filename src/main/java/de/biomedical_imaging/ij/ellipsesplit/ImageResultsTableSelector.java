@@ -29,6 +29,7 @@ import ij.WindowManager;
 import ij.gui.ImageCanvas;
 import ij.gui.Overlay;
 import ij.gui.PolygonRoi;
+import ij.measure.ResultsTable;
 import ij.plugin.filter.Analyzer;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
@@ -60,31 +61,48 @@ public class ImageResultsTableSelector implements MouseListener {
 			ov.clear();
 		}
 		isEllipseSelected = false;
-		for(int i = 0; i < Analyzer.getResultsTable().getCounter(); i++){
-			int slice = (int)Analyzer.getResultsTable().getValueAsDouble(0, i);
-			if(slice==imp.getSlice()){
-				
-				int ellipseLabel= (int)Analyzer.getResultsTable().getValueAsDouble(1, i);
-				Ellipse el = EllipseSplit_.getInstance().getEllipseByFrameAndLabel(slice-1, ellipseLabel);
-				if(el==null){
-					break;
-				}
-				if(el.getPolygon().contains(x, y)){
-					IJ.getTextPanel().setSelection(i, i);
-					
-					PolygonRoi pr = (PolygonRoi) el.getRoi();
-					pr.setStrokeWidth(2);
-					pr.setPosition(slice);
-					ov.add(pr);
-					imp.repaintWindow();
-					isEllipseSelected = true;
-					break;
-				}
-			}
-			else if(slice >imp.getSlice()){
-				break;
+		int slice = imp.getSlice();
+		EllipseSplit_ plugin = EllipseSplit_.getInstance();
+		Ellipse el = plugin.getEllipseAt(slice-1, x, y);
+		if(el==null){
+			return;
+		}
+		int row = findResultsTableRow(plugin, slice, el.getLabel());
+		if(row>=0){
+			IJ.getTextPanel().setSelection(row, row);
+			
+			PolygonRoi pr = (PolygonRoi) el.getRoi();
+			pr.setStrokeWidth(2);
+			pr.setPosition(slice);
+			ov.add(pr);
+			imp.repaintWindow();
+			isEllipseSelected = true;
+		}
+	}
+	
+	/**
+	 * Uses the row remembered by the plugin if the table still contains the ellipse there.
+	 * Otherwise (e.g. the table was sorted or edited) the table is searched.
+	 * @return The row of the ellipse in the results table or -1 if it is not in the table
+	 */
+	private int findResultsTableRow(EllipseSplit_ plugin, int slice, int label){
+		ResultsTable rt = Analyzer.getResultsTable();
+		int row = plugin.getResultsTableRow(slice-1, label);
+		if(isRowOf(rt, row, slice, label)){
+			return row;
+		}
+		for(int i = 0; i < rt.getCounter(); i++){
+			if(isRowOf(rt, i, slice, label)){
+				return i;
 			}
 		}
+		return -1;
+	}
+	
+	private boolean isRowOf(ResultsTable rt, int row, int slice, int label){
+		return row >= 0 && row < rt.getCounter()
+				&& (int)rt.getValueAsDouble(0, row)==slice
+				&& (int)rt.getValueAsDouble(1, row)==label;
 	}
 	
 	public void setTargetImage(int id){
@@ -0,0 +1,183 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 Thorsten Wagner (wagner@biomedical-imaging.de)
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.biomedical_imaging.ij.ellipsesplit;
+
+import java.util.ArrayList;
+
+/**
+ * Growable list of integer points, stored as two primitive coordinate arrays.
+ * Used for the contour points an ellipse is fitted to.
+ */
+public class IntPointList {
+	
+	private int[] xpoints;
+	private int[] ypoints;
+	private int size;
+	
+	public IntPointList() {
+		this(16);
+	}
+	
+	public IntPointList(int capacity) {
+		xpoints = new int[Math.max(capacity, 1)];
+		ypoints = new int[Math.max(capacity, 1)];
+		size = 0;
+	}
+	
+	/**
+	 * Creates a copy of another point list.
+	 */
+	public IntPointList(IntPointList other) {
+		this(other.size);
+		addAll(other);
+	}
+	
+	/**
+	 * Creates a point list from boxed coordinate lists of the same length.
+	 */
+	public IntPointList(ArrayList<Integer> xpoints, ArrayList<Integer> ypoints) {
+		this(xpoints.size());
+		for(int i = 0; i < xpoints.size(); i++){
+			add(xpoints.get(i), ypoints.get(i));
+		}
+	}
+	
+	public void add(int x, int y){
+		if(size == xpoints.length){
+			ensureCapacity(2*size);
+		}
+		xpoints[size] = x;
+		ypoints[size] = y;
+		size++;
+	}
+	
+	public void addAll(IntPointList other){
+		ensureCapacity(size + other.size);
+		System.arraycopy(other.xpoints, 0, xpoints, size, other.size);
+		System.arraycopy(other.ypoints, 0, ypoints, size, other.size);
+		size += other.size;
+	}
+	
+	public void ensureCapacity(int capacity){
+		if(capacity > xpoints.length){
+			int[] x = new int[capacity];
+			int[] y = new int[capacity];
+			System.arraycopy(xpoints, 0, x, 0, size);
+			System.arraycopy(ypoints, 0, y, 0, size);
+			xpoints = x;
+			ypoints = y;
+		}
+	}
+	
+	public int size(){
+		return size;
+	}
+	
+	public int getX(int i){
+		return xpoints[i];
+	}
+	
+	public int getY(int i){
+		return ypoints[i];
+	}
+	
+	/**
+	 * @return The backing array of the x coordinates. Only the first size() entries are valid.
+	 */
+	public int[] getXArray(){
+		return xpoints;
+	}
+	
+	/**
+	 * @return The backing array of the y coordinates. Only the first size() entries are valid.
+	 */
+	public int[] getYArray(){
+		return ypoints;
+	}
+	
+	public void clear(){
+		size = 0;
+	}
+	
+	/**
+	 * Reduces the points of a contour to at most maxPoints points, which are equally
+	 * spaced in arc length. The points have to be in contour order. Steps between
+	 * points which are not 8-connected are gaps (e.g. where separator points were
+	 * removed) and do not count to the arc length, so that no points are taken from
+	 * the gaps. The arrays are replaced by arrays of the new size.
+	 * @param maxPoints Maximum number of points, 0 or less for no limit
+	 */
+	public void decimate(int maxPoints){
+		if(maxPoints <= 0 || size <= maxPoints){
+			return;
+		}
+		double[] arcLength = new double[size];
+		for(int i = 1; i < size; i++){
+			int dx = xpoints[i] - xpoints[i-1];
+			int dy = ypoints[i] - ypoints[i-1];
+			int d2 = dx*dx + dy*dy;
+			arcLength[i] = arcLength[i-1] + (d2 <= 2 ? Math.sqrt(d2) : 0);
+		}
+		double spacing = arcLength[size-1]/maxPoints;
+		int[] x = new int[maxPoints];
+		int[] y = new int[maxPoints];
+		int n = 0;
+		int j = -1;
+		for(int k = 0; k < maxPoints; k++){
+			// first point at or after the target arc length, but never the same point twice
+			double target = (k + 0.5)*spacing;
+			int i = j + 1;
+			while(i < size - 1 && arcLength[i] < target){
+				i++;
+			}
+			if(i >= size){
+				break;
+			}
+			x[n] = xpoints[i];
+			y[n] = ypoints[i];
+			n++;
+			j = i;
+		}
+		xpoints = x;
+		ypoints = y;
+		size = n;
+	}
+	
+	public ArrayList<Integer> getXList(){
+		return toList(xpoints);
+	}
+	
+	public ArrayList<Integer> getYList(){
+		return toList(ypoints);
+	}
+	
+	private ArrayList<Integer> toList(int[] values){
+		ArrayList<Integer> list = new ArrayList<Integer>(size);
+		for(int i = 0; i < size; i++){
+			list.add(values[i]);
+		}
+		return list;
+	}
+
+}
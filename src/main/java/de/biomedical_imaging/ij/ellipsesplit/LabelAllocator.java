@@ -0,0 +1,72 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 Thorsten Wagner (wagner@biomedical-imaging.de)
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.biomedical_imaging.ij.ellipsesplit;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out consecutive ellipse labels. {@link EllipseSplitter} uses a new allocator for every
+ * image, so the labels of a frame are 0 to n-1 in the order of the result, independent of other
+ * frames which are processed at the same time. They can be used as indices into the result list.
+ * An allocator which is shared by several images gives labels which are unique within the run.
+ * The allocator is thread-safe, each call gets a block of consecutive labels.
+ */
+public class LabelAllocator {
+	
+	private final AtomicInteger next;
+	
+	/**
+	 * Starts with label 0
+	 */
+	public LabelAllocator() {
+		this(0);
+	}
+	
+	/**
+	 * @param first First label
+	 */
+	public LabelAllocator(int first) {
+		next = new AtomicInteger(first);
+	}
+	
+	/**
+	 * @param count Number of labels
+	 * @return The first of count consecutive labels
+	 */
+	public int allocate(int count){
+		return next.getAndAdd(count);
+	}
+	
+	/**
+	 * Labels the ellipses consecutively in the order of the list.
+	 */
+	public void label(List<Ellipse> ellipses){
+		int label = allocate(ellipses.size());
+		for (Ellipse e : ellipses) {
+			e.setLabel(label++);
+		}
+	}
+
+}
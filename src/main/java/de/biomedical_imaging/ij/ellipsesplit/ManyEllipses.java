@@ -24,22 +24,132 @@
 package de.biomedical_imaging.ij.ellipsesplit;
 
 import java.util.ArrayList;
+import java.util.Collection;
 
+/**
+ * List of ellipses with a label index, so that {@link #getEllipseByLabel(int)}
+ * runs in constant time. The labels of a frame are consecutive (see {@link LabelAllocator}),
+ * so the index is an array indexed by label minus the smallest label. It is built on the
+ * first lookup and rebuilt after the list was modified, after the whole list was relabeled
+ * or when a lookup finds an entry whose label changed. A lookup of a missing label on an
+ * unchanged list returns null without rebuilding the index, therefore a single ellipse which
+ * gets a new label after a lookup is only found by it after the list was modified or its old
+ * label was looked up.
+ */
 public class ManyEllipses extends ArrayList<Ellipse> {
 	
 	/**
 	 * 
 	 */
 	private static final long serialVersionUID = 1L;
+	
+	private transient Ellipse[] byLabel;
+	private transient int labelBase;
+	private transient boolean sparse;
+	private transient int indexedModCount;
+	private transient int indexedFirstLabel;
+	
+	public ManyEllipses() {
+		super();
+	}
+	
+	public ManyEllipses(int initialCapacity) {
+		super(initialCapacity);
+	}
+	
+	public ManyEllipses(Collection<? extends Ellipse> c) {
+		super(c);
+	}
 
+	/**
+	 * @param label Label of the ellipse
+	 * @return The first ellipse with the given label or null if there is none
+	 */
 	public Ellipse getEllipseByLabel(int label){
+		if((byLabel != null || sparse) && indexedModCount == modCount && !firstRelabeled()){
+			if(sparse){
+				return find(label);
+			}
+			Ellipse e = indexed(label);
+			if(e == null || e.getLabel() == label){
+				return e;
+			}
+		}
+		// No index yet, the list was modified or an ellipse was relabeled
+		buildIndex();
+		return sparse ? find(label) : indexed(label);
+	}
+	
+	/**
+	 * {@link LabelAllocator#label(java.util.List)} relabels the whole list, which is detected
+	 * at the first ellipse, so that a miss does not have to rebuild the index.
+	 */
+	private boolean firstRelabeled(){
+		return !isEmpty() && get(0).getLabel() != indexedFirstLabel;
+	}
+	
+	/**
+	 * Replacing an element does not count as a modification of an ArrayList, so the index
+	 * is dropped here.
+	 */
+	@Override
+	public Ellipse set(int index, Ellipse e) {
+		byLabel = null;
+		sparse = false;
+		return super.set(index, e);
+	}
+	
+	@Override
+	public Object clone() {
+		ManyEllipses copy = (ManyEllipses) super.clone();
+		copy.byLabel = null;
+		copy.sparse = false;
+		return copy;
+	}
+	
+	private Ellipse indexed(int label){
+		int i = label - labelBase;
+		if(i < 0 || i >= byLabel.length){
+			return null;
+		}
+		return byLabel[i];
+	}
+	
+	/**
+	 * Labels which are spread much wider than the size of the list are not indexed,
+	 * they are searched linearly as before.
+	 */
+	private void buildIndex(){
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+		for (int i = 0; i < size(); i++) {
+			int label = get(i).getLabel();
+			min = Math.min(min, label);
+			max = Math.max(max, label);
+		}
+		indexedModCount = modCount;
+		indexedFirstLabel = isEmpty() ? 0 : get(0).getLabel();
+		long span = isEmpty() ? 0 : (long)max - min + 1;
+		sparse = span > 2L*size() + 16;
+		if(sparse){
+			byLabel = null;
+			return;
+		}
+		labelBase = isEmpty() ? 0 : min;
+		byLabel = new Ellipse[(int)span];
+		for (int i = size()-1; i >= 0; i--) {
+			Ellipse e = get(i);
+			byLabel[e.getLabel()-labelBase] = e;
+		}
+	}
+	
+	private Ellipse find(int label){
 		for (Ellipse e : this) {
 			if(e.getLabel()==label){
 				return e;
 			}
 		}
 		return null;
-		
 	}
 
 }
@@ -0,0 +1,461 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 Thorsten Wagner (wagner@biomedical-imaging.de)
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.biomedical_imaging.ij.ellipsesplit;
+
+import java.util.Random;
+
+import org.doube.geometry.FitEllipse;
+
+/**
+ * Robust ellipse fit for contours with outliers, e.g. short arcs with residual watershed
+ * artefacts. Hypotheses are conics through 5 randomly drawn contour points. They are
+ * scored either by the number of inliers (RANSAC) or by the median of the squared
+ * residuals (LMedS), the residual being the Sampson distance, a first order approximation
+ * of the geometric distance. The best hypothesis is refined with
+ * {@link FitEllipse#direct(int[], int[], int)} on its inliers.
+ * <p>
+ * The CPU time per contour is bounded in two ways, and optionally by a time budget:
+ * <ul>
+ * <li>The number of iterations is chosen so that an outlier free sample is drawn with the
+ * given confidence. RANSAC adapts it to the inlier fraction of the best hypothesis, LMedS
+ * assumes the worst case it can handle, half of the points being outliers.</li>
+ * <li>Every hypothesis is first scored on a fixed subsample of the contour. Only
+ * hypotheses which are at least as good as the best one on the subsample are scored on
+ * all points.</li>
+ * <li>If a time budget is given, the sampling stops when it is used up. The result then
+ * depends on the speed of the machine and its load, so it is off by default. Without it
+ * the random sampling is restarted with a fixed seed for each fit and the results are
+ * reproducible.</li>
+ * </ul>
+ * Contours with too few points for a robust fit are fitted with the direct fit.
+ */
+public class RansacEllipseFitter implements EllipseFitter {
+	
+	/** Number of points which determine a conic */
+	private static final int SAMPLE_SIZE = 5;
+	
+	/** Number of points of the subsample used to reject hypotheses early */
+	private static final int PREEMPTIVE_SAMPLE_SIZE = 16;
+	
+	/** Maximum number of refits of a new best hypothesis to its inliers */
+	private static final int LOCAL_ITERATIONS = 4;
+	
+	/** Seed of the random sampling, which is restarted for each fit */
+	private static final long SEED = 42;
+	
+	private final boolean leastMedian;
+	private final double threshold;
+	private final double confidence;
+	private final int maxIterations;
+	private final long timeBudget;
+	
+	/**
+	 * RANSAC or LMedS fit with an inlier threshold of 1 pixel, a confidence of 0.99 and at
+	 * most 500 iterations, without a time budget.
+	 * @param leastMedian True for LMedS, false for RANSAC
+	 */
+	public RansacEllipseFitter(boolean leastMedian) {
+		this(leastMedian, 1, 0.99, 500, 0);
+	}
+	
+	/**
+	 * @param leastMedian True for LMedS, false for RANSAC
+	 * @param threshold Maximum distance (in pixels) of an inlier to the ellipse. LMedS
+	 * estimates the threshold from the median residual and ignores this value.
+	 * @param confidence Probability that at least one sample without outliers is drawn,
+	 * used to adapt the number of iterations
+	 * @param maxIterations Maximum number of hypotheses per fit
+	 * @param timeBudget Maximum time per fit in milliseconds, 0 for no limit. A limit makes
+	 * the results non-reproducible.
+	 */
+	public RansacEllipseFitter(boolean leastMedian, double threshold, double confidence,
+			int maxIterations, double timeBudget) {
+		this.leastMedian = leastMedian;
+		this.threshold = threshold;
+		this.confidence = confidence;
+		this.maxIterations = maxIterations;
+		this.timeBudget = timeBudget > 0 ? (long)(timeBudget*1e6) : Long.MAX_VALUE;
+	}
+	
+	@Override
+	public double[] fit(int[] x, int[] y, int nPoints) {
+		if(nPoints < 2*PREEMPTIVE_SAMPLE_SIZE){
+			return FitEllipse.direct(x, y, nPoints);
+		}
+		long start = System.nanoTime();
+		
+		// centred and scaled coordinates for a well conditioned 5 point solve
+		double xC = 0;
+		double yC = 0;
+		for (int i = 0; i < nPoints; i++) {
+			xC += x[i];
+			yC += y[i];
+		}
+		xC /= nPoints;
+		yC /= nPoints;
+		double[] u = new double[nPoints];
+		double[] v = new double[nPoints];
+		double scale = 0;
+		for (int i = 0; i < nPoints; i++) {
+			u[i] = x[i] - xC;
+			v[i] = y[i] - yC;
+			scale += u[i]*u[i] + v[i]*v[i];
+		}
+		scale = Math.sqrt(scale/nPoints);
+		if(!(scale > 0)){
+			return FitEllipse.direct(x, y, nPoints);
+		}
+		for (int i = 0; i < nPoints; i++) {
+			u[i] /= scale;
+			v[i] /= scale;
+		}
+		double thresholdSq = threshold*threshold/(scale*scale);
+		
+		int[] subsample = new int[PREEMPTIVE_SAMPLE_SIZE];
+		for (int i = 0; i < subsample.length; i++) {
+			subsample[i] = (int)((long)i*nPoints/subsample.length);
+		}
+		int[] all = new int[nPoints];
+		for (int i = 0; i < nPoints; i++) {
+			all[i] = i;
+		}
+		
+		Random random = new Random(SEED);
+		int[] sample = new int[SAMPLE_SIZE];
+		double[] system = new double[SAMPLE_SIZE*6];
+		double[] conic = new double[6];
+		double[] residuals = new double[nPoints];
+		double[] scratch = new double[nPoints];
+		double[] uInliers = new double[nPoints];
+		double[] vInliers = new double[nPoints];
+		double[] best = null;
+		double bestScore = 0;
+		double bestSubsampleScore = 0;
+		// LMedS tolerates up to half of the points as outliers. Its inlier threshold grows
+		// with the median of a bad hypothesis, so the iterations are not adapted to it.
+		long iterations = leastMedian ? Math.min(maxIterations, requiredIterations(0.5)) : maxIterations;
+		for (int it = 0; it < iterations; it++) {
+			if(System.nanoTime() - start > timeBudget){
+				break;
+			}
+			drawSample(random, nPoints, sample);
+			if(!solveConic(u, v, sample, system, conic) || !isEllipse(conic)){
+				continue;
+			}
+			double subsampleScore = score(conic, u, v, subsample, subsample.length, thresholdSq, residuals, scratch);
+			if(best != null && subsampleScore < bestSubsampleScore){
+				continue;
+			}
+			double score = score(conic, u, v, all, nPoints, thresholdSq, residuals, scratch);
+			if(best == null || score > bestScore){
+				best = conic.clone();
+				bestScore = score;
+				bestSubsampleScore = subsampleScore;
+				// local optimisation: the minimal samples are noisy, so the new best
+				// hypothesis is refitted to its inliers as long as this improves the score
+				for (int i = 0; i < LOCAL_ITERATIONS; i++) {
+					double[] refined = refit(best, inlierThreshold(bestScore, nPoints, thresholdSq),
+							u, v, all, nPoints, residuals, uInliers, vInliers);
+					if(refined == null){
+						break;
+					}
+					score = score(refined, u, v, all, nPoints, thresholdSq, residuals, scratch);
+					if(!(score > bestScore)){
+						break;
+					}
+					best = refined;
+					bestScore = score;
+					bestSubsampleScore = score(refined, u, v, subsample, subsample.length, thresholdSq, scratch, scratch);
+				}
+				if(!leastMedian){
+					sampsonDistances(best, u, v, all, nPoints, residuals);
+					int inliers = countInliers(residuals, nPoints, thresholdSq);
+					iterations = Math.min(maxIterations, requiredIterations((double)inliers/nPoints));
+				}
+			}
+		}
+		if(best == null){
+			return FitEllipse.direct(x, y, nPoints);
+		}
+		
+		// refinement with the direct fit on the inliers of the best hypothesis
+		sampsonDistances(best, u, v, all, nPoints, residuals);
+		double inlierThreshold = inlierThreshold(bestScore, nPoints, thresholdSq);
+		int[] xInliers = new int[nPoints];
+		int[] yInliers = new int[nPoints];
+		int n = 0;
+		for (int i = 0; i < nPoints; i++) {
+			if(residuals[i] <= inlierThreshold){
+				xInliers[n] = x[i];
+				yInliers[n] = y[i];
+				n++;
+			}
+		}
+		if(n > SAMPLE_SIZE){
+			try {
+				return FitEllipse.direct(xInliers, yInliers, n);
+			}
+			catch(RuntimeException e){
+				// fall through to the fit of all points
+			}
+		}
+		return FitEllipse.direct(x, y, nPoints);
+	}
+	
+	/**
+	 * Score of a hypothesis, larger is better: the number of inliers for RANSAC, the
+	 * negative median of the squared residuals for LMedS.
+	 */
+	private double score(double[] conic, double[] u, double[] v, int[] indices, int n,
+			double thresholdSq, double[] residuals, double[] scratch){
+		sampsonDistances(conic, u, v, indices, n, residuals);
+		if(leastMedian){
+			System.arraycopy(residuals, 0, scratch, 0, n);
+			return -select(scratch, n, n/2);
+		}
+		return countInliers(residuals, n, thresholdSq);
+	}
+	
+	/**
+	 * Direct fit to the points whose squared residual to the conic is at most
+	 * inlierThreshold.
+	 * @return The fit, or null if there are too few inliers or the fit failed
+	 */
+	private static double[] refit(double[] conic, double inlierThreshold, double[] u, double[] v,
+			int[] all, int nPoints, double[] residuals, double[] uInliers, double[] vInliers){
+		sampsonDistances(conic, u, v, all, nPoints, residuals);
+		int n = 0;
+		for (int i = 0; i < nPoints; i++) {
+			if(residuals[i] <= inlierThreshold){
+				uInliers[n] = u[i];
+				vInliers[n] = v[i];
+				n++;
+			}
+		}
+		if(n <= SAMPLE_SIZE){
+			return null;
+		}
+		try {
+			return FitEllipse.direct(uInliers, vInliers, n);
+		}
+		catch(RuntimeException e){
+			return null;
+		}
+	}
+	
+	/**
+	 * Squared residual up to which a point is an inlier. For LMedS this is (2.5 sigma)^2
+	 * with the robust standard deviation estimated from the median (Rousseeuw).
+	 */
+	private double inlierThreshold(double score, int n, double thresholdSq){
+		if(leastMedian){
+			double sigma = 1.4826*(1 + 5.0/(n - SAMPLE_SIZE))*Math.sqrt(-score);
+			return 6.25*sigma*sigma;
+		}
+		return thresholdSq;
+	}
+	
+	private static int countInliers(double[] residuals, int n, double thresholdSq){
+		int count = 0;
+		for (int i = 0; i < n; i++) {
+			if(residuals[i] <= thresholdSq){
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Number of iterations after which a sample without outliers has been drawn with the
+	 * given confidence.
+	 */
+	private long requiredIterations(double inlierFraction){
+		double good = Math.pow(inlierFraction, SAMPLE_SIZE);
+		if(good >= 1){
+			return 1;
+		}
+		if(good <= 0){
+			return maxIterations;
+		}
+		return (long)Math.ceil(Math.log(1 - confidence)/Math.log(1 - good));
+	}
+	
+	/**
+	 * Draws distinct indices.
+	 */
+	private static void drawSample(Random random, int n, int[] sample){
+		for (int i = 0; i < sample.length; i++) {
+			int index;
+			boolean duplicate;
+			do {
+				index = random.nextInt(n);
+				duplicate = false;
+				for (int j = 0; j < i; j++) {
+					duplicate |= sample[j] == index;
+				}
+			} while(duplicate);
+			sample[i] = index;
+		}
+	}
+	
+	/**
+	 * Conic ax^2 + bxy + cy^2 + dx + ey + f = 0 through the 5 sample points: the null
+	 * vector of the 5x6 design matrix, by Gaussian elimination with full pivoting.
+	 * @param a Buffer for the design matrix
+	 * @return False if the points are degenerate (e.g. 4 of them are collinear)
+	 */
+	private static boolean solveConic(double[] u, double[] v, int[] sample, double[] a, double[] conic){
+		for (int i = 0; i < SAMPLE_SIZE; i++) {
+			double x = u[sample[i]];
+			double y = v[sample[i]];
+			int r = i*6;
+			a[r] = x*x;
+			a[r+1] = x*y;
+			a[r+2] = y*y;
+			a[r+3] = x;
+			a[r+4] = y;
+			a[r+5] = 1;
+		}
+		int[] columns = {0, 1, 2, 3, 4, 5};
+		double firstPivot = 0;
+		for (int k = 0; k < SAMPLE_SIZE; k++) {
+			int pivotRow = k;
+			int pivotColumn = k;
+			double max = 0;
+			for (int r = k; r < SAMPLE_SIZE; r++) {
+				for (int c = k; c < 6; c++) {
+					double abs = Math.abs(a[r*6+c]);
+					if(abs > max){
+						max = abs;
+						pivotRow = r;
+						pivotColumn = c;
+					}
+				}
+			}
+			if(k == 0){
+				firstPivot = max;
+			}
+			if(!(max > 1e-10*firstPivot)){
+				return false;
+			}
+			if(pivotRow != k){
+				for (int c = 0; c < 6; c++) {
+					double t = a[k*6+c];
+					a[k*6+c] = a[pivotRow*6+c];
+					a[pivotRow*6+c] = t;
+				}
+			}
+			if(pivotColumn != k){
+				for (int r = 0; r < SAMPLE_SIZE; r++) {
+					double t = a[r*6+k];
+					a[r*6+k] = a[r*6+pivotColumn];
+					a[r*6+pivotColumn] = t;
+				}
+				int t = columns[k];
+				columns[k] = columns[pivotColumn];
+				columns[pivotColumn] = t;
+			}
+			double pivot = a[k*6+k];
+			for (int r = k+1; r < SAMPLE_SIZE; r++) {
+				double f = a[r*6+k]/pivot;
+				for (int c = k; c < 6; c++) {
+					a[r*6+c] -= f*a[k*6+c];
+				}
+			}
+		}
+		// the last column is free, back substitution for the others
+		double[] solution = new double[6];
+		solution[5] = 1;
+		for (int k = SAMPLE_SIZE-1; k >= 0; k--) {
+			double sum = 0;
+			for (int c = k+1; c < 6; c++) {
+				sum += a[k*6+c]*solution[c];
+			}
+			solution[k] = -sum/a[k*6+k];
+		}
+		for (int c = 0; c < 6; c++) {
+			conic[columns[c]] = solution[c];
+		}
+		return true;
+	}
+	
+	private static boolean isEllipse(double[] p){
+		return 4*p[0]*p[2] - p[1]*p[1] > 0;
+	}
+	
+	/**
+	 * Squared Sampson distances Q(x,y)^2 / |grad Q(x,y)|^2 of the points to the conic.
+	 */
+	private static void sampsonDistances(double[] p, double[] u, double[] v, int[] indices, int n,
+			double[] residuals){
+		for (int i = 0; i < n; i++) {
+			double x = u[indices[i]];
+			double y = v[indices[i]];
+			double q = p[0]*x*x + p[1]*x*y + p[2]*y*y + p[3]*x + p[4]*y + p[5];
+			double gx = 2*p[0]*x + p[1]*y + p[3];
+			double gy = p[1]*x + 2*p[2]*y + p[4];
+			residuals[i] = q*q/(gx*gx + gy*gy);
+		}
+	}
+	
+	/**
+	 * Quickselect: the k-th smallest of the first n values. The order of the values is
+	 * changed.
+	 */
+	private static double select(double[] values, int n, int k){
+		int left = 0;
+		int right = n - 1;
+		while(left < right){
+			double pivot = values[(left + right) >>> 1];
+			int i = left;
+			int j = right;
+			while(i <= j){
+				while(values[i] < pivot){
+					i++;
+				}
+				while(values[j] > pivot){
+					j--;
+				}
+				if(i <= j){
+					double t = values[i];
+					values[i] = values[j];
+					values[j] = t;
+					i++;
+					j--;
+				}
+			}
+			if(k <= j){
+				right = j;
+			}
+			else if(k >= i){
+				left = i;
+			}
+			else {
+				return values[k];
+			}
+		}
+		return values[k];
+	}
+
+}
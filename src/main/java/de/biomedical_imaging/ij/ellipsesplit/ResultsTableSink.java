@@ -0,0 +1,141 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 Thorsten Wagner (wagner@biomedical-imaging.de)
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.biomedical_imaging.ij.ellipsesplit;
+
+import java.util.Arrays;
+
+import ij.measure.ResultsTable;
+
+/**
+ * Writes one row per ellipse to a results table and remembers the row of each ellipse,
+ * so that the selection tools can find it without scanning the table.
+ */
+public class ResultsTableSink implements EllipseSink {
+	
+	/**
+	 * Names of the measurements of {@link #measure(Ellipse, double[])}
+	 */
+	static final String[] MEASUREMENTS = {"X", "Y", "Area", "Length long axis", "Length short axis",
+			"Aspect ratio", "Rotation angle"};
+	
+	private final ResultsTable table;
+	private final long[][] rowsPerFrame;
+	
+	/**
+	 * @param table Receives the rows
+	 * @param frames Number of frames
+	 */
+	public ResultsTableSink(ResultsTable table, int frames) {
+		this.table = table;
+		rowsPerFrame = new long[frames][];
+	}
+	
+	/**
+	 * Appends the rows of a frame. The column indices are resolved once per frame instead of
+	 * looking up the heading for every value. The results table of ImageJ 1.49 has no method
+	 * to append several rows or whole columns at once, so the rows are still appended one by
+	 * one with incrementCounter and addValue.
+	 */
+	@Override
+	public void write(int frame, ManyEllipses ellipses) {
+		int frameColumn = column("Frame");
+		int labelColumn = column("Label");
+		int[] columns = new int[MEASUREMENTS.length];
+		for (int j = 0; j < columns.length; j++) {
+			columns[j] = column(MEASUREMENTS[j]);
+		}
+		double[] values = new double[MEASUREMENTS.length];
+		long[] rows = new long[ellipses.size()];
+		for (int i = 0; i < ellipses.size(); i++) {
+			Ellipse e = ellipses.get(i);
+			table.incrementCounter();
+			rows[i] = ((long)e.getLabel() << 32) | (table.getCounter()-1);
+			table.addValue(frameColumn, frame);
+			table.addValue(labelColumn, e.getLabel());
+			measure(e, values);
+			for (int j = 0; j < values.length; j++) {
+				table.addValue(columns[j], values[j]);
+			}
+		}
+		Arrays.sort(rows);
+		rowsPerFrame[frame-1] = rows;
+	}
+	
+	/**
+	 * @return Index of the column with the heading, which is added if it does not exist yet
+	 */
+	private int column(String heading){
+		int column = table.getColumnIndex(heading);
+		if(column == ResultsTable.COLUMN_NOT_FOUND){
+			column = table.getFreeColumn(heading);
+		}
+		return column;
+	}
+	
+	@Override
+	public void close() {
+	}
+	
+	public ResultsTable getTable() {
+		return table;
+	}
+	
+	/**
+	 * @param frame Frame number (1-based)
+	 * @param label Label of the ellipse
+	 * @return The row to which the ellipse was written, or -1 if it is unknown.
+	 * The row might be outdated when the table was edited or sorted afterwards.
+	 */
+	public int getRow(int frame, int label){
+		if(frame < 1 || frame > rowsPerFrame.length){
+			return -1;
+		}
+		long[] rows = rowsPerFrame[frame-1];
+		if(rows==null){
+			return -1;
+		}
+		int i = Arrays.binarySearch(rows, (long)label << 32);
+		if(i < 0){
+			i = -i-1;
+		}
+		if(i < rows.length && (int)(rows[i] >>> 32)==label){
+			return (int)rows[i];
+		}
+		return -1;
+	}
+	
+	/**
+	 * @param values Receives the measurements in the order of {@link #MEASUREMENTS}
+	 */
+	static void measure(Ellipse e, double[] values){
+		values[0] = e.getX();
+		values[1] = e.getY();
+		values[2] = Math.PI*e.getLengthLongAxis()*e.getLengthShortAxis();
+		values[3] = e.getLengthLongAxis()*2;
+		values[4] = e.getLengthShortAxis()*2;
+		values[5] = 1.0/e.getAspectRatio();
+		values[6] = e.getRotationAngle();
+	}
+
+}
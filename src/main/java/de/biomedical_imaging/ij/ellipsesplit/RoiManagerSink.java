@@ -0,0 +1,88 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 Thorsten Wagner (wagner@biomedical-imaging.de)
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.biomedical_imaging.ij.ellipsesplit;
+
+import ij.ImagePlus;
+import ij.gui.ImageCanvas;
+import ij.gui.Roi;
+import ij.plugin.frame.RoiManager;
+
+/**
+ * Adds the ellipse ROIs to the ROI Manager, named "frame-label" and positioned on their frame.
+ * The ROI Manager is opened with the first frame if it is not open yet.
+ * <p>
+ * With "Show all" the ROI Manager rebuilds the overlay of the image from all its ROIs after every
+ * added ROI, which is quadratic in the number of ROIs. Therefore "Show all" is switched off once
+ * before the first frame and the overlay is built once when the sink is closed. "Show all" is
+ * only switched on again if it was on before (or the ROI Manager was opened by the sink, which
+ * shows all ROIs as the plugin always did).
+ */
+public class RoiManagerSink implements EllipseSink {
+	
+	private final ImagePlus imp;
+	private RoiManager rm;
+	private boolean showAll;
+	
+	/**
+	 * @param imp Image whose "Show all" state is restored, may be null
+	 */
+	public RoiManagerSink(ImagePlus imp) {
+		this.imp = imp;
+	}
+	
+	@Override
+	public void write(int frame, ManyEllipses ellipses) {
+		if(rm==null){
+			rm = RoiManager.getInstance();
+			if(rm==null){
+				rm = new RoiManager();
+				showAll = true;
+			}
+			else{
+				ImageCanvas canvas = imp==null ? null : imp.getCanvas();
+				showAll = canvas!=null && canvas.getShowAllROIs();
+			}
+			if(showAll){
+				rm.runCommand("Show None");
+			}
+		}
+		for (Ellipse e : ellipses) {
+			Roi r = e.getRoi();
+			r.setPosition(frame);
+			r.setName(frame+"-"+e.getLabel());
+			rm.addRoi(r);
+		}
+	}
+	
+	/**
+	 * Switches "Show all" on again if it was on before the first frame.
+	 */
+	@Override
+	public void close() {
+		if(rm!=null && showAll){
+			rm.runCommand("Show all");
+		}
+	}
+
+}
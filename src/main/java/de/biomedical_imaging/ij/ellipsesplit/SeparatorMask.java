@@ -0,0 +1,133 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 Thorsten Wagner (wagner@biomedical-imaging.de)
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.biomedical_imaging.ij.ellipsesplit;
+
+import java.util.Arrays;
+
+import ij.process.ImageProcessor;
+
+/**
+ * Marks all pixels which have a separator pixel in their neighbourhood. Separators are
+ * the pixels which differ between the binary image and the split image (their XOR
+ * is 255). The mask is stored as a bitset with one bit per pixel, so the test for a
+ * contour point is a single lookup. It has a border of one pixel around the image,
+ * because points just outside of the image can have separators as neighbours.
+ */
+class SeparatorMask {
+	
+	/**
+	 * Offsets (dx, dy) of the neighbours which are checked for a separator. The neighbour
+	 * (x+1, y-1) is not part of the neighbourhood, as in the original pixel-wise test.
+	 */
+	private static final int[] NEIGHBOURS = {0,0, 1,0, -1,0, 0,1, 0,-1, 1,1, -1,1, -1,-1};
+	
+	private final int width;
+	private final int height;
+	private final int stride;
+	private final long[] bits;
+	
+	/**
+	 * @param ip Binary image
+	 * @param splitIp Split image of the same size
+	 */
+	public SeparatorMask(ImageProcessor ip, ImageProcessor splitIp) {
+		this(ip, splitIp, null);
+	}
+	
+	/**
+	 * @param ip Binary image
+	 * @param splitIp Split image of the same size
+	 * @param buffer Bitset which is cleared and reused if it is large enough, may be null
+	 */
+	public SeparatorMask(ImageProcessor ip, ImageProcessor splitIp, long[] buffer) {
+		width = ip.getWidth();
+		height = ip.getHeight();
+		stride = width + 2;
+		int words = (stride*(height+2) + 63) >>> 6;
+		if(buffer != null && buffer.length >= words){
+			Arrays.fill(buffer, 0, words, 0L);
+			bits = buffer;
+		}
+		else{
+			bits = new long[words];
+		}
+		Object pixels = ip.getPixels();
+		Object splitPixels = splitIp.getPixels();
+		if(pixels instanceof byte[] && splitPixels instanceof byte[]){
+			byte[] a = (byte[]) pixels;
+			byte[] b = (byte[]) splitPixels;
+			for (int i = 0; i < a.length; i++) {
+				if(((a[i] ^ b[i]) & 0xff) == 255){
+					markNeighbourhood(i % width, i / width);
+				}
+			}
+		}
+		else{
+			for (int i = 0; i < width*height; i++) {
+				if(((ip.get(i) ^ splitIp.get(i)) & 0xff) == 255){
+					markNeighbourhood(i % width, i / width);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Marks all pixels which have the separator (sx, sy) in their neighbourhood.
+	 */
+	private void markNeighbourhood(int sx, int sy){
+		for (int k = 0; k < NEIGHBOURS.length; k += 2) {
+			int x = sx - NEIGHBOURS[k];
+			int y = sy - NEIGHBOURS[k+1];
+			int i = (y+1)*stride + x+1;
+			bits[i >>> 6] |= 1L << i;
+		}
+	}
+	
+	/**
+	 * @return True if a separator lies in the neighbourhood of the pixel
+	 */
+	public boolean isNearSeparator(int x, int y){
+		if(x < -1 || x > width || y < -1 || y > height){
+			return false;
+		}
+		int i = (y+1)*stride + x+1;
+		return (bits[i >>> 6] & (1L << i)) != 0;
+	}
+	
+	/**
+	 * @return The bitset of the mask, which can be passed as buffer to the next mask
+	 */
+	long[] getBits(){
+		return bits;
+	}
+	
+	public int getWidth(){
+		return width;
+	}
+	
+	public int getHeight(){
+		return height;
+	}
+
+}
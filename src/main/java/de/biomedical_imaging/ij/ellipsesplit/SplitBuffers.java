@@ -0,0 +1,67 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 Thorsten Wagner (wagner@biomedical-imaging.de)
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.biomedical_imaging.ij.ellipsesplit;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Pool of the image buffers of {@link EllipseSplitter}: the copy of the image for the
+ * watershed and the separator bitset. Each split takes a set of buffers from the pool and
+ * returns it afterwards, so the pool holds one set per concurrent split and the buffers are
+ * reused for the next image of the same size. The pool is thread-safe. The buffers are freed
+ * with the pool or by {@link #release()}.
+ */
+public class SplitBuffers {
+	
+	static class Buffers {
+		byte[] watershed;
+		long[] separators;
+	}
+	
+	private final ConcurrentLinkedQueue<Buffers> free = new ConcurrentLinkedQueue<Buffers>();
+	
+	/**
+	 * @return A set of buffers which is not used by another split
+	 */
+	Buffers take(){
+		Buffers set = free.poll();
+		return set != null ? set : new Buffers();
+	}
+	
+	/**
+	 * Returns a set to the pool after the split
+	 */
+	void give(Buffers set){
+		free.offer(set);
+	}
+	
+	/**
+	 * Frees the buffers which are not used at the moment. The pool can still be used
+	 * afterwards, it allocates new buffers then.
+	 */
+	public void release(){
+		free.clear();
+	}
+
+}
@@ -0,0 +1,57 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 Thorsten Wagner (wagner@biomedical-imaging.de)
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.biomedical_imaging.ij.ellipsesplit;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Number of bytes allocated by the current thread, as reported by the HotSpot
+ * thread MXBean. Used for the allocated bytes per frame in debug mode. This is the
+ * allocation volume of the calling thread only, not the peak heap usage: objects which
+ * were collected in between are counted, objects allocated by other threads (e.g. the
+ * tile threads of {@link TiledSplit}) are not.
+ */
+final class ThreadAllocation {
+	
+	private ThreadAllocation() {
+	}
+	
+	/**
+	 * @return The number of bytes allocated by the current thread so far, or -1 if the
+	 * JVM does not support the measurement
+	 */
+	public static long allocatedBytes(){
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(!(bean instanceof com.sun.management.ThreadMXBean)){
+			return -1;
+		}
+		com.sun.management.ThreadMXBean hotspotBean = (com.sun.management.ThreadMXBean) bean;
+		if(!hotspotBean.isThreadAllocatedMemorySupported() || !hotspotBean.isThreadAllocatedMemoryEnabled()){
+			return -1;
+		}
+		return hotspotBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+}
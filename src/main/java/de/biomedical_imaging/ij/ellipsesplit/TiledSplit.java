@@ -0,0 +1,462 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 Thorsten Wagner (wagner@biomedical-imaging.de)
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package de.biomedical_imaging.ij.ellipsesplit;
+
+import java.awt.Rectangle;
+import java.awt.image.ColorModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ij.measure.Calibration;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * Splits a large image tile by tile with the same result as {@link EllipseSplitter}
+ * produces for the whole image at once. The tiles are processed in parallel.
+ * <p>
+ * Each tile is extended by the overlap on all sides. An object (8-connected foreground
+ * component of the binary image) belongs to the tile whose core contains its first pixel
+ * in raster order, all other tiles erase it before the watershed. Objects which are cut
+ * by the border of an extended tile are erased as well. They are traced in the whole image
+ * afterwards and processed once on their own bounding box. Therefore every object is split
+ * and fitted exactly once and always as a whole. Finally the ellipses are sorted in the order of the blobs in the
+ * whole image, so that the subsequent merge step sees the same input.
+ * <p>
+ * The quantization of the EDM in the watershed depends on the EDM maximum of the whole
+ * image. Therefore the tiles are cleaned and their EDM maximum is determined in a first
+ * pass, the watershed and the fits follow in a second pass.
+ * <p>
+ * Tiling bounds the working memory of the watershed (copies of the tile and its float EDM)
+ * to the extended tiles which are processed at the same time, not the total memory: the
+ * image (and the split image) must be in memory as a whole, the first pass reads all of it
+ * and keeps a visited bit per pixel of the image, and each cut object is processed on a
+ * copy of its whole bounding box.
+ */
+class TiledSplit {
+	
+	private final EllipseSplitter splitter;
+	private final ImageProcessor ip;
+	private final ImageProcessor splitIp;
+	private final Calibration cal;
+	private final ColorModel colorModel;
+	private final ColorModel splitColorModel;
+	private final int width;
+	private final int height;
+	
+	/**
+	 * @param splitter Splitter with the tile options
+	 * @param ip Binary image, which is only read
+	 * @param splitIp Binary split image or null for the standard watershed
+	 * @param cal Calibration of the image
+	 */
+	public TiledSplit(EllipseSplitter splitter, ImageProcessor ip, ImageProcessor splitIp, Calibration cal) {
+		this.splitter = splitter;
+		this.ip = ip;
+		this.splitIp = splitIp;
+		this.cal = cal;
+		colorModel = ip.getColorModel();
+		splitColorModel = splitIp==null ? null : splitIp.getColorModel();
+		width = ip.getWidth();
+		height = ip.getHeight();
+	}
+	
+	/**
+	 * @return The ellipses of all tiles before merging and geometric filtering
+	 */
+	public ManyEllipses run(){
+		EllipseSplitOptions options = splitter.getOptions();
+		final int tileSize = options.getTileSize();
+		final int overlap = options.getTileOverlap();
+		ExecutorService executor = Executors.newFixedThreadPool(options.getThreads());
+		try{
+			// Cut objects and maximum of the EDM
+			ArrayList<Rectangle[]> tiles = new ArrayList<Rectangle[]>();
+			ArrayList<Future<TileScan>> scans = new ArrayList<Future<TileScan>>();
+			for (int y = 0; y < height; y += tileSize) {
+				for (int x = 0; x < width; x += tileSize) {
+					final Rectangle core = new Rectangle(x, y, Math.min(tileSize, width-x), Math.min(tileSize, height-y));
+					final Rectangle tile = grow(core, overlap);
+					tiles.add(new Rectangle[]{tile, core});
+					scans.add(executor.submit(new Callable<TileScan>() {
+						@Override
+						public TileScan call() {
+							TileScan scan = new TileScan();
+							ImageProcessor[] images = prepareTile(tile, core, scan.cutObjects);
+							scan.edmMax = edmMax(images[0]);
+							return scan;
+						}
+					}));
+				}
+			}
+			
+			double edmMax = 0;
+			ArrayList<CutObject> cutObjects = new ArrayList<CutObject>();
+			ArrayList<Future<Double>> cutObjectScans = new ArrayList<Future<Double>>();
+			ObjectFinder finder = null;
+			for (Future<TileScan> future : scans) {
+				TileScan scan = get(future);
+				edmMax = Math.max(edmMax, scan.edmMax);
+				for (int i = 0; i < scan.cutObjects.size(); i++) {
+					if(finder == null){
+						finder = new ObjectFinder(ip);
+					}
+					int x = scan.cutObjects.getX(i);
+					int y = scan.cutObjects.getY(i);
+					if(!finder.isUnvisitedObject(x, y)){
+						// Already reported by another tile
+						continue;
+					}
+					final CutObject object = new CutObject(finder.fill(x, y));
+					if(!isCut(object.bounds, ownerTile(object.seedX, object.seedY, tileSize, overlap))){
+						// Processed as a whole by the tile it belongs to
+						continue;
+					}
+					cutObjects.add(object);
+					cutObjectScans.add(executor.submit(new Callable<Double>() {
+						@Override
+						public Double call() {
+							return edmMax(prepareCutObject(object)[0]);
+						}
+					}));
+				}
+			}
+			for (Future<Double> future : cutObjectScans) {
+				edmMax = Math.max(edmMax, get(future));
+			}
+			
+			// Watershed and fit with the EDM maximum of the whole image
+			final double globalEdmMax = splitIp==null ? edmMax : Double.NaN;
+			ArrayList<Future<TileResult>> results = new ArrayList<Future<TileResult>>();
+			for (final Rectangle[] tile : tiles) {
+				results.add(executor.submit(new Callable<TileResult>() {
+					@Override
+					public TileResult call() {
+						return fit(prepareTile(tile[0], tile[1], null), tile[0], globalEdmMax);
+					}
+				}));
+			}
+			for (final CutObject object : cutObjects) {
+				results.add(executor.submit(new Callable<TileResult>() {
+					@Override
+					public TileResult call() {
+						return fit(prepareCutObject(object), grow(object.bounds, 1), globalEdmMax);
+					}
+				}));
+			}
+			ArrayList<TileResult> fits = new ArrayList<TileResult>();
+			for (Future<TileResult> future : results) {
+				fits.add(get(future));
+			}
+			return collect(fits);
+		}
+		finally{
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Crops the extended tile and erases all objects which do not belong to it or are cut by its
+	 * border. Cut objects are reported by one of their pixels if their first pixel in the tile
+	 * lies in the core, so an object can be reported by several tiles.
+	 * @param cutObjects Receives the cut objects, may be null
+	 * @return The cleaned tile of the image and of the split image (null if there is none)
+	 */
+	private ImageProcessor[] prepareTile(Rectangle tile, Rectangle core, IntPointList cutObjects){
+		ImageProcessor tileIp = crop(ip, tile);
+		ImageProcessor tileSplitIp = splitIp==null ? null : crop(splitIp, tile);
+		ObjectFinder finder = new ObjectFinder(tileIp);
+		for (int y = 0; y < tile.height; y++) {
+			for (int x = 0; x < tile.width; x++) {
+				if(!finder.isUnvisitedObject(x, y)){
+					continue;
+				}
+				IntPointList pixels = finder.fill(x, y);
+				Rectangle bounds = bounds(pixels);
+				bounds.translate(tile.x, tile.y);
+				boolean cut = isCut(bounds, tile);
+				boolean inCore = core.contains(tile.x+x, tile.y+y);
+				if(cut || !inCore){
+					erase(pixels, tileIp, tileSplitIp);
+				}
+				if(cut && inCore && cutObjects != null){
+					cutObjects.add(tile.x+x, tile.y+y);
+				}
+			}
+		}
+		return new ImageProcessor[]{tileIp, tileSplitIp};
+	}
+	
+	/**
+	 * Crops the bounding box of the object (plus a border of one pixel) and erases all other
+	 * objects in this region.
+	 * @return The region of the image and of the split image (null if there is none)
+	 */
+	private ImageProcessor[] prepareCutObject(CutObject object){
+		Rectangle region = grow(object.bounds, 1);
+		ImageProcessor regionIp = crop(ip, region);
+		ImageProcessor regionSplitIp = splitIp==null ? null : crop(splitIp, region);
+		ObjectFinder finder = new ObjectFinder(regionIp);
+		finder.fill(object.seedX-region.x, object.seedY-region.y);
+		for (int y = 0; y < region.height; y++) {
+			for (int x = 0; x < region.width; x++) {
+				if(finder.isUnvisitedObject(x, y)){
+					erase(finder.fill(x, y), regionIp, regionSplitIp);
+				}
+			}
+		}
+		return new ImageProcessor[]{regionIp, regionSplitIp};
+	}
+	
+	private TileResult fit(ImageProcessor[] images, Rectangle region, double edmMax){
+		TileResult result = new TileResult();
+		splitter.fitBlobs(images[0], images[1], cal, region.x, region.y, width, height, edmMax, result.ellipses, result.order);
+		return result;
+	}
+	
+	/**
+	 * @return The maximum of the EDM or 0 if a split image is used
+	 */
+	private double edmMax(ImageProcessor part){
+		return splitIp==null ? EllipseSplitter.edmMax(part) : 0;
+	}
+	
+	/**
+	 * @return The ellipses of all results, sorted by the raster position of their blobs
+	 */
+	private ManyEllipses collect(ArrayList<TileResult> results){
+		int n = 0;
+		for (TileResult result : results) {
+			n += result.ellipses.size();
+		}
+		final Ellipse[] ellipses = new Ellipse[n];
+		final long[] order = new long[n];
+		Integer[] index = new Integer[n];
+		int i = 0;
+		for (TileResult result : results) {
+			for (int j = 0; j < result.ellipses.size(); j++) {
+				ellipses[i] = result.ellipses.get(j);
+				order[i] = result.order.get(j);
+				index[i] = i;
+				i++;
+			}
+		}
+		Arrays.sort(index, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return order[a] < order[b] ? -1 : (order[a] > order[b] ? 1 : 0);
+			}
+		});
+		ManyEllipses sorted = new ManyEllipses(n);
+		for (int k = 0; k < n; k++) {
+			sorted.add(ellipses[index[k]]);
+		}
+		return sorted;
+	}
+	
+	/**
+	 * @return The extended tile whose core contains the pixel
+	 */
+	private Rectangle ownerTile(int x, int y, int tileSize, int overlap){
+		int x0 = x - x % tileSize;
+		int y0 = y - y % tileSize;
+		Rectangle core = new Rectangle(x0, y0, Math.min(tileSize, width-x0), Math.min(tileSize, height-y0));
+		return grow(core, overlap);
+	}
+	
+	/**
+	 * @param bounds Bounds of an object in the image
+	 * @param tile Extended tile
+	 * @return True if the object touches a border of the tile which is not an image border
+	 */
+	private boolean isCut(Rectangle bounds, Rectangle tile){
+		return (tile.x > 0 && bounds.x <= tile.x) ||
+				(tile.y > 0 && bounds.y <= tile.y) ||
+				(tile.x+tile.width < width && bounds.x+bounds.width >= tile.x+tile.width) ||
+				(tile.y+tile.height < height && bounds.y+bounds.height >= tile.y+tile.height);
+	}
+	
+	private Rectangle grow(Rectangle r, int border){
+		Rectangle grown = new Rectangle(r.x-border, r.y-border, r.width+2*border, r.height+2*border);
+		return grown.intersection(new Rectangle(0, 0, width, height));
+	}
+	
+	/**
+	 * Copies a region without changing the ROI of the (shared) source image.
+	 */
+	private ImageProcessor crop(ImageProcessor source, Rectangle r){
+		ImageProcessor target;
+		Object pixels = source.getPixels();
+		if(pixels instanceof byte[]){
+			byte[] sourcePixels = (byte[]) pixels;
+			byte[] targetPixels = new byte[r.width*r.height];
+			for (int y = 0; y < r.height; y++) {
+				System.arraycopy(sourcePixels, (r.y+y)*source.getWidth()+r.x, targetPixels, y*r.width, r.width);
+			}
+			target = new ByteProcessor(r.width, r.height, targetPixels, source==ip ? colorModel : splitColorModel);
+		}
+		else{
+			target = source.createProcessor(r.width, r.height);
+			for (int y = 0; y < r.height; y++) {
+				for (int x = 0; x < r.width; x++) {
+					target.set(x, y, source.get(r.x+x, r.y+y));
+				}
+			}
+		}
+		return target;
+	}
+	
+	private static void erase(IntPointList pixels, ImageProcessor ip, ImageProcessor splitIp){
+		for (int i = 0; i < pixels.size(); i++) {
+			ip.set(pixels.getX(i), pixels.getY(i), 0);
+			if(splitIp != null){
+				splitIp.set(pixels.getX(i), pixels.getY(i), 0);
+			}
+		}
+	}
+	
+	private static Rectangle bounds(IntPointList pixels){
+		int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+		int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+		for (int i = 0; i < pixels.size(); i++) {
+			minX = Math.min(minX, pixels.getX(i));
+			maxX = Math.max(maxX, pixels.getX(i));
+			minY = Math.min(minY, pixels.getY(i));
+			maxY = Math.max(maxY, pixels.getY(i));
+		}
+		return new Rectangle(minX, minY, maxX-minX+1, maxY-minY+1);
+	}
+	
+	private static <T> T get(Future<T> future){
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for a tile", e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException){
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+	
+	private static class TileScan {
+		final IntPointList cutObjects = new IntPointList();
+		double edmMax;
+	}
+	
+	private static class TileResult {
+		final ManyEllipses ellipses = new ManyEllipses();
+		final ArrayList<Long> order = new ArrayList<Long>();
+	}
+	
+	/**
+	 * Object which is cut by a tile border, given by its bounds and its first pixel in raster order.
+	 */
+	private static class CutObject {
+		final Rectangle bounds;
+		final int seedX;
+		final int seedY;
+		
+		CutObject(IntPointList pixels) {
+			bounds = bounds(pixels);
+			int first = 0;
+			for (int i = 1; i < pixels.size(); i++) {
+				if(pixels.getY(i) < pixels.getY(first) ||
+						(pixels.getY(i) == pixels.getY(first) && pixels.getX(i) < pixels.getX(first))){
+					first = i;
+				}
+			}
+			seedX = pixels.getX(first);
+			seedY = pixels.getY(first);
+		}
+	}
+	
+	/**
+	 * Finds the 8-connected foreground objects (pixel value != 0) of an image.
+	 */
+	private static class ObjectFinder {
+		private final ImageProcessor ip;
+		private final int w;
+		private final int h;
+		private final long[] visited;
+		private final IntPointList pixels = new IntPointList();
+		private int[] stack = new int[64];
+		
+		ObjectFinder(ImageProcessor ip) {
+			this.ip = ip;
+			w = ip.getWidth();
+			h = ip.getHeight();
+			visited = new long[(w*h + 63) >>> 6];
+		}
+		
+		boolean isUnvisitedObject(int x, int y){
+			int i = y*w+x;
+			return (visited[i >>> 6] & (1L << i)) == 0 && ip.get(x, y) != 0;
+		}
+		
+		/**
+		 * Marks all pixels of the object containing (x,y) as visited.
+		 * @return The pixels of the object. The list is reused by the next call.
+		 */
+		IntPointList fill(int x0, int y0){
+			pixels.clear();
+			int n = 0;
+			stack[n++] = y0*w+x0;
+			visit(y0*w+x0);
+			while(n > 0){
+				int i = stack[--n];
+				int x = i % w;
+				int y = i / w;
+				pixels.add(x, y);
+				for (int dy = -1; dy <= 1; dy++) {
+					for (int dx = -1; dx <= 1; dx++) {
+						int nx = x+dx;
+						int ny = y+dy;
+						if(nx >= 0 && nx < w && ny >= 0 && ny < h && isUnvisitedObject(nx, ny)){
+							visit(ny*w+nx);
+							if(n == stack.length){
+								stack = Arrays.copyOf(stack, 2*n);
+							}
+							stack[n++] = ny*w+nx;
+						}
+					}
+				}
+			}
+			return pixels;
+		}
+		
+		private void visit(int i){
+			visited[i >>> 6] |= 1L << i;
+		}
+	}
+
+}
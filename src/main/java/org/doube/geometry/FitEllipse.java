@@ -19,8 +19,11 @@ package org.doube.geometry;
  *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import java.util.Arrays;
+
 import org.doube.jama.EigenvalueDecomposition;
 import org.doube.jama.Matrix;
+import org.doube.jama.SmallMatrix;
 
 /**
  * Ellipse-fitting methods.
@@ -185,14 +188,284 @@ public class FitEllipse {
 		return A.getColumnPackedCopy();
 	}
 
+	/**
+	 * Direct ellipse fit (see {@link #direct(double[][])}) for points given as
+	 * primitive coordinate arrays. The scatter matrices are accumulated in a
+	 * single pass over the points and the 3x3 eigenproblem is solved in closed
+	 * form, so the fit needs O(n) time but only constant memory.
+	 * 
+	 * @param x
+	 *            x coordinates
+	 * @param y
+	 *            y coordinates
+	 * @param nPoints
+	 *            number of points to use, starting at index 0
+	 * @return 6-element array, {a b c d f g}, as {@link #direct(double[][])}
+	 * @throws RuntimeException
+	 *             if the points are degenerate and no ellipse fits them
+	 */
+	public static double[] direct(int[] x, int[] y, int nPoints) {
+		if (nPoints == 0)
+			throw new IllegalArgumentException("No points to fit");
+		final double[] a = new double[6];
+		direct(x, y, 0, nPoints, a, 0, new DirectWork());
+		return a;
+	}
+
+	/**
+	 * Direct ellipse fits of many contours, which are stored one after the
+	 * other in the coordinate arrays (structure of arrays). The fits run in a
+	 * single loop without allocations, so the cost per contour is only the
+	 * accumulation of its points and the 3x3 eigenproblem.
+	 * 
+	 * @param x
+	 *            x coordinates of all contours
+	 * @param y
+	 *            y coordinates of all contours
+	 * @param offsets
+	 *            contour i consists of the points offsets[i] to offsets[i +
+	 *            1] - 1, at least nContours + 1 elements
+	 * @param nContours
+	 *            number of contours
+	 * @return 6 * nContours elements, the parameters of contour i (as
+	 *         {@link #direct(int[], int[], int)}) start at index 6 * i. They
+	 *         are NaN if no ellipse fits the contour.
+	 */
+	public static double[] direct(int[] x, int[] y, int[] offsets,
+			int nContours) {
+		final double[] result = new double[6 * nContours];
+		direct(x, y, offsets, 0, nContours, result);
+		return result;
+	}
+
+	/**
+	 * Direct ellipse fits of the contours first to last - 1, see
+	 * {@link #direct(int[], int[], int[], int)}. Different ranges of contours
+	 * can be fitted concurrently into the same result array.
+	 * 
+	 * @param result
+	 *            receives the parameters of contour i at the indices 6 * i to 6
+	 *            * i + 5
+	 */
+	public static void direct(int[] x, int[] y, int[] offsets, int first,
+			int last, double[] result) {
+		final DirectWork work = new DirectWork();
+		for (int i = first; i < last; i++) {
+			final int from = offsets[i];
+			final int to = offsets[i + 1];
+			boolean found = false;
+			if (to > from) {
+				try {
+					direct(x, y, from, to, result, 6 * i, work);
+					found = true;
+				} catch (RuntimeException e) {
+					// degenerate contour, no ellipse solution
+				}
+			}
+			if (!found)
+				Arrays.fill(result, 6 * i, 6 * i + 6, Double.NaN);
+		}
+	}
+
+	/**
+	 * Direct fit of the points from to to - 1.
+	 * 
+	 * @param a
+	 *            receives the parameters at the indices offset to offset + 5
+	 */
+	private static void direct(int[] x, int[] y, int from, int to,
+			double[] a, int offset, DirectWork work) {
+		work.start(x[from], y[from]);
+		for (int i = from; i < to; i++)
+			work.add(x[i], y[i]);
+		directFromSums(work, a, offset);
+	}
+
+	/**
+	 * Direct ellipse fit for points given as primitive coordinate arrays, see
+	 * {@link #direct(int[], int[], int)}.
+	 */
+	public static double[] direct(double[] x, double[] y, int nPoints) {
+		if (nPoints == 0)
+			throw new IllegalArgumentException("No points to fit");
+		final DirectWork work = new DirectWork();
+		work.start(x[0], y[0]);
+		for (int i = 0; i < nPoints; i++)
+			work.add(x[i], y[i]);
+		final double[] a = new double[6];
+		directFromSums(work, a, 0);
+		return a;
+	}
+
+	/**
+	 * Power sums and scratch matrices of the direct fit, which can be reused for
+	 * the fits of many contours. The sums s<sub>ij</sub> = sum(u^i v^j) are
+	 * accumulated relative to the first point, u = x - x0 and v = y - y0, to
+	 * keep them small.
+	 */
+	private static final class DirectWork {
+		int n;
+		double x0, y0;
+		double s10, s01, s20, s11, s02, s30, s21, s12, s03;
+		double s40, s31, s22, s13, s04;
+		final double[] s1 = new double[9];
+		final double[] s2 = new double[9];
+		final double[] s3 = new double[9];
+		final double[] s3i = new double[9];
+		final double[] t = new double[9];
+		final double[] m = new double[9];
+		final double[] nm = new double[9];
+		final double[] roots = new double[3];
+		final double[] a1 = new double[3];
+
+		void start(double x0, double y0) {
+			this.x0 = x0;
+			this.y0 = y0;
+			n = 0;
+			s10 = s01 = s20 = s11 = s02 = s30 = s21 = s12 = s03 = 0;
+			s40 = s31 = s22 = s13 = s04 = 0;
+		}
+
+		void add(double x, double y) {
+			final double u = x - x0;
+			final double v = y - y0;
+			final double uu = u * u;
+			final double uv = u * v;
+			final double vv = v * v;
+			n++;
+			s10 += u;
+			s01 += v;
+			s20 += uu;
+			s11 += uv;
+			s02 += vv;
+			s30 += uu * u;
+			s21 += uu * v;
+			s12 += uv * v;
+			s03 += vv * v;
+			s40 += uu * uu;
+			s31 += uu * uv;
+			s22 += uu * vv;
+			s13 += uv * vv;
+			s04 += vv * vv;
+		}
+	}
+
+	/**
+	 * Solves the direct fit from the power sums accumulated in work.
+	 * 
+	 * @param a
+	 *            receives the parameters at the indices offset to offset + 5
+	 */
+	private static void directFromSums(DirectWork work, double[] a, int offset) {
+		final double n = work.n;
+		final double s10 = work.s10, s01 = work.s01, s20 = work.s20, s11 = work.s11, s02 = work.s02;
+		final double s30 = work.s30, s21 = work.s21, s12 = work.s12, s03 = work.s03;
+		final double s40 = work.s40, s31 = work.s31, s22 = work.s22, s13 = work.s13, s04 = work.s04;
+		// shift the sums to the centroid (binomial expansion)
+		final double p = s10 / n;
+		final double q = s01 / n;
+		final double pp = p * p;
+		final double qq = q * q;
+		final double c20 = s20 - p * s10;
+		final double c11 = s11 - q * s10;
+		final double c02 = s02 - q * s01;
+		final double c30 = s30 - 3 * p * s20 + 3 * pp * s10 - pp * p * n;
+		final double c03 = s03 - 3 * q * s02 + 3 * qq * s01 - qq * q * n;
+		final double c21 = s21 - q * s20 - 2 * p * s11 + 2 * p * q * s10 + pp * s01 - pp * q * n;
+		final double c12 = s12 - p * s02 - 2 * q * s11 + 2 * p * q * s01 + qq * s10 - p * qq * n;
+		final double c40 = s40 - 4 * p * s30 + 6 * pp * s20 - 4 * pp * p * s10 + pp * pp * n;
+		final double c04 = s04 - 4 * q * s03 + 6 * qq * s02 - 4 * qq * q * s01 + qq * qq * n;
+		final double c31 = s31 - q * s30 - 3 * p * s21 + 3 * p * q * s20 + 3 * pp * s11
+				- 3 * pp * q * s10 - pp * p * s01 + pp * p * q * n;
+		final double c13 = s13 - p * s03 - 3 * q * s12 + 3 * p * q * s02 + 3 * qq * s11
+				- 3 * p * qq * s01 - qq * q * s10 + p * qq * q * n;
+		final double c22 = s22 - 2 * q * s21 + qq * s20 - 2 * p * s12 + 4 * p * q * s11
+				- 2 * p * qq * s10 + pp * s02 - 2 * pp * q * s01 + pp * qq * n;
+
+		// S1 = D1'D1, S2 = D1'D2 and S3 = D2'D2 for the centred design matrices
+		// D1 = [x^2 xy y^2], D2 = [x y 1]
+		final double[] s1 = work.s1;
+		set3(s1, c40, c31, c22, c31, c22, c13, c22, c13, c04);
+		final double[] s2 = work.s2;
+		set3(s2, c30, c21, c20, c21, c12, c11, c12, c03, c02);
+		final double[] s3 = work.s3;
+		set3(s3, c20, c11, 0, c11, c02, 0, 0, 0, n);
+
+		// T = -inv(S3) * S2'
+		final double[] s3i = work.s3i;
+		SmallMatrix.inverse3(s3, s3i);
+		final double[] t = work.t;
+		SmallMatrix.multiplyTransposed3(s3i, s2, t);
+		for (int i = 0; i < 9; i++)
+			t[i] = -t[i];
+
+		// M = S1 + S2 * T
+		final double[] m = work.m;
+		SmallMatrix.multiplyAdd3(s2, t, s1, m);
+
+		final double[] nm = work.nm;
+		set3(nm, m[6] / 2, m[7] / 2, m[8] / 2, -m[3], -m[4], -m[5], m[0] / 2,
+				m[1] / 2, m[2] / 2);
+
+		// the solution is the (unit) eigenvector fulfilling the ellipse
+		// condition 4ac - b^2 > 0. The tolerance rejects degenerate contours
+		// where the condition is zero up to rounding errors.
+		final double[] roots = work.roots;
+		final int nRoots = SmallMatrix.eigenvalues3(nm, roots);
+		final double[] a1 = work.a1;
+		boolean found = false;
+		for (int i = 0; i < nRoots && !found; i++) {
+			SmallMatrix.eigenvector3(nm, roots[i], a1);
+			found = 4 * a1[0] * a1[2] - a1[1] * a1[1] > 1e-12;
+		}
+		if (!found)
+			throw new RuntimeException("No ellipse solution.");
+
+		a[offset] = a1[0];
+		a[offset + 1] = a1[1];
+		a[offset + 2] = a1[2];
+		SmallMatrix.multiplyVector3(t, a1, a, offset + 3);
+
+		// back to the original coordinate system
+		final double xC = work.x0 + p;
+		final double yC = work.y0 + q;
+		final double b0 = a[offset];
+		final double b1 = a[offset + 1];
+		final double b2 = a[offset + 2];
+		final double b3 = a[offset + 3];
+		final double b4 = a[offset + 4];
+		a[offset + 3] = b3 - 2 * b0 * xC - b1 * yC;
+		a[offset + 4] = b4 - 2 * b2 * yC - b1 * xC;
+		a[offset + 5] = a[offset + 5] + b0 * xC * xC + b2 * yC * yC + b1 * xC * yC
+				- b3 * xC - b4 * yC;
+		double norm = 0;
+		for (int i = offset; i < offset + 6; i++)
+			norm += a[i] * a[i];
+		norm = Math.sqrt(norm);
+		for (int i = offset; i < offset + 6; i++)
+			a[i] /= norm;
+	}
+
+	private static void set3(double[] m, double m00, double m01, double m02,
+			double m10, double m11, double m12, double m20, double m21,
+			double m22) {
+		m[0] = m00;
+		m[1] = m01;
+		m[2] = m02;
+		m[3] = m10;
+		m[4] = m11;
+		m[5] = m12;
+		m[6] = m20;
+		m[7] = m21;
+		m[8] = m22;
+	}
+
 	/**
 	 * Ellipse fit by Taubin's Method published in G. Taubin, "Estimation Of
 	 * Planar Curves, Surfaces And Nonplanar Space Curves Defined By Implicit
 	 * Equations, With Applications To Edge And Range Image Segmentation", IEEE
 	 * Trans. PAMI, Vol. 13, pages 1115-1138, (1991)
 	 * 
-	 * CURRENTLY NOT WORKING - USE FitEllipse.direct(double[]) INSTEAD
-	 * 
 	 * Ported from Chernov's Matlab script.
 	 * 
 	 * Input: points[n][2] is the array of coordinates of n points
@@ -216,148 +489,444 @@ public class FitEllipse {
 	 *      <a href="http://www.mathworks.co.uk/matlabcentral/fileexchange/22683-ellipse-fit-taubin-method"
 	 *      >MATLAB script</a>
 	 *      </p>
-	 * @deprecated until eig(a,b) is implemented
 	 */
 	public static double[] taubin(double[][] points) {
-
 		final int nPoints = points.length;
+		final double[] x = new double[nPoints];
+		final double[] y = new double[nPoints];
+		for (int i = 0; i < nPoints; i++) {
+			x[i] = points[i][0];
+			y[i] = points[i][1];
+		}
+		return taubin(x, y, nPoints);
+	}
+
+	/**
+	 * Taubin fit for points given as primitive coordinate arrays, see
+	 * {@link #taubin(double[][])}.
+	 */
+	public static double[] taubin(int[] x, int[] y, int nPoints) {
+		return taubin(toDouble(x, nPoints), toDouble(y, nPoints), nPoints);
+	}
+
+	/**
+	 * Taubin fit for points given as primitive coordinate arrays, see
+	 * {@link #taubin(double[][])}.
+	 * 
+	 * @throws RuntimeException
+	 *             if the points are degenerate and no conic fits them
+	 */
+	public static double[] taubin(double[] x, double[] y, int nPoints) {
+		if (nPoints == 0)
+			throw new IllegalArgumentException("No points to fit");
 
 		// centroid = mean(XY); % the centroid of the data set
-		double[] centroid = Centroid.getCentroid(points);
-		final double xC = centroid[0];
-		final double yC = centroid[1];
+		double xC = 0;
+		double yC = 0;
+		for (int i = 0; i < nPoints; i++) {
+			xC += x[i];
+			yC += y[i];
+		}
+		xC /= nPoints;
+		yC /= nPoints;
 
-		// Z = [(XY(:,1)-centroid(1)).²,
+		// Z = [(XY(:,1)-centroid(1)).^2,
 		// (XY(:,1)-centroid(1)).*(XY(:,2)-centroid(2)),
-		// (XY(:,2)-centroid(2)).²,
+		// (XY(:,2)-centroid(2)).^2,
 		// XY(:,1)-centroid(1),
 		// XY(:,2)-centroid(2),
 		// ones(size(XY,1),1)];
 
-		double[][] z = new double[nPoints][6];
+		// M = Z'*Z/size(XY,1); accumulated row by row without storing Z
+		final double[] z = new double[6];
+		final double[] m = new double[36];
 		for (int i = 0; i < nPoints; i++) {
-			final double xixC = points[i][0] - xC;
-			final double yiyC = points[i][1] - yC;
-			z[i][0] = xixC * xixC;
-			z[i][1] = xixC * yiyC;
-			z[i][2] = yiyC * yiyC;
-			z[i][3] = xixC;
-			z[i][4] = yiyC;
-			z[i][5] = 1;
+			final double xixC = x[i] - xC;
+			final double yiyC = y[i] - yC;
+			z[0] = xixC * xixC;
+			z[1] = xixC * yiyC;
+			z[2] = yiyC * yiyC;
+			z[3] = xixC;
+			z[4] = yiyC;
+			z[5] = 1;
+			SmallMatrix.addOuterProduct6(z, m);
 		}
-		Matrix Z = new Matrix(z);
-
-		// M = Z'*Z/size(XY,1);
-		Matrix M = Z.transpose().times(Z.times(1 / (double) nPoints));
-
-		double[][] m = M.getArray();
-
-		//
-		// P = [M(1,1)-M(1,6)², M(1,2)-M(1,6)*M(2,6), M(1,3)-M(1,6)*M(3,6),
-		// M(1,4), M(1,5);
-
-		// M(1,2)-M(1,6)*M(2,6), M(2,2)-M(2,6)², M(2,3)-M(2,6)*M(3,6), M(2,4),
-		// M(2,5);
-
-		// M(1,3)-M(1,6)*M(3,6), M(2,3)-M(2,6)*M(3,6), M(3,3)-M(3,6)², M(3,4),
-		// M(3,5);
-
-		// M(1,4), M(2,4), M(3,4), M(4,4), M(4,5);
+		SmallMatrix.symmetrize6(m);
+		for (int i = 0; i < 36; i++)
+			m[i] /= nPoints;
+		final double m16 = m[5];
+		final double m26 = m[11];
+		final double m36 = m[17];
 
+		// P = [M(1,1)-M(1,6)^2, M(1,2)-M(1,6)*M(2,6), M(1,3)-M(1,6)*M(3,6),
+		// M(1,4), M(1,5); ...
 		// M(1,5), M(2,5), M(3,5), M(4,5), M(5,5)];
-		double[][] p = new double[5][5];
-		p[0][0] = m[0][0] - m[0][5] * m[0][5];
-		p[0][1] = m[0][1] - m[0][5] * m[1][5];
-		p[0][2] = m[0][2] - m[0][5] * m[2][5];
-		p[0][3] = m[0][3];
-		p[0][4] = m[0][4];
-
-		p[1][0] = m[0][1] - m[0][5] * m[1][5];
-		p[1][1] = m[1][1] - m[1][5] * m[1][5];
-		p[1][2] = m[1][2] - m[1][5] * m[2][5];
-		p[1][3] = m[1][3];
-		p[1][4] = m[1][4];
-
-		p[2][0] = m[0][2] - m[0][5] * m[2][5];
-		p[2][1] = m[1][2] - m[1][5] * m[2][5];
-		p[2][2] = m[2][2] - m[2][5] * m[2][5];
-		p[2][3] = m[2][3];
-		p[2][4] = m[2][4];
-
-		p[3][0] = m[0][3];
-		p[3][1] = m[1][3];
-		p[3][2] = m[2][3];
-		p[3][3] = m[3][3];
-		p[3][4] = m[3][4];
-
-		p[4][0] = m[0][4];
-		p[4][1] = m[1][4];
-		p[4][2] = m[2][4];
-		p[4][3] = m[3][4];
-		p[4][4] = m[4][4];
-
-		Matrix P = new Matrix(p);
+		final double[] mi6 = { m16, m26, m36 };
+		final double[][] p = new double[5][5];
+		for (int i = 0; i < 5; i++) {
+			for (int j = 0; j < 5; j++) {
+				p[i][j] = m[i * 6 + j];
+				if (i < 3 && j < 3)
+					p[i][j] -= mi6[i] * mi6[j];
+			}
+		}
 
 		// Q = [4*M(1,6), 2*M(2,6), 0, 0, 0;
 		// 2*M(2,6), M(1,6)+M(3,6), 2*M(2,6), 0, 0;
 		// 0, 2*M(2,6), 4*M(3,6), 0, 0;
 		// 0, 0, 0, 1, 0;
 		// 0, 0, 0, 0, 1];
-		double[][] q = { { 4 * m[0][5], 2 * m[2][5], 0, 0, 0 },
-				{ 2 * m[1][5], m[0][5] + m[2][5], 2 * m[1][5], 0, 0 },
-				{ 0, 2 * m[1][5], 4 * m[2][5], 0, 0 }, { 0, 0, 0, 1, 0 },
-				{ 0, 0, 0, 0, 1 } };
-
-		Matrix Q = new Matrix(q);
-
-		// [V,D] = eig(P,Q); //TODO generalised eigenvalues
-		EigenvalueDecomposition E = new EigenvalueDecomposition(P.times(Q
-				.inverse()));
-		Matrix V = E.getV();
-		Matrix D = E.getD();
-
-		// [Dsort,ID] = sort(diag(D));
-		double[] ds = D.diag().getColumnPackedCopy();
-		int j = 0;
-		for (int i = 0; i < ds.length; i++) {
-			if (ds[i] < ds[j]) {
-				j = i;
+		final double[] q = { 4 * m16, 2 * m26, 0,
+				2 * m26, m16 + m36, 2 * m26,
+				0, 2 * m26, 4 * m36 };
+
+		// [V,D] = eig(P,Q); Q is positive definite, so with the Cholesky
+		// factor Q = L*L' the generalised problem becomes the symmetric
+		// problem inv(L)*P*inv(L') * W = W * D with V = inv(L') * W. Q is
+		// block diagonal with the identity in the lower right, so only the
+		// upper left 3x3 block of L has to be inverted.
+		final double[] l = new double[9];
+		if (!SmallMatrix.cholesky3(q, l))
+			throw new RuntimeException("No ellipse solution.");
+		final double[] li = new double[9];
+		SmallMatrix.inverse3(l, li);
+		final double[][] lp = new double[5][5];
+		for (int j = 0; j < 5; j++) {
+			for (int i = 0; i < 3; i++)
+				lp[i][j] = li[i * 3] * p[0][j] + li[i * 3 + 1] * p[1][j]
+						+ li[i * 3 + 2] * p[2][j];
+			lp[3][j] = p[3][j];
+			lp[4][j] = p[4][j];
+		}
+		final double[][] s = new double[5][5];
+		for (int i = 0; i < 5; i++) {
+			for (int j = 0; j < 3; j++)
+				s[i][j] = lp[i][0] * li[j * 3] + lp[i][1] * li[j * 3 + 1]
+						+ lp[i][2] * li[j * 3 + 2];
+			s[i][3] = lp[i][3];
+			s[i][4] = lp[i][4];
+		}
+		// exactly symmetric, so that the symmetric eigensolver is used
+		for (int i = 0; i < 5; i++) {
+			for (int j = i + 1; j < 5; j++) {
+				final double v = (s[i][j] + s[j][i]) / 2;
+				s[i][j] = v;
+				s[j][i] = v;
 			}
 		}
+		EigenvalueDecomposition E = new EigenvalueDecomposition(new Matrix(s));
+		final double[][] w = E.getV().getArray();
 
-		// A = V(:,ID(1));
-		Matrix A = V.getMatrix(0, 4, j, j);
+		// [Dsort,ID] = sort(diag(D)); A = V(:,ID(1));
+		final double[] ds = E.getRealEigenvalues();
+		int k = 0;
+		for (int i = 1; i < ds.length; i++) {
+			if (ds[i] < ds[k])
+				k = i;
+		}
+		final double[] a = new double[6];
+		for (int i = 0; i < 3; i++)
+			a[i] = li[i] * w[0][k] + li[3 + i] * w[1][k] + li[6 + i] * w[2][k];
+		a[3] = w[3][k];
+		a[4] = w[4][k];
 
 		// A = [A; -A(1:3)'*M(1:3,6)];
-		Matrix A13 = A.getMatrix(0, 2, 0, 0).times(-1);
-		Matrix M136 = M.getMatrix(0, 2, 5, 5);
-		Matrix AM = A13.inverse().times(M136);
-		Matrix AA = new Matrix(6, 1);
-		AA.setMatrix(0, 4, 0, 0, A);
-		AA.setMatrix(5, 5, 0, 0, AM);
+		a[5] = -(a[0] * m16 + a[1] * m26 + a[2] * m36);
+
+		return uncentre(a, xC, yC);
+	}
+
+	/**
+	 * Ellipse fit by hyper-renormalization published in K. Kanatani, P.
+	 * Rangarajan, Y. Sugaya, H. Niitsuma, "HyperLS for Parameter Estimation in
+	 * Geometric Fitting", IPSJ Trans. Computer Vision and Applications, Vol. 3,
+	 * pages 80-94, (2011) and K. Kanatani, A. Al-Sharadqah, N. Chernov, Y.
+	 * Sugaya, "Renormalization Returns: Hyper-renormalization and Its
+	 * Applications", ECCV (2012).
+	 * <p>
+	 * The first iteration, with unit weights, is HyperLS, which removes the
+	 * second order bias of the algebraic fit. The following iterations
+	 * reweight the points with the inverse of their variance until the
+	 * parameters converge. The result is a conic as for
+	 * {@link #taubin(double[][])}. If the points lie exactly on a conic, the
+	 * moment matrix is singular and the Taubin fit is returned, which is exact
+	 * in that case.
+	 * 
+	 * @param x
+	 *            x coordinates
+	 * @param y
+	 *            y coordinates
+	 * @param nPoints
+	 *            number of points to use, starting at index 0
+	 * @return 6-element array, {a b c d e f}, normed so that ||A||=1 as for
+	 *         {@link #taubin(double[][])}
+	 * @throws RuntimeException
+	 *             if the points are degenerate and no conic fits them
+	 */
+	public static double[] hyper(double[] x, double[] y, int nPoints) {
+		if (nPoints == 0)
+			throw new IllegalArgumentException("No points to fit");
+
+		// centre and scale the points to unit root mean square distance, so
+		// that all elements of xi have the same order of magnitude (f0 = 1)
+		double xC = 0;
+		double yC = 0;
+		for (int i = 0; i < nPoints; i++) {
+			xC += x[i];
+			yC += y[i];
+		}
+		xC /= nPoints;
+		yC /= nPoints;
+		final double[] u = new double[nPoints];
+		final double[] v = new double[nPoints];
+		double scale = 0;
+		for (int i = 0; i < nPoints; i++) {
+			u[i] = x[i] - xC;
+			v[i] = y[i] - yC;
+			scale += u[i] * u[i] + v[i] * v[i];
+		}
+		scale = Math.sqrt(scale / nPoints);
+		if (!(scale > 0))
+			throw new RuntimeException("No ellipse solution.");
+		for (int i = 0; i < nPoints; i++) {
+			u[i] /= scale;
+			v[i] /= scale;
+		}
+
+		final double[] weights = new double[nPoints];
+		Arrays.fill(weights, 1);
+		final double[] xi = new double[6];
+		final double[] v0 = new double[36];
+		final double[] m = new double[36];
+		final double[] mp = new double[36];
+		final double[] n = new double[36];
+		final double[] l = new double[36];
+		final double[] li = new double[36];
+		final double[] lin = new double[36];
+		final double[] s = new double[36];
+		final double[] vectors = new double[36];
+		final double[] work = new double[36];
+		final double[] values = new double[6];
+		final double[] t = new double[6];
+		final double[] tv = new double[6];
+		double[] theta = null;
+		for (int iteration = 0; iteration < HYPER_ITERATIONS; iteration++) {
+			// M = sum(W * xi * xi') / n
+			Arrays.fill(m, 0);
+			for (int a = 0; a < nPoints; a++) {
+				xi(u[a], v[a], xi);
+				final double w = weights[a] / nPoints;
+				for (int i = 0; i < 6; i++)
+					for (int j = i; j < 6; j++)
+						m[i * 6 + j] += w * xi[i] * xi[j];
+			}
+			SmallMatrix.symmetrize6(m);
+
+			// rank 5 pseudo-inverse of M
+			SmallMatrix.symmetricEigen6(m, values, vectors, work);
+			int smallest = 0;
+			for (int k = 1; k < 6; k++) {
+				if (values[k] < values[smallest])
+					smallest = k;
+			}
+			Arrays.fill(mp, 0);
+			for (int k = 0; k < 6; k++) {
+				if (k == smallest)
+					continue;
+				for (int i = 0; i < 6; i++)
+					for (int j = 0; j < 6; j++)
+						mp[i * 6 + j] += vectors[i * 6 + k] * vectors[j * 6 + k] / values[k];
+			}
+
+			// N = sum(W * (V0 + 2 S[xi * e']))/n - sum(W^2 * ((xi, M- xi) V0
+			// + 2 S[V0 M- xi xi']))/n^2, e = (1, 0, 1, 0, 0, 0)
+			Arrays.fill(n, 0);
+			for (int a = 0; a < nPoints; a++) {
+				xi(u[a], v[a], xi);
+				v0(u[a], v[a], v0);
+				final double w = weights[a] / nPoints;
+				final double w2 = w * w;
+				// t = M- xi, tv = V0 M- xi
+				double xmx = 0;
+				for (int i = 0; i < 6; i++) {
+					double sum = 0;
+					for (int j = 0; j < 6; j++)
+						sum += mp[i * 6 + j] * xi[j];
+					t[i] = sum;
+					xmx += xi[i] * sum;
+				}
+				for (int i = 0; i < 6; i++) {
+					double sum = 0;
+					for (int j = 0; j < 6; j++)
+						sum += v0[i * 6 + j] * t[j];
+					tv[i] = sum;
+				}
+				for (int i = 0; i < 6; i++) {
+					for (int j = i; j < 6; j++) {
+						n[i * 6 + j] += w * (v0[i * 6 + j] + xi[i] * E_C[j] + E_C[i] * xi[j])
+								- w2 * (xmx * v0[i * 6 + j] + tv[i] * xi[j] + xi[i] * tv[j]);
+					}
+				}
+			}
+			SmallMatrix.symmetrize6(n);
+
+			// M theta = 1/mu N theta is solved as N theta = mu M theta for the
+			// eigenvalue mu with the largest absolute value, because N is not
+			// positive definite. With M = L*L' this is the symmetric problem
+			// inv(L)*N*inv(L') * w = mu * w, theta = inv(L') * w.
+			if (!SmallMatrix.cholesky6(m, l)) {
+				if (theta == null)
+					return taubin(x, y, nPoints);
+				break;
+			}
+			SmallMatrix.inverseLower6(l, li);
+			SmallMatrix.multiply6(li, n, lin);
+			SmallMatrix.multiplyTransposed6(lin, li, s);
+			for (int i = 0; i < 6; i++) {
+				for (int j = i + 1; j < 6; j++) {
+					final double sym = (s[i * 6 + j] + s[j * 6 + i]) / 2;
+					s[i * 6 + j] = sym;
+					s[j * 6 + i] = sym;
+				}
+			}
+			SmallMatrix.symmetricEigen6(s, values, vectors, work);
+			int largest = 0;
+			for (int k = 1; k < 6; k++) {
+				if (Math.abs(values[k]) > Math.abs(values[largest]))
+					largest = k;
+			}
+			// theta = inv(L') w, inv(L) is lower triangular
+			final double[] next = new double[6];
+			for (int i = 0; i < 6; i++) {
+				double sum = 0;
+				for (int j = i; j < 6; j++)
+					sum += li[j * 6 + i] * vectors[j * 6 + largest];
+				next[i] = sum;
+			}
+			double norm = 0;
+			for (int i = 0; i < 6; i++)
+				norm += next[i] * next[i];
+			norm = Math.sqrt(norm);
+			double plus = 0;
+			double minus = 0;
+			for (int i = 0; i < 6; i++) {
+				next[i] /= norm;
+				if (theta != null) {
+					plus += (next[i] - theta[i]) * (next[i] - theta[i]);
+					minus += (next[i] + theta[i]) * (next[i] + theta[i]);
+				}
+			}
+			final boolean converged = theta != null
+					&& Math.min(plus, minus) < HYPER_TOLERANCE * HYPER_TOLERANCE;
+			theta = next;
+			if (converged)
+				break;
+
+			// W = 1 / (theta, V0 theta)
+			for (int a = 0; a < nPoints; a++) {
+				v0(u[a], v[a], v0);
+				double var = 0;
+				for (int i = 0; i < 6; i++) {
+					double sum = 0;
+					for (int j = 0; j < 6; j++)
+						sum += v0[i * 6 + j] * theta[j];
+					var += theta[i] * sum;
+				}
+				weights[a] = var > 0 ? 1 / var : 1;
+			}
+		}
+
+		// A u^2 + 2B uv + C v^2 + 2D u + 2E v + F = 0 in the scaled
+		// coordinates u = (x - xC) / scale, v = (y - yC) / scale
+		final double s2 = scale * scale;
+		final double[] a = { theta[0] / s2, 2 * theta[1] / s2, theta[2] / s2,
+				2 * theta[3] / scale, 2 * theta[4] / scale, theta[5] };
+		return uncentre(a, xC, yC);
+	}
+
+	/**
+	 * Hyper-renormalization fit, see {@link #hyper(double[], double[], int)}.
+	 */
+	public static double[] hyper(int[] x, int[] y, int nPoints) {
+		return hyper(toDouble(x, nPoints), toDouble(y, nPoints), nPoints);
+	}
 
+	/** Maximum number of reweighting iterations of the hyper-renormalization */
+	private static final int HYPER_ITERATIONS = 20;
+
+	/** Convergence tolerance for the normed parameter vector */
+	private static final double HYPER_TOLERANCE = 1e-6;
+
+	/** e = (1, 0, 1, 0, 0, 0), the constant part of the Taubin term */
+	private static final double[] E_C = { 1, 0, 1, 0, 0, 0 };
+
+	/**
+	 * xi = (x^2, 2xy, y^2, 2x, 2y, 1)
+	 */
+	private static void xi(double x, double y, double[] xi) {
+		xi[0] = x * x;
+		xi[1] = 2 * x * y;
+		xi[2] = y * y;
+		xi[3] = 2 * x;
+		xi[4] = 2 * y;
+		xi[5] = 1;
+	}
+
+	/**
+	 * Normalised covariance matrix V0[xi] of xi for isotropic noise in x and
+	 * y, row by row.
+	 */
+	private static void v0(double x, double y, double[] v0) {
+		final double xx = 4 * x * x;
+		final double xy = 4 * x * y;
+		final double yy = 4 * y * y;
+		final double x4 = 4 * x;
+		final double y4 = 4 * y;
+		v0[0] = xx; v0[1] = xy; v0[2] = 0; v0[3] = x4; v0[4] = 0; v0[5] = 0;
+		v0[6] = xy; v0[7] = xx + yy; v0[8] = xy; v0[9] = y4; v0[10] = x4; v0[11] = 0;
+		v0[12] = 0; v0[13] = xy; v0[14] = yy; v0[15] = 0; v0[16] = y4; v0[17] = 0;
+		v0[18] = x4; v0[19] = y4; v0[20] = 0; v0[21] = 4; v0[22] = 0; v0[23] = 0;
+		v0[24] = 0; v0[25] = x4; v0[26] = y4; v0[27] = 0; v0[28] = 4; v0[29] = 0;
+		v0[30] = 0; v0[31] = 0; v0[32] = 0; v0[33] = 0; v0[34] = 0; v0[35] = 0;
+	}
+
+	/**
+	 * Moves the conic a, which was fitted to the points relative to the
+	 * centroid (xC, yC), back to the original coordinate system and norms it
+	 * so that ||A||=1.
+	 */
+	private static double[] uncentre(double[] a, double xC, double yC) {
 		// A4 = A(4)-2*A(1)*centroid(1)-A(2)*centroid(2);
-		double[] a = AA.getColumnPackedCopy();
-		double a4 = a[3] - 2 * a[0] * xC - a[1] * yC;
+		final double a4 = a[3] - 2 * a[0] * xC - a[1] * yC;
 
 		// A5 = A(5)-2*A(3)*centroid(2)-A(2)*centroid(1);
-		double a5 = a[4] - 2 * a[2] * yC - a[1] * xC;
+		final double a5 = a[4] - 2 * a[2] * yC - a[1] * xC;
 
-		// A6 = A(6)+A(1)*centroid(1)²+A(3)*centroid(2)²+...
+		// A6 = A(6)+A(1)*centroid(1)^2+A(3)*centroid(2)^2+...
 		// A(2)*centroid(1)*centroid(2)-A(4)*centroid(1)-A(5)*centroid(2);
-		double a6 = a[5] + a[0] * xC * xC + a[2] * yC * yC + a[1] * xC * yC
+		final double a6 = a[5] + a[0] * xC * xC + a[2] * yC * yC + a[1] * xC * yC
 				- a[3] * xC - a[4] * yC;
 
 		// A(4) = A4; A(5) = A5; A(6) = A6;
-		AA.set(3, 0, a4);
-		AA.set(4, 0, a5);
-		AA.set(5, 0, a6);
+		a[3] = a4;
+		a[4] = a5;
+		a[5] = a6;
 
 		// A = A/norm(A);
-		AA = AA.times(1 / AA.normF());
+		double norm = 0;
+		for (int i = 0; i < 6; i++)
+			norm += a[i] * a[i];
+		norm = Math.sqrt(norm);
+		for (int i = 0; i < 6; i++)
+			a[i] /= norm;
+		return a;
+	}
 
-		// end % Taubin
-		return AA.getColumnPackedCopy();
+	private static double[] toDouble(int[] values, int n) {
+		final double[] d = new double[n];
+		for (int i = 0; i < n; i++)
+			d[i] = values[i];
+		return d;
 	}
 
 	/**
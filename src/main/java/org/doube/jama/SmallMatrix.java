@@ -0,0 +1,423 @@
+package org.doube.jama;
+
+/**
+ * Kernels for fixed-size 3x3 and 6x6 matrices. The matrices are stored row by
+ * row in flat arrays, which are supplied by the caller, so that none of the
+ * operations allocates memory. The loops are unrolled and the 3x3 inverse and
+ * eigenvalues are calculated in closed form instead of with the general
+ * decompositions of {@link Matrix}. Symmetric 6x6 eigenproblems are solved
+ * with Jacobi rotations.
+ * <P>
+ * The result arrays must not be the same as the argument arrays.
+ */
+public final class SmallMatrix {
+
+	/** Maximum number of sweeps of {@link #symmetricEigen6} */
+	private static final int JACOBI_SWEEPS = 50;
+
+	/**
+	 * Squared off-diagonal norm, relative to the squared norm of the matrix, at
+	 * which the Jacobi rotations stop
+	 */
+	private static final double JACOBI_TOLERANCE = 1e-32;
+
+	private SmallMatrix() {
+	}
+
+	/**
+	 * Closed-form inverse of a 3x3 matrix (adjugate / determinant).
+	 * 
+	 * @param m
+	 *            3x3 matrix
+	 * @param inv
+	 *            receives the inverse
+	 * @throws RuntimeException
+	 *             if the matrix is singular
+	 */
+	public static void inverse3(double[] m, double[] inv) {
+		final double c00 = m[4] * m[8] - m[5] * m[7];
+		final double c01 = m[5] * m[6] - m[3] * m[8];
+		final double c02 = m[3] * m[7] - m[4] * m[6];
+		final double det = m[0] * c00 + m[1] * c01 + m[2] * c02;
+		if (det == 0)
+			throw new RuntimeException("Matrix is singular.");
+		final double d = 1 / det;
+		inv[0] = c00 * d;
+		inv[1] = (m[2] * m[7] - m[1] * m[8]) * d;
+		inv[2] = (m[1] * m[5] - m[2] * m[4]) * d;
+		inv[3] = c01 * d;
+		inv[4] = (m[0] * m[8] - m[2] * m[6]) * d;
+		inv[5] = (m[2] * m[3] - m[0] * m[5]) * d;
+		inv[6] = c02 * d;
+		inv[7] = (m[1] * m[6] - m[0] * m[7]) * d;
+		inv[8] = (m[0] * m[4] - m[1] * m[3]) * d;
+	}
+
+	/**
+	 * Cholesky decomposition m = l * l<sup>T</sup> of a symmetric 3x3 matrix.
+	 * Only the lower triangle of m is used.
+	 *
+	 * @param l
+	 *            receives the lower triangular factor
+	 * @return false if the matrix is not positive definite
+	 */
+	public static boolean cholesky3(double[] m, double[] l) {
+		final double d0 = m[0];
+		if (!(d0 > 0))
+			return false;
+		final double l00 = Math.sqrt(d0);
+		final double l10 = m[3] / l00;
+		final double l20 = m[6] / l00;
+		final double d1 = m[4] - l10 * l10;
+		if (!(d1 > 0))
+			return false;
+		final double l11 = Math.sqrt(d1);
+		final double l21 = (m[7] - l20 * l10) / l11;
+		final double d2 = m[8] - l20 * l20 - l21 * l21;
+		if (!(d2 > 0))
+			return false;
+		l[0] = l00;
+		l[1] = 0;
+		l[2] = 0;
+		l[3] = l10;
+		l[4] = l11;
+		l[5] = 0;
+		l[6] = l20;
+		l[7] = l21;
+		l[8] = Math.sqrt(d2);
+		return true;
+	}
+
+	/**
+	 * c = a * b<sup>T</sup> for 3x3 matrices
+	 */
+	public static void multiplyTransposed3(double[] a, double[] b, double[] c) {
+		for (int i = 0; i < 9; i += 3) {
+			final double a0 = a[i];
+			final double a1 = a[i + 1];
+			final double a2 = a[i + 2];
+			c[i] = a0 * b[0] + a1 * b[1] + a2 * b[2];
+			c[i + 1] = a0 * b[3] + a1 * b[4] + a2 * b[5];
+			c[i + 2] = a0 * b[6] + a1 * b[7] + a2 * b[8];
+		}
+	}
+
+	/**
+	 * d = c + a * b for 3x3 matrices
+	 */
+	public static void multiplyAdd3(double[] a, double[] b, double[] c,
+			double[] d) {
+		for (int i = 0; i < 9; i += 3) {
+			final double a0 = a[i];
+			final double a1 = a[i + 1];
+			final double a2 = a[i + 2];
+			d[i] = c[i] + a0 * b[0] + a1 * b[3] + a2 * b[6];
+			d[i + 1] = c[i + 1] + a0 * b[1] + a1 * b[4] + a2 * b[7];
+			d[i + 2] = c[i + 2] + a0 * b[2] + a1 * b[5] + a2 * b[8];
+		}
+	}
+
+	/**
+	 * Multiplies a 3x3 matrix with a vector.
+	 * 
+	 * @param out
+	 *            receives m * v at the indices offset to offset + 2
+	 */
+	public static void multiplyVector3(double[] m, double[] v, double[] out,
+			int offset) {
+		out[offset] = m[0] * v[0] + m[1] * v[1] + m[2] * v[2];
+		out[offset + 1] = m[3] * v[0] + m[4] * v[1] + m[5] * v[2];
+		out[offset + 2] = m[6] * v[0] + m[7] * v[1] + m[8] * v[2];
+	}
+
+	/**
+	 * Real eigenvalues of a 3x3 matrix from its characteristic polynomial l^3
+	 * - c2 l^2 + c1 l - c0, polished by Newton iterations.
+	 * 
+	 * @param roots
+	 *            receives the eigenvalues, at least 3 elements
+	 * @return number of real eigenvalues (1 or 3)
+	 */
+	public static int eigenvalues3(double[] m, double[] roots) {
+		final double c2 = m[0] + m[4] + m[8];
+		final double c1 = m[0] * m[4] - m[1] * m[3] + m[0] * m[8] - m[2]
+				* m[6] + m[4] * m[8] - m[5] * m[7];
+		final double c0 = m[0] * (m[4] * m[8] - m[5] * m[7]) - m[1]
+				* (m[3] * m[8] - m[5] * m[6]) + m[2]
+				* (m[3] * m[7] - m[4] * m[6]);
+
+		// depressed cubic t^3 + pt + q with l = t + c2/3
+		final double shift = c2 / 3;
+		final double p = c1 - c2 * c2 / 3;
+		final double q = -2 * c2 * c2 * c2 / 27 + c2 * c1 / 3 - c0;
+		final double disc = q * q / 4 + p * p * p / 27;
+		int count;
+		if (disc > 0) {
+			final double sq = Math.sqrt(disc);
+			roots[0] = Math.cbrt(-q / 2 + sq) + Math.cbrt(-q / 2 - sq);
+			count = 1;
+		} else if (p == 0) {
+			roots[0] = 0;
+			count = 1;
+		} else {
+			final double r = 2 * Math.sqrt(-p / 3);
+			double arg = 3 * q / (p * r);
+			arg = Math.max(-1, Math.min(1, arg));
+			final double phi = Math.acos(arg) / 3;
+			roots[0] = r * Math.cos(phi);
+			roots[1] = r * Math.cos(phi - 2 * Math.PI / 3);
+			roots[2] = r * Math.cos(phi - 4 * Math.PI / 3);
+			count = 3;
+		}
+		for (int i = 0; i < count; i++) {
+			double l = roots[i] + shift;
+			for (int k = 0; k < 2; k++) {
+				final double f = ((l - c2) * l + c1) * l - c0;
+				final double df = (3 * l - 2 * c2) * l + c1;
+				if (df == 0)
+					break;
+				l -= f / df;
+			}
+			roots[i] = l;
+		}
+		return count;
+	}
+
+	/**
+	 * Unit eigenvector of a 3x3 matrix for the eigenvalue l, taken as the
+	 * largest cross product of two rows of (m - lI).
+	 * 
+	 * @param v
+	 *            receives the eigenvector
+	 */
+	public static void eigenvector3(double[] m, double l, double[] v) {
+		final double r00 = m[0] - l, r01 = m[1], r02 = m[2];
+		final double r10 = m[3], r11 = m[4] - l, r12 = m[5];
+		final double r20 = m[6], r21 = m[7], r22 = m[8] - l;
+		// r0 x r1
+		double x = r01 * r12 - r02 * r11;
+		double y = r02 * r10 - r00 * r12;
+		double z = r00 * r11 - r01 * r10;
+		final double norm1 = x * x + y * y + z * z;
+		double norm = -1;
+		if (norm1 > norm)
+			norm = norm1;
+		// r0 x r2
+		final double x2 = r01 * r22 - r02 * r21;
+		final double y2 = r02 * r20 - r00 * r22;
+		final double z2 = r00 * r21 - r01 * r20;
+		final double norm2 = x2 * x2 + y2 * y2 + z2 * z2;
+		if (norm2 > norm) {
+			x = x2;
+			y = y2;
+			z = z2;
+			norm = norm2;
+		}
+		// r1 x r2
+		final double x3 = r11 * r22 - r12 * r21;
+		final double y3 = r12 * r20 - r10 * r22;
+		final double z3 = r10 * r21 - r11 * r20;
+		final double norm3 = x3 * x3 + y3 * y3 + z3 * z3;
+		if (norm3 > norm) {
+			x = x3;
+			y = y3;
+			z = z3;
+			norm = norm3;
+		}
+		norm = Math.sqrt(norm);
+		if (norm > 0) {
+			x /= norm;
+			y /= norm;
+			z /= norm;
+		}
+		v[0] = x;
+		v[1] = y;
+		v[2] = z;
+	}
+
+	/**
+	 * Adds the outer product z z<sup>T</sup> of a 6-vector to a symmetric 6x6
+	 * matrix, e.g. to accumulate Z<sup>T</sup>Z row by row. Only the upper
+	 * triangle is updated, see {@link #symmetrize6(double[])}.
+	 */
+	public static void addOuterProduct6(double[] z, double[] g) {
+		final double z0 = z[0], z1 = z[1], z2 = z[2], z3 = z[3], z4 = z[4], z5 = z[5];
+		g[0] += z0 * z0;
+		g[1] += z0 * z1;
+		g[2] += z0 * z2;
+		g[3] += z0 * z3;
+		g[4] += z0 * z4;
+		g[5] += z0 * z5;
+		g[7] += z1 * z1;
+		g[8] += z1 * z2;
+		g[9] += z1 * z3;
+		g[10] += z1 * z4;
+		g[11] += z1 * z5;
+		g[14] += z2 * z2;
+		g[15] += z2 * z3;
+		g[16] += z2 * z4;
+		g[17] += z2 * z5;
+		g[21] += z3 * z3;
+		g[22] += z3 * z4;
+		g[23] += z3 * z5;
+		g[28] += z4 * z4;
+		g[29] += z4 * z5;
+		g[35] += z5 * z5;
+	}
+
+	/**
+	 * Copies the upper triangle of a 6x6 matrix to the lower triangle.
+	 */
+	public static void symmetrize6(double[] g) {
+		for (int i = 1; i < 6; i++)
+			for (int j = 0; j < i; j++)
+				g[i * 6 + j] = g[j * 6 + i];
+	}
+
+	/**
+	 * Cholesky decomposition m = l * l<sup>T</sup> of a symmetric 6x6 matrix.
+	 * Only the lower triangle of m is used.
+	 * 
+	 * @param l
+	 *            receives the lower triangular factor
+	 * @return false if the matrix is not positive definite
+	 */
+	public static boolean cholesky6(double[] m, double[] l) {
+		for (int j = 0; j < 6; j++) {
+			final int rj = j * 6;
+			double d = m[rj + j];
+			for (int k = 0; k < j; k++)
+				d -= l[rj + k] * l[rj + k];
+			if (!(d > 0))
+				return false;
+			final double ljj = Math.sqrt(d);
+			l[rj + j] = ljj;
+			for (int k = j + 1; k < 6; k++)
+				l[rj + k] = 0;
+			for (int i = j + 1; i < 6; i++) {
+				final int ri = i * 6;
+				double sum = m[ri + j];
+				for (int k = 0; k < j; k++)
+					sum -= l[ri + k] * l[rj + k];
+				l[ri + j] = sum / ljj;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Inverse of a lower triangular 6x6 matrix with a nonzero diagonal, by
+	 * forward substitution.
+	 * 
+	 * @param li
+	 *            receives the inverse, which is lower triangular as well
+	 */
+	public static void inverseLower6(double[] l, double[] li) {
+		for (int j = 0; j < 6; j++) {
+			for (int i = 0; i < j; i++)
+				li[i * 6 + j] = 0;
+			li[j * 6 + j] = 1 / l[j * 6 + j];
+			for (int i = j + 1; i < 6; i++) {
+				double sum = 0;
+				for (int k = j; k < i; k++)
+					sum += l[i * 6 + k] * li[k * 6 + j];
+				li[i * 6 + j] = -sum / l[i * 6 + i];
+			}
+		}
+	}
+
+	/**
+	 * c = a * b for 6x6 matrices
+	 */
+	public static void multiply6(double[] a, double[] b, double[] c) {
+		for (int i = 0; i < 36; i += 6) {
+			for (int j = 0; j < 6; j++) {
+				double sum = 0;
+				for (int k = 0; k < 6; k++)
+					sum += a[i + k] * b[k * 6 + j];
+				c[i + j] = sum;
+			}
+		}
+	}
+
+	/**
+	 * c = a * b<sup>T</sup> for 6x6 matrices
+	 */
+	public static void multiplyTransposed6(double[] a, double[] b, double[] c) {
+		for (int i = 0; i < 36; i += 6) {
+			for (int j = 0; j < 36; j += 6) {
+				double sum = 0;
+				for (int k = 0; k < 6; k++)
+					sum += a[i + k] * b[j + k];
+				c[i + j / 6] = sum;
+			}
+		}
+	}
+
+	/**
+	 * Eigenvalues and eigenvectors of a symmetric 6x6 matrix by cyclic Jacobi
+	 * rotations. The rotations are applied until the off-diagonal elements
+	 * are negligible compared to the matrix, which takes about 6 sweeps.
+	 * 
+	 * @param m
+	 *            symmetric 6x6 matrix, which is not changed
+	 * @param values
+	 *            receives the eigenvalues, in no particular order
+	 * @param vectors
+	 *            receives the unit eigenvectors as columns: column k belongs
+	 *            to values[k]
+	 * @param work
+	 *            scratch array of 36 elements
+	 */
+	public static void symmetricEigen6(double[] m, double[] values,
+			double[] vectors, double[] work) {
+		final double[] a = work;
+		System.arraycopy(m, 0, a, 0, 36);
+		double norm = 0;
+		for (int i = 0; i < 36; i++) {
+			norm += a[i] * a[i];
+			vectors[i] = i % 7 == 0 ? 1 : 0;
+		}
+		for (int sweep = 0; sweep < JACOBI_SWEEPS; sweep++) {
+			double off = 0;
+			for (int p = 0; p < 5; p++)
+				for (int q = p + 1; q < 6; q++)
+					off += a[p * 6 + q] * a[p * 6 + q];
+			if (!(off > JACOBI_TOLERANCE * norm))
+				break;
+			for (int p = 0; p < 5; p++) {
+				for (int q = p + 1; q < 6; q++) {
+					final double apq = a[p * 6 + q];
+					if (apq == 0)
+						continue;
+					// rotation by the angle which zeroes a[p][q]
+					final double theta = (a[q * 6 + q] - a[p * 6 + p]) / (2 * apq);
+					final double t = (theta >= 0 ? 1 : -1)
+							/ (Math.abs(theta) + Math.sqrt(theta * theta + 1));
+					final double c = 1 / Math.sqrt(t * t + 1);
+					final double s = t * c;
+					for (int k = 0; k < 6; k++) {
+						final double akp = a[k * 6 + p];
+						final double akq = a[k * 6 + q];
+						a[k * 6 + p] = c * akp - s * akq;
+						a[k * 6 + q] = s * akp + c * akq;
+					}
+					for (int k = 0; k < 6; k++) {
+						final double apk = a[p * 6 + k];
+						final double aqk = a[q * 6 + k];
+						a[p * 6 + k] = c * apk - s * aqk;
+						a[q * 6 + k] = s * apk + c * aqk;
+					}
+					for (int k = 0; k < 6; k++) {
+						final double vkp = vectors[k * 6 + p];
+						final double vkq = vectors[k * 6 + q];
+						vectors[k * 6 + p] = c * vkp - s * vkq;
+						vectors[k * 6 + q] = s * vkp + c * vkq;
+					}
+				}
+			}
+		}
+		for (int i = 0; i < 6; i++)
+			values[i] = a[i * 7];
+	}
+}
@@ -0,0 +1,245 @@
+import static org.junit.Assert.*;
+import ij.IJ;
+import ij.ImagePlus;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+import org.junit.Test;
+
+import de.biomedical_imaging.ij.ellipsesplit.BinaryEllipseReader;
+import de.biomedical_imaging.ij.ellipsesplit.BinaryEllipseSink;
+import de.biomedical_imaging.ij.ellipsesplit.Ellipse;
+import de.biomedical_imaging.ij.ellipsesplit.EllipseSplitOptions;
+import de.biomedical_imaging.ij.ellipsesplit.EllipseSplitter;
+import de.biomedical_imaging.ij.ellipsesplit.LabelAllocator;
+import de.biomedical_imaging.ij.ellipsesplit.ManyEllipses;
+
+
+public class BinaryEllipseTest {
+
+	@Test
+	public void roundTripOfSeveralFrames() throws IOException {
+		ManyEllipses[] frames = splitStack();
+		File file = tempFile();
+		BinaryEllipseSink sink = new BinaryEllipseSink(file);
+		sink.write(1, frames[0]);
+		sink.write(2, new ManyEllipses());
+		sink.write(3, frames[1]);
+		sink.close();
+
+		BinaryEllipseReader reader = new BinaryEllipseReader(file);
+		try {
+			assertArrayEquals(new int[] { 1, 2, 3 }, reader.getFrames());
+			assertFrame(reader, 1, frames[0]);
+			assertFrame(reader, 2, new ManyEllipses());
+			assertFrame(reader, 3, frames[1]);
+			assertEquals(0, reader.getEllipseCount(4));
+			assertEquals(0, reader.readFrame(4, null).size());
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void unsortedFrames() throws IOException {
+		ManyEllipses[] frames = splitStack();
+		File file = tempFile();
+		BinaryEllipseSink sink = new BinaryEllipseSink(file);
+		sink.write(5, frames[1]);
+		sink.write(2, frames[0]);
+		sink.close();
+
+		BinaryEllipseReader reader = new BinaryEllipseReader(file);
+		try {
+			assertArrayEquals(new int[] { 5, 2 }, reader.getFrames());
+			assertFrame(reader, 2, frames[0]);
+			assertFrame(reader, 5, frames[1]);
+			assertEquals(0, reader.getEllipseCount(3));
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void truncatedLastBlockIsIgnored() throws IOException {
+		ManyEllipses[] frames = splitStack();
+		File file = tempFile();
+		BinaryEllipseSink sink = new BinaryEllipseSink(file);
+		sink.write(1, frames[0]);
+		sink.write(2, frames[1]);
+		sink.close();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - 3);
+		raf.close();
+
+		BinaryEllipseReader reader = new BinaryEllipseReader(file);
+		try {
+			assertArrayEquals(new int[] { 1 }, reader.getFrames());
+			assertFrame(reader, 1, frames[0]);
+			assertEquals(0, reader.getEllipseCount(2));
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void invalidHeaders() throws IOException {
+		assertRejected(header("ELSX", 1, BinaryEllipseSink.COLUMNS.length));
+		assertRejected(header("ELSP", 2, BinaryEllipseSink.COLUMNS.length));
+		assertRejected(header("ELSP", 1, BinaryEllipseSink.COLUMNS.length + 1));
+		assertRejected(new byte[] { 'E', 'L', 'S', 'P', 1 });
+		// a valid header without frames
+		File file = write(header("ELSP", 1, BinaryEllipseSink.COLUMNS.length));
+		BinaryEllipseReader reader = new BinaryEllipseReader(file);
+		assertEquals(0, reader.getFrames().length);
+		reader.close();
+	}
+
+	@Test
+	public void channelIsClosedIfTheHeaderFails() {
+		FailingChannel channel = new FailingChannel();
+		try {
+			new BinaryEllipseSink(channel);
+			fail("The header write must fail");
+		} catch (IOException expected) {
+		}
+		assertFalse(channel.isOpen());
+	}
+
+	/**
+	 * Compares the labels, every column with the getter it is named after and the
+	 * restored ellipses with the original ones
+	 */
+	private static void assertFrame(BinaryEllipseReader reader, int frame,
+			ManyEllipses expected) throws IOException {
+		int n = expected.size();
+		assertEquals(n, reader.getEllipseCount(frame));
+		int[] labels = reader.readLabels(frame);
+		assertEquals(n, labels.length);
+		for (int i = 0; i < n; i++) {
+			assertEquals(expected.get(i).getLabel(), labels[i]);
+		}
+		String[] columns = BinaryEllipseSink.COLUMNS;
+		for (int c = 0; c < columns.length; c++) {
+			double[] values = reader.readColumn(frame, c);
+			assertEquals(n, values.length);
+			for (int i = 0; i < n; i++) {
+				assertEquals(columns[c], getter(expected.get(i), columns[c]), values[i], 0);
+			}
+		}
+		ManyEllipses restored = reader.readFrame(frame, null);
+		assertEquals(n, restored.size());
+		for (int i = 0; i < n; i++) {
+			Ellipse e = expected.get(i);
+			Ellipse r = restored.get(i);
+			assertEquals(e.getLabel(), r.getLabel());
+			assertNull(r.getPoints());
+			assertArrayEquals(e.getParameterVector(), r.getParameterVector(), 0);
+			assertEquals(e.getX(), r.getX(), 0);
+			assertEquals(e.getY(), r.getY(), 0);
+			assertEquals(e.getRotationAngle(), r.getRotationAngle(), 0);
+			assertSame(r, restored.getEllipseByLabel(e.getLabel()));
+		}
+	}
+
+	private static double getter(Ellipse e, String column) {
+		if (column.equals("X"))
+			return e.getX();
+		if (column.equals("Y"))
+			return e.getY();
+		if (column.equals("Length long axis"))
+			return 2 * e.getLengthLongAxis();
+		if (column.equals("Length short axis"))
+			return 2 * e.getLengthShortAxis();
+		if (column.equals("Aspect ratio"))
+			return 1.0 / e.getAspectRatio();
+		if (column.equals("Rotation angle"))
+			return e.getRotationAngle();
+		if (column.equals("a"))
+			return e.getA();
+		if (column.equals("b"))
+			return e.getB();
+		if (column.equals("c"))
+			return e.getC();
+		if (column.equals("d"))
+			return e.getD();
+		if (column.equals("e"))
+			return e.getE();
+		if (column.equals("f"))
+			return e.getF();
+		throw new AssertionError("Unknown column " + column);
+	}
+
+	/**
+	 * @return The ellipses of both slices of a bundled stack, labeled uniquely
+	 */
+	private ManyEllipses[] splitStack() {
+		URL url = getClass().getClassLoader().getResource("Ellipse_Test_Stack2.tif");
+		ImagePlus imp = IJ.openImage(url.getPath());
+		EllipseSplitter splitter = new EllipseSplitter(new EllipseSplitOptions());
+		LabelAllocator labels = new LabelAllocator();
+		ManyEllipses[] frames = new ManyEllipses[2];
+		for (int i = 0; i < 2; i++) {
+			frames[i] = splitter.split(imp.getStack().getProcessor(i + 1), null, null, labels);
+			assertTrue(frames[i].size() > 0);
+		}
+		return frames;
+	}
+
+	private static void assertRejected(byte[] content) throws IOException {
+		File file = write(content);
+		try {
+			new BinaryEllipseReader(file).close();
+			fail("Invalid header was accepted");
+		} catch (IOException expected) {
+		}
+	}
+
+	private static byte[] header(String magic, int version, int columns) {
+		ByteBuffer b = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+		b.put(magic.getBytes());
+		b.putInt(version);
+		b.putInt(columns);
+		return b.array();
+	}
+
+	private static File write(byte[] content) throws IOException {
+		File file = tempFile();
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(content);
+		out.close();
+		return file;
+	}
+
+	private static File tempFile() throws IOException {
+		File file = File.createTempFile("ellipses", ".elsp");
+		file.deleteOnExit();
+		return file;
+	}
+
+	private static class FailingChannel implements WritableByteChannel {
+		private boolean open = true;
+
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			throw new IOException("Disk full");
+		}
+
+		@Override
+		public boolean isOpen() {
+			return open;
+		}
+
+		@Override
+		public void close() {
+			open = false;
+		}
+	}
+}
@@ -0,0 +1,31 @@
+import static org.junit.Assert.*;
+
+import org.doube.geometry.FitEllipse;
+import org.junit.Test;
+
+import de.biomedical_imaging.ij.ellipsesplit.ContourBatch;
+import de.biomedical_imaging.ij.ellipsesplit.EllipseFitMethod;
+
+
+public class ContourBatchTest {
+
+	@Test
+	public void parallelFitEqualsSerialFit() {
+		ContourBatch batch = new ContourBatch(4, 16);
+		for (int k = 0; k < 200; k++) {
+			double[][] points = FitEllipse.testEllipse(5 + k % 40, 4 + k % 7,
+					0.1 * k, 100 + k, 200 - k, 0, 20 + k % 100);
+			int[] x = new int[points.length];
+			int[] y = new int[points.length];
+			for (int i = 0; i < points.length; i++) {
+				x[i] = (int) Math.round(points[i][0]);
+				y[i] = (int) Math.round(points[i][1]);
+			}
+			batch.add(x, y, x.length);
+		}
+		assertEquals(200, batch.size());
+		double[] serial = batch.fitDirect();
+		assertArrayEquals(serial, batch.fitDirect(4), 0);
+		assertArrayEquals(serial, batch.fit(EllipseFitMethod.DIRECT), 0);
+	}
+}
@@ -0,0 +1,97 @@
+import static org.junit.Assert.*;
+import ij.IJ;
+import ij.ImagePlus;
+
+import java.net.URL;
+
+import org.junit.Test;
+
+import de.biomedical_imaging.ij.ellipsesplit.Ellipse;
+import de.biomedical_imaging.ij.ellipsesplit.EllipseSplitOptions;
+import de.biomedical_imaging.ij.ellipsesplit.EllipseSplitter;
+import de.biomedical_imaging.ij.ellipsesplit.IntPointList;
+import de.biomedical_imaging.ij.ellipsesplit.ManyEllipses;
+
+
+public class ContourDecimationTest {
+
+	@Test
+	public void decimateKeepsEquallySpacedPoints() {
+		IntPointList points = new IntPointList(10);
+		for (int i = 0; i < 100; i++) {
+			points.add(i, 0);
+		}
+		points.decimate(10);
+		assertEquals(10, points.size());
+		for (int k = 0; k < 10; k++) {
+			assertEquals(10 * k + 5, points.getX(k), 1);
+		}
+	}
+
+	@Test
+	public void decimateSkipsGaps() {
+		IntPointList points = new IntPointList(10);
+		for (int i = 0; i < 50; i++) {
+			points.add(i, 0);
+		}
+		// a gap left by removed separator points
+		for (int i = 0; i < 50; i++) {
+			points.add(i, 100);
+		}
+		points.decimate(10);
+		assertEquals(10, points.size());
+		for (int k = 0; k < 10; k++) {
+			assertEquals(k < 5 ? 0 : 100, points.getY(k));
+		}
+	}
+
+	@Test
+	public void decimateLeavesShortContours() {
+		IntPointList points = new IntPointList(10);
+		for (int i = 0; i < 5; i++) {
+			points.add(i, i);
+		}
+		points.decimate(10);
+		assertEquals(5, points.size());
+		points.decimate(0);
+		assertEquals(5, points.size());
+	}
+
+	@Test
+	public void decimatedFitsMatchFullResolution() {
+		String[] images = { "ellipse_example.tif", "Ellipse_Test_Stack2.tif",
+				"SingleEllipse.tif" };
+		EllipseSplitOptions options = new EllipseSplitOptions();
+		for (String name : images) {
+			URL url = getClass().getClassLoader().getResource(name);
+			ImagePlus imp = IJ.openImage(url.getPath());
+			for (int i = 1; i <= imp.getStackSize(); i++) {
+				ManyEllipses full = new EllipseSplitter(options).split(
+						imp.getStack().getProcessor(i), imp.getCalibration());
+				ManyEllipses decimated = new EllipseSplitter(
+						options.withMaxFitPoints(128)).split(
+						imp.getStack().getProcessor(i), imp.getCalibration());
+				assertEquals(name, full.size(), decimated.size());
+				for (Ellipse e : decimated) {
+					Ellipse f = closest(full, e);
+					assertEquals(name, 0, Math.hypot(e.getX() - f.getX(), e.getY() - f.getY()), 1);
+					assertEquals(name, f.getLengthLongAxis(), e.getLengthLongAxis(), 1);
+					assertEquals(name, f.getLengthShortAxis(), e.getLengthShortAxis(), 1);
+				}
+			}
+		}
+	}
+
+	private static Ellipse closest(ManyEllipses ellipses, Ellipse e) {
+		Ellipse best = null;
+		double bestDistance = Double.POSITIVE_INFINITY;
+		for (Ellipse f : ellipses) {
+			double d = Math.hypot(e.getX() - f.getX(), e.getY() - f.getY());
+			if (d < bestDistance) {
+				bestDistance = d;
+				best = f;
+			}
+		}
+		return best;
+	}
+}
@@ -1,11 +1,15 @@
 import static org.junit.Assert.*;
+import ij.IJ;
 import ij.ImagePlus;
 
 import java.net.URL;
 
 import org.junit.Test;
 
+import de.biomedical_imaging.ij.ellipsesplit.Ellipse;
 import de.biomedical_imaging.ij.ellipsesplit.EllipseSplit_;
+import de.biomedical_imaging.ij.ellipsesplit.EllipseSplitOptions;
+import de.biomedical_imaging.ij.ellipsesplit.EllipseSplitter;
 import de.biomedical_imaging.ij.ellipsesplit.ManyEllipses;
 
 
@@ -21,4 +25,39 @@ public class EllipseTest {
 		System.out.println(me.get(0).shortestDistanceToPoint(177, 180));
 	}
 */
+
+	@Test
+	public void pointAccessorsWithContourPoints() {
+		Ellipse e = splitSingleEllipse(false);
+		assertNotNull(e.getPoints());
+		assertEquals(e.getPoints().size(), e.getXCoordinates().size());
+		assertEquals(e.getPoints().size(), e.getYCoordinates().size());
+		assertTrue(e.getRValue() > 0.9);
+	}
+
+	@Test
+	public void pointAccessorsWithDroppedPoints() {
+		Ellipse e = splitSingleEllipse(true);
+		assertNull(e.getPoints());
+		assertTrue(Double.isNaN(e.getRValue()));
+		try {
+			e.getXCoordinates();
+			fail("Dropped points must not look like an empty contour");
+		} catch (IllegalStateException expected) {
+		}
+		try {
+			e.getYCoordinates();
+			fail("Dropped points must not look like an empty contour");
+		} catch (IllegalStateException expected) {
+		}
+	}
+
+	private Ellipse splitSingleEllipse(boolean dropPoints) {
+		URL url = getClass().getClassLoader().getResource("SingleEllipse.tif");
+		ImagePlus imp = IJ.openImage(url.getPath());
+		ManyEllipses ellipses = new EllipseSplitter(new EllipseSplitOptions()
+				.withDropPoints(dropPoints)).split(imp.getProcessor(), imp.getCalibration());
+		assertEquals(1, ellipses.size());
+		return ellipses.get(0);
+	}
 }
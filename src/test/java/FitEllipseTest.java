@@ -0,0 +1,136 @@
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.doube.geometry.FitEllipse;
+import org.junit.Test;
+
+
+public class FitEllipseTest {
+
+	@Test
+	public void streamingDirectFitEqualsReference() {
+		double[][] shapes = { { 10, 5, 0.3, 50, 40 }, { 80, 20, 2.1, 300, 200 },
+				{ 7, 6, -0.8, 4000, 7000 }, { 30, 30, 0, 100, 100 } };
+		for (double[] s : shapes) {
+			double[][] points = FitEllipse.testEllipse(s[0], s[1], s[2], s[3], s[4], 1.5, 200);
+			double[] x = new double[points.length];
+			double[] y = new double[points.length];
+			for (int i = 0; i < points.length; i++) {
+				x[i] = points[i][0];
+				y[i] = points[i][1];
+			}
+			assertSameConic(FitEllipse.direct(points), FitEllipse.direct(x, y, x.length));
+		}
+	}
+
+	@Test
+	public void streamingDirectFitOnIntegerContour() {
+		double[][] points = FitEllipse.testEllipse(25, 12, 1.0, 120, 80, 0, 150);
+		int[] x = new int[points.length];
+		int[] y = new int[points.length];
+		for (int i = 0; i < points.length; i++) {
+			x[i] = (int) Math.round(points[i][0]);
+			y[i] = (int) Math.round(points[i][1]);
+			points[i][0] = x[i];
+			points[i][1] = y[i];
+		}
+		assertSameConic(FitEllipse.direct(points), FitEllipse.direct(x, y, x.length));
+	}
+
+	@Test
+	public void taubinAndHyperFitRecoverExactEllipse() {
+		double[][] points = FitEllipse.testEllipse(40, 15, 0.6, 200, 150, 0, 100);
+		double[] x = new double[points.length];
+		double[] y = new double[points.length];
+		for (int i = 0; i < points.length; i++) {
+			x[i] = points[i][0];
+			y[i] = points[i][1];
+		}
+		double[] expected = FitEllipse.direct(points);
+		assertSameConic(expected, FitEllipse.taubin(points), 1e-6);
+		assertSameConic(expected, FitEllipse.taubin(x, y, x.length), 1e-6);
+		assertSameConic(expected, FitEllipse.hyper(x, y, x.length), 1e-6);
+	}
+
+	@Test
+	public void batchDirectFitEqualsSingleFits() {
+		double[][] shapes = { { 10, 5, 0.3, 50, 40 }, { 80, 20, 2.1, 300, 200 },
+				{ 30, 30, 0, 100, 100 } };
+		int[] offsets = new int[shapes.length + 2];
+		int[] x = new int[1000];
+		int[] y = new int[1000];
+		int n = 0;
+		for (int k = 0; k < shapes.length; k++) {
+			double[][] points = FitEllipse.testEllipse(shapes[k][0], shapes[k][1],
+					shapes[k][2], shapes[k][3], shapes[k][4], 0, 100);
+			for (double[] p : points) {
+				x[n] = (int) Math.round(p[0]);
+				y[n] = (int) Math.round(p[1]);
+				n++;
+			}
+			offsets[k + 1] = n;
+		}
+		// collinear points, no ellipse solution
+		for (int i = 0; i < 10; i++) {
+			x[n] = i;
+			y[n] = i;
+			n++;
+		}
+		offsets[shapes.length + 1] = n;
+
+		double[] batch = FitEllipse.direct(x, y, offsets, shapes.length + 1);
+		assertEquals(6 * (shapes.length + 1), batch.length);
+		for (int k = 0; k < shapes.length; k++) {
+			int m = offsets[k + 1] - offsets[k];
+			int[] xk = new int[m];
+			int[] yk = new int[m];
+			System.arraycopy(x, offsets[k], xk, 0, m);
+			System.arraycopy(y, offsets[k], yk, 0, m);
+			double[] single = FitEllipse.direct(xk, yk, m);
+			for (int i = 0; i < 6; i++)
+				assertEquals(single[i], batch[6 * k + i], 0);
+		}
+		for (int i = 6 * shapes.length; i < batch.length; i++)
+			assertTrue(Double.isNaN(batch[i]));
+	}
+
+	@Test
+	public void hyperFitOnNoisyContour() {
+		double[][] shapes = { { 40, 15, 0.6, 200, 150 }, { 12, 9, 2.0, 30, 40 },
+				{ 60, 58, -1.2, 700, 300 } };
+		Random random = new Random(1);
+		for (double[] s : shapes) {
+			int n = 300;
+			double[] x = new double[n];
+			double[] y = new double[n];
+			for (int i = 0; i < n; i++) {
+				double t = 2 * Math.PI * i / n;
+				double u = s[0] * Math.cos(t) + 0.5 * random.nextGaussian();
+				double v = s[1] * Math.sin(t) + 0.5 * random.nextGaussian();
+				x[i] = u * Math.cos(s[2]) - v * Math.sin(s[2]) + s[3];
+				y[i] = u * Math.sin(s[2]) + v * Math.cos(s[2]) + s[4];
+			}
+			double[] dimensions = FitEllipse.varToDimensions(FitEllipse.hyper(x, y, n));
+			assertEquals(s[3], dimensions[0], 0.2);
+			assertEquals(s[4], dimensions[1], 0.2);
+			assertEquals(s[0], Math.max(dimensions[2], dimensions[3]), 0.3);
+			assertEquals(s[1], Math.min(dimensions[2], dimensions[3]), 0.3);
+		}
+	}
+
+	private static void assertSameConic(double[] expected, double[] actual) {
+		assertSameConic(expected, actual, 1e-8);
+	}
+
+	private static void assertSameConic(double[] expected, double[] actual, double delta) {
+		assertEquals(6, actual.length);
+		// eigenvectors are only defined up to sign
+		double dot = 0;
+		for (int i = 0; i < 6; i++)
+			dot += expected[i] * actual[i];
+		double sign = dot < 0 ? -1 : 1;
+		for (int i = 0; i < 6; i++)
+			assertEquals(expected[i], sign * actual[i], delta);
+	}
+}
@@ -0,0 +1,155 @@
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import de.biomedical_imaging.ij.ellipsesplit.EllipseSink;
+import de.biomedical_imaging.ij.ellipsesplit.FrameOrderedSink;
+import de.biomedical_imaging.ij.ellipsesplit.ManyEllipses;
+import de.biomedical_imaging.ij.ellipsesplit.UnorderedEllipseSink;
+
+
+public class FrameOrderedSinkTest {
+
+	/**
+	 * Several threads write contiguous blocks of frames, as PARALLELIZE_STACKS does: the
+	 * ordered sink gets every frame once and in order, no sink is called concurrently.
+	 */
+	@Test
+	public void concurrentBlocksAreWrittenInOrder() throws Exception {
+		for (int run = 0; run < 20; run++) {
+			final RecordingSink ordered = new RecordingSink();
+			final RecordingSink unordered = new UnorderedRecordingSink();
+			final FrameOrderedSink sink = new FrameOrderedSink(
+					Arrays.asList(ordered, unordered), 1);
+			final int frames = 200;
+			int threads = 4;
+			final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+			Thread[] workers = new Thread[threads];
+			for (int t = 0; t < threads; t++) {
+				final int first = 1 + t * frames / threads;
+				final int last = (t + 1) * frames / threads;
+				workers[t] = new Thread() {
+					@Override
+					public void run() {
+						try {
+							for (int frame = first; frame <= last; frame++) {
+								sink.write(frame, new ManyEllipses());
+							}
+						} catch (Throwable e) {
+							errors.add(e);
+						}
+					}
+				};
+			}
+			for (Thread worker : workers) {
+				worker.start();
+			}
+			for (Thread worker : workers) {
+				worker.join();
+			}
+			sink.close();
+			assertEquals(errors.toString(), 0, errors.size());
+			assertFalse(ordered.concurrent.get());
+			assertFalse(unordered.concurrent.get());
+			assertEquals(frames, ordered.frames.size());
+			for (int i = 0; i < frames; i++) {
+				assertEquals(i + 1, (long) ordered.frames.get(i));
+			}
+			List<Integer> received = new ArrayList<Integer>(unordered.frames);
+			Collections.sort(received);
+			assertEquals(ordered.frames, received);
+			assertTrue(ordered.closed && unordered.closed);
+		}
+	}
+
+	@Test
+	public void unorderedSinksGetFramesAtOnce() throws IOException {
+		RecordingSink ordered = new RecordingSink();
+		RecordingSink unordered = new UnorderedRecordingSink();
+		FrameOrderedSink sink = new FrameOrderedSink(Arrays.asList(ordered, unordered), 5);
+		sink.write(7, new ManyEllipses());
+		sink.write(6, new ManyEllipses());
+		assertEquals(Arrays.asList(7, 6), unordered.frames);
+		assertEquals(0, ordered.frames.size());
+		sink.write(5, new ManyEllipses());
+		assertEquals(Arrays.asList(5, 6, 7), ordered.frames);
+		sink.close();
+	}
+
+	/**
+	 * Frames after a gap (e.g. after canceling) are written on close.
+	 */
+	@Test
+	public void closeWritesRemainingFrames() throws IOException {
+		RecordingSink ordered = new RecordingSink();
+		FrameOrderedSink sink = new FrameOrderedSink(Arrays.asList(ordered), 1);
+		sink.write(4, new ManyEllipses());
+		sink.write(2, new ManyEllipses());
+		sink.write(1, new ManyEllipses());
+		assertEquals(Arrays.asList(1, 2), ordered.frames);
+		sink.close();
+		assertEquals(Arrays.asList(1, 2, 4), ordered.frames);
+		assertTrue(ordered.closed);
+	}
+
+	@Test
+	public void allSinksAreClosedIfOneFails() {
+		RecordingSink first = new RecordingSink() {
+			@Override
+			public void close() throws IOException {
+				super.close();
+				throw new IOException("first");
+			}
+		};
+		RecordingSink second = new RecordingSink() {
+			@Override
+			public void close() throws IOException {
+				super.close();
+				throw new IOException("second");
+			}
+		};
+		RecordingSink unordered = new UnorderedRecordingSink();
+		FrameOrderedSink sink = new FrameOrderedSink(Arrays.asList(first, second, unordered), 1);
+		try {
+			sink.close();
+			fail("close did not throw");
+		} catch (IOException e) {
+			assertEquals("first", e.getMessage());
+		}
+		assertTrue(first.closed && second.closed && unordered.closed);
+	}
+
+	private static class RecordingSink implements EllipseSink {
+
+		final List<Integer> frames = new ArrayList<Integer>();
+		final AtomicBoolean busy = new AtomicBoolean();
+		final AtomicBoolean concurrent = new AtomicBoolean();
+		boolean closed;
+
+		@Override
+		public void write(int frame, ManyEllipses ellipses) throws IOException {
+			if (!busy.compareAndSet(false, true)) {
+				concurrent.set(true);
+			}
+			frames.add(frame);
+			Thread.yield();
+			busy.set(false);
+		}
+
+		@Override
+		public void close() throws IOException {
+			closed = true;
+		}
+	}
+
+	private static class UnorderedRecordingSink extends RecordingSink implements UnorderedEllipseSink {
+
+	}
+}
@@ -0,0 +1,151 @@
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.biomedical_imaging.ij.ellipsesplit.EllipseFitMethod;
+import de.biomedical_imaging.ij.ellipsesplit.EllipseFitter;
+import de.biomedical_imaging.ij.ellipsesplit.EllipseRecord;
+import de.biomedical_imaging.ij.ellipsesplit.GeometricEllipseFitter;
+
+
+public class GeometricEllipseFitterTest {
+
+	/**
+	 * Noisy contours of half to two thirds of an ellipse, where the algebraic fit is
+	 * biased towards smaller and rounder ellipses: the refinement has to move the fits
+	 * towards the ground truth.
+	 */
+	@Test
+	public void refinementImprovesOnAlgebraicFit() {
+		Random random = new Random(1);
+		GeometricEllipseFitter fitter = new GeometricEllipseFitter();
+		double seedError = 0;
+		double refinedError = 0;
+		int improved = 0;
+		for (int k = 0; k < 200; k++) {
+			double[] truth = randomEllipse(random);
+			int n = 60 + random.nextInt(100);
+			int[] x = new int[n];
+			int[] y = new int[n];
+			contour(random, truth, Math.PI + 0.4 * Math.PI * random.nextDouble(), 1.0, x, y);
+			EllipseRecord seed = new EllipseRecord(EllipseFitMethod.DIRECT.fit(x, y, n));
+			EllipseRecord refined = new EllipseRecord(fitter.fit(x, y, n));
+			seedError += error(seed, truth);
+			refinedError += error(refined, truth);
+			if (error(refined, truth) < error(seed, truth)) {
+				improved++;
+			}
+		}
+		assertTrue(seedError + " -> " + refinedError, refinedError < 0.7 * seedError);
+		assertTrue(improved + " of 200 improved", improved > 150);
+		assertEquals(200, fitter.getFitCount());
+		assertTrue(fitter.getRefinedCount() > 190);
+	}
+
+	/**
+	 * Complete contours: centre, axes and rotation angle of the refined fit agree with the
+	 * direct fit, for both signs of the algebraic parameters and for ellipses around the
+	 * origin, where the constant term changes its sign.
+	 */
+	@Test
+	public void refinedFitIsConsistentWithDirectFit() {
+		Random random = new Random(2);
+		EllipseFitter negated = new EllipseFitter() {
+			@Override
+			public double[] fit(int[] x, int[] y, int nPoints) {
+				double[] conic = EllipseFitMethod.DIRECT.fit(x, y, nPoints);
+				for (int i = 0; i < 6; i++) {
+					conic[i] = -conic[i];
+				}
+				return conic;
+			}
+		};
+		EllipseFitter[] seeds = { EllipseFitMethod.DIRECT, negated };
+		for (EllipseFitter seed : seeds) {
+			GeometricEllipseFitter fitter = new GeometricEllipseFitter(seed, 50, 1e-8);
+			for (int k = 0; k < 100; k++) {
+				double[] truth = randomEllipse(random);
+				if (k % 4 == 0) {
+					truth[0] = 10 * random.nextDouble();
+					truth[1] = 10 * random.nextDouble();
+				}
+				int n = 200;
+				int[] x = new int[n];
+				int[] y = new int[n];
+				contour(random, truth, 2 * Math.PI, 0.5, x, y);
+				double[] seedConic = seed.fit(x, y, n);
+				double[] refinedConic = fitter.fit(x, y, n);
+				EllipseRecord direct = new EllipseRecord(seedConic);
+				EllipseRecord refined = new EllipseRecord(refinedConic);
+				String message = "ellipse " + k;
+				assertEquals(message, Math.signum(seedConic[0]), Math.signum(refinedConic[0]), 0);
+				assertEquals(message, Math.signum(seedConic[5]), Math.signum(refinedConic[5]), 0);
+				assertEquals(message, direct.getX(), refined.getX(), 0.5);
+				assertEquals(message, direct.getY(), refined.getY(), 0.5);
+				assertEquals(message, direct.getLongAxis(), refined.getLongAxis(), 1);
+				assertEquals(message, direct.getShortAxis(), refined.getShortAxis(), 1);
+				assertEquals(message, direct.getRotationAngle(), refined.getRotationAngle(), 3);
+			}
+		}
+	}
+
+	@Test
+	public void statisticsAreReset() {
+		GeometricEllipseFitter fitter = new GeometricEllipseFitter();
+		int[] x = new int[100];
+		int[] y = new int[100];
+		contour(new Random(3), new double[] { 50, 50, 20, 10, 0.5 }, 2 * Math.PI, 0.5, x, y);
+		fitter.fit(x, y, 100);
+		fitter.fit(x, y, 100);
+		assertEquals(2, fitter.getFitCount());
+		assertTrue(fitter.getSeedNanos() > 0);
+		fitter.resetStatistics();
+		assertEquals(0, fitter.getFitCount());
+		assertEquals(0, fitter.getRefinedCount());
+		assertEquals(0, fitter.getSeedNanos());
+		assertEquals(0, fitter.getRefinementNanos());
+	}
+
+	/**
+	 * @return xc, yc, semi axes a &gt; b and the angle of a, with an aspect ratio of
+	 *         at most 0.8 so that the orientation is well defined
+	 */
+	private static double[] randomEllipse(Random random) {
+		double a = 8 + 30 * random.nextDouble();
+		double b = a * (0.3 + 0.5 * random.nextDouble());
+		return new double[] { 50 + 200 * random.nextDouble(), 50 + 200 * random.nextDouble(),
+				a, b, Math.PI * (random.nextDouble() - 0.5) };
+	}
+
+	/**
+	 * Fills x and y with rounded points of an arc of the ellipse, perturbed by Gaussian
+	 * noise in the direction of the normal.
+	 */
+	private static void contour(Random random, double[] e, double arc, double noise,
+			int[] x, int[] y) {
+		double start = 2 * Math.PI * random.nextDouble();
+		double cos = Math.cos(e[4]);
+		double sin = Math.sin(e[4]);
+		for (int i = 0; i < x.length; i++) {
+			double t = start + arc * i / x.length;
+			double nu = e[3] * Math.cos(t);
+			double nv = e[2] * Math.sin(t);
+			double norm = Math.hypot(nu, nv);
+			double d = noise * random.nextGaussian();
+			double u = e[2] * Math.cos(t) + d * nu / norm;
+			double v = e[3] * Math.sin(t) + d * nv / norm;
+			x[i] = (int) Math.round(e[0] + u * cos - v * sin);
+			y[i] = (int) Math.round(e[1] + u * sin + v * cos);
+		}
+	}
+
+	/**
+	 * @return Sum of the deviations of the centre and the semi axes from the ground truth
+	 */
+	private static double error(EllipseRecord r, double[] truth) {
+		return Math.hypot(r.getX() - truth[0], r.getY() - truth[1])
+				+ Math.abs(r.getLongAxis() - truth[2]) + Math.abs(r.getShortAxis() - truth[3]);
+	}
+}
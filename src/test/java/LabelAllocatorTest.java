@@ -0,0 +1,117 @@
+import static org.junit.Assert.*;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.biomedical_imaging.ij.ellipsesplit.Ellipse;
+import de.biomedical_imaging.ij.ellipsesplit.EllipseSplitOptions;
+import de.biomedical_imaging.ij.ellipsesplit.EllipseSplitter;
+import de.biomedical_imaging.ij.ellipsesplit.LabelAllocator;
+import de.biomedical_imaging.ij.ellipsesplit.ManyEllipses;
+
+
+public class LabelAllocatorTest {
+
+	/**
+	 * Each frame is labeled 0..n-1, ellipses of different frames with the same label are
+	 * still different ellipses.
+	 */
+	@Test
+	public void labelsRepeatAcrossFrames() {
+		ImagePlus imp = openStack();
+		EllipseSplitter splitter = new EllipseSplitter(new EllipseSplitOptions());
+		HashSet<Ellipse> all = new HashSet<Ellipse>();
+		int total = 0;
+		int repeated = 0;
+		ManyEllipses previous = null;
+		for (int i = 1; i <= imp.getStackSize(); i++) {
+			ManyEllipses ellipses = splitter.split(imp.getStack().getProcessor(i),
+					imp.getCalibration());
+			for (int j = 0; j < ellipses.size(); j++) {
+				assertEquals(j, ellipses.get(j).getLabel());
+				if (previous != null && j < previous.size()) {
+					assertFalse(ellipses.get(j).equals(previous.get(j)));
+					repeated++;
+				}
+			}
+			all.addAll(ellipses);
+			total += ellipses.size();
+			previous = ellipses;
+		}
+		assertTrue(repeated > 0);
+		assertEquals(total, all.size());
+	}
+
+	@Test
+	public void relabelingKeepsHashSetsValid() {
+		ImagePlus imp = openStack();
+		ManyEllipses ellipses = new EllipseSplitter(new EllipseSplitOptions()).split(
+				imp.getProcessor(), imp.getCalibration());
+		HashSet<Ellipse> set = new HashSet<Ellipse>(ellipses);
+		new LabelAllocator(1000).label(ellipses);
+		for (Ellipse e : ellipses) {
+			assertTrue(set.contains(e));
+		}
+	}
+
+	/**
+	 * A shared allocator, used by several threads as for parallel slices, hands out every
+	 * label exactly once and keeps the labels of a frame consecutive.
+	 */
+	@Test
+	public void sharedAllocatorIsThreadSafe() throws InterruptedException {
+		ImagePlus imp = openStack();
+		final ImageStack stack = imp.getStack();
+		final EllipseSplitter splitter = new EllipseSplitter(new EllipseSplitOptions());
+		final LabelAllocator labels = new LabelAllocator();
+		final List<ManyEllipses> frames = Collections.synchronizedList(new ArrayList<ManyEllipses>());
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int offset = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 1 + offset; i <= stack.getSize(); i += 4) {
+						for (int k = 0; k < 3; k++) {
+							frames.add(splitter.split(stack.getProcessor(i), null, null, labels));
+						}
+					}
+				}
+			};
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(3 * stack.getSize(), frames.size());
+		ArrayList<Integer> all = new ArrayList<Integer>();
+		for (ManyEllipses ellipses : frames) {
+			for (int j = 1; j < ellipses.size(); j++) {
+				assertEquals(ellipses.get(j - 1).getLabel() + 1, ellipses.get(j).getLabel());
+			}
+			for (Ellipse e : ellipses) {
+				all.add(e.getLabel());
+			}
+		}
+		Collections.sort(all);
+		for (int i = 0; i < all.size(); i++) {
+			assertEquals(i, (long) all.get(i));
+		}
+		assertEquals(all.size(), labels.allocate(0));
+	}
+
+	private ImagePlus openStack() {
+		URL url = getClass().getClassLoader().getResource("Ellipse_Test_Stack.tif");
+		return IJ.openImage(url.getPath());
+	}
+}
@@ -0,0 +1,180 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import de.biomedical_imaging.ij.ellipsesplit.Ellipse;
+import de.biomedical_imaging.ij.ellipsesplit.LabelAllocator;
+import de.biomedical_imaging.ij.ellipsesplit.ManyEllipses;
+
+
+public class ManyEllipsesTest {
+
+	@Test
+	public void lookupAfterAddAndLabel() {
+		ManyEllipses ellipses = create(10);
+		assertIndexConsistent(ellipses);
+		ellipses.add(ellipse(10));
+		ellipses.addAll(create(3));
+		new LabelAllocator(50).label(ellipses.subList(10, 14));
+		assertIndexConsistent(ellipses);
+	}
+
+	@Test
+	public void lookupAfterInsertRemoveAndSet() {
+		ManyEllipses ellipses = create(10);
+		assertIndexConsistent(ellipses);
+		Ellipse first = ellipse(0);
+		relabel(first, 20);
+		ellipses.add(0, first);
+		assertIndexConsistent(ellipses);
+		Ellipse removed = ellipses.remove(5);
+		assertNull(ellipses.getEllipseByLabel(removed.getLabel()));
+		assertIndexConsistent(ellipses);
+		Ellipse other = ellipses.get(3);
+		assertTrue(ellipses.remove(other));
+		assertNull(ellipses.getEllipseByLabel(other.getLabel()));
+		assertIndexConsistent(ellipses);
+		Ellipse replaced = ellipses.get(2);
+		Ellipse replacement = ellipse(0);
+		relabel(replacement, 30);
+		ellipses.set(2, replacement);
+		assertNull(ellipses.getEllipseByLabel(replaced.getLabel()));
+		assertSame(replacement, ellipses.getEllipseByLabel(30));
+		assertIndexConsistent(ellipses);
+		ellipses.addAll(1, create(2));
+		assertIndexConsistent(ellipses);
+	}
+
+	@Test
+	public void lookupAfterIteratorRemoveSortAndClear() {
+		ManyEllipses ellipses = create(10);
+		assertIndexConsistent(ellipses);
+		Iterator<Ellipse> it = ellipses.iterator();
+		it.next();
+		it.next();
+		it.remove();
+		assertNull(ellipses.getEllipseByLabel(1));
+		assertIndexConsistent(ellipses);
+		Collections.sort(ellipses, new Comparator<Ellipse>() {
+			@Override
+			public int compare(Ellipse a, Ellipse b) {
+				return b.getLabel() - a.getLabel();
+			}
+		});
+		assertIndexConsistent(ellipses);
+		ellipses.clear();
+		assertNull(ellipses.getEllipseByLabel(0));
+		ellipses.add(ellipse(0));
+		assertIndexConsistent(ellipses);
+	}
+
+	@Test
+	public void lookupAfterRelabeling() {
+		ManyEllipses ellipses = create(10);
+		assertIndexConsistent(ellipses);
+		// relabel without modifying the list, in reverse order and shifted
+		ArrayList<Ellipse> reversed = new ArrayList<Ellipse>(ellipses);
+		Collections.reverse(reversed);
+		new LabelAllocator(3).label(reversed);
+		assertNull(ellipses.getEllipseByLabel(0));
+		assertIndexConsistent(ellipses);
+		// a single ellipse far away from the others, found after its old label was looked up
+		int old = ellipses.get(4).getLabel();
+		relabel(ellipses.get(4), 100000);
+		assertNull(ellipses.getEllipseByLabel(old));
+		assertSame(ellipses.get(4), ellipses.getEllipseByLabel(100000));
+		assertIndexConsistent(ellipses);
+		// back to consecutive labels
+		new LabelAllocator().label(ellipses);
+		assertIndexConsistent(ellipses);
+	}
+
+	/**
+	 * Misses on an unchanged list must not rebuild the index: a list of the labels 0, 2, 4, ...
+	 * with a lookup of every odd label would otherwise be quadratic.
+	 */
+	@Test
+	public void missesDoNotRebuildTheIndex() {
+		int n = 100000;
+		ManyEllipses even = create(n);
+		for (int i = 0; i < n; i++) {
+			relabel(even.get(i), 2 * i);
+		}
+		assertSame(even.get(0), even.getEllipseByLabel(0));
+		long start = System.nanoTime();
+		for (int i = 0; i < n; i++) {
+			assertNull(even.getEllipseByLabel(2 * i + 1));
+			assertSame(even.get(i), even.getEllipseByLabel(2 * i));
+		}
+		// a rebuild per miss would take n^2 = 10^10 steps
+		assertTrue((System.nanoTime() - start) / 1e9 + " s", System.nanoTime() - start < 2e9);
+	}
+
+	@Test
+	public void lookupOfUnlabeledAndDuplicateLabels() {
+		ManyEllipses ellipses = new ManyEllipses();
+		Ellipse unlabeled = ellipse(0);
+		ellipses.add(unlabeled);
+		assertSame(unlabeled, ellipses.getEllipseByLabel(Ellipse.UNLABELED));
+		ManyEllipses more = create(3);
+		ellipses.addAll(more);
+		Ellipse duplicate = ellipse(0);
+		relabel(duplicate, 1);
+		ellipses.add(duplicate);
+		assertSame(more.get(1), ellipses.getEllipseByLabel(1));
+		assertIndexConsistent(ellipses);
+	}
+
+	/**
+	 * Compares every lookup with a linear search for the first ellipse with the label
+	 */
+	private static void assertIndexConsistent(ManyEllipses ellipses) {
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+		for (Ellipse e : ellipses) {
+			min = Math.min(min, e.getLabel());
+			max = Math.max(max, e.getLabel());
+		}
+		if (ellipses.isEmpty()) {
+			min = max = 0;
+		}
+		for (int label = min - 2; label <= Math.min(max, min + 1000) + 2; label++) {
+			Ellipse expected = null;
+			for (Ellipse e : ellipses) {
+				if (e.getLabel() == label) {
+					expected = e;
+					break;
+				}
+			}
+			assertSame("label " + label, expected, ellipses.getEllipseByLabel(label));
+		}
+	}
+
+	/**
+	 * @return n ellipses labeled 0 to n-1
+	 */
+	private static ManyEllipses create(int n) {
+		ManyEllipses ellipses = new ManyEllipses();
+		for (int i = 0; i < n; i++) {
+			ellipses.add(ellipse(i));
+		}
+		new LabelAllocator().label(ellipses);
+		return ellipses;
+	}
+
+	private static Ellipse ellipse(int i) {
+		// (x-i)^2/4 + y^2 = 1
+		return new Ellipse(new double[] { 0.25, 0, 1, -0.5 * i, 0, 0.25 * i * i - 1 });
+	}
+
+	private static void relabel(Ellipse e, int label) {
+		ArrayList<Ellipse> single = new ArrayList<Ellipse>();
+		single.add(e);
+		new LabelAllocator(label).label(single);
+	}
+}
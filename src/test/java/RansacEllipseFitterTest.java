@@ -0,0 +1,99 @@
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.doube.geometry.FitEllipse;
+import org.junit.Test;
+
+import de.biomedical_imaging.ij.ellipsesplit.EllipseRecord;
+import de.biomedical_imaging.ij.ellipsesplit.RansacEllipseFitter;
+
+
+public class RansacEllipseFitterTest {
+
+	private static final int N = 200;
+
+	/**
+	 * A contour where 30% of the points lie on a straight separator line through the
+	 * ellipse: the direct fit is pulled away, the robust fits find the ellipse.
+	 */
+	@Test
+	public void outliersAreRejected() {
+		Random random = new Random(1);
+		for (int k = 0; k < 20; k++) {
+			double xc = 100 + 50 * random.nextDouble();
+			double yc = 100 + 50 * random.nextDouble();
+			double a = 20 + 20 * random.nextDouble();
+			double b = a * (0.5 + 0.4 * random.nextDouble());
+			double phi = Math.PI * random.nextDouble();
+			int[] x = new int[N];
+			int[] y = new int[N];
+			int nOutliers = 3 * N / 10;
+			for (int i = 0; i < N - nOutliers; i++) {
+				double t = 2 * Math.PI * i / (N - nOutliers);
+				double u = a * Math.cos(t) + 0.3 * random.nextGaussian();
+				double v = b * Math.sin(t) + 0.3 * random.nextGaussian();
+				x[i] = (int) Math.round(xc + u * Math.cos(phi) - v * Math.sin(phi));
+				y[i] = (int) Math.round(yc + u * Math.sin(phi) + v * Math.cos(phi));
+			}
+			for (int i = N - nOutliers; i < N; i++) {
+				double s = (double) (i - N + nOutliers) / nOutliers;
+				x[i] = (int) Math.round(xc + a * (0.3 + 1.2 * s));
+				y[i] = (int) Math.round(yc - b * (0.8 - 1.6 * s));
+			}
+			EllipseRecord direct = new EllipseRecord(FitEllipse.direct(x, y, N));
+			assertTrue(error(direct, xc, yc, a, b) > 3);
+			for (boolean leastMedian : new boolean[] { false, true }) {
+				EllipseRecord robust = new EllipseRecord(
+						new RansacEllipseFitter(leastMedian).fit(x, y, N));
+				String message = (leastMedian ? "LMedS " : "RANSAC ") + k;
+				assertEquals(message, 0, error(robust, xc, yc, a, b), 1);
+			}
+		}
+	}
+
+	@Test
+	public void defaultFitIsReproducible() {
+		Random random = new Random(2);
+		int[] x = new int[N];
+		int[] y = new int[N];
+		for (int i = 0; i < N; i++) {
+			double t = 2 * Math.PI * i / N;
+			x[i] = (int) Math.round(60 + 30 * Math.cos(t) + random.nextGaussian());
+			y[i] = (int) Math.round(50 + 15 * Math.sin(t) + random.nextGaussian());
+			if (i % 7 == 0) {
+				x[i] += random.nextInt(21) - 10;
+				y[i] += random.nextInt(21) - 10;
+			}
+		}
+		for (boolean leastMedian : new boolean[] { false, true }) {
+			RansacEllipseFitter fitter = new RansacEllipseFitter(leastMedian);
+			double[] expected = fitter.fit(x, y, N);
+			for (int i = 0; i < 5; i++) {
+				assertArrayEquals(expected, fitter.fit(x, y, N), 0);
+				assertArrayEquals(expected, new RansacEllipseFitter(leastMedian).fit(x, y, N), 0);
+			}
+		}
+	}
+
+	@Test
+	public void shortContoursUseDirectFit() {
+		int n = 20;
+		int[] x = new int[n];
+		int[] y = new int[n];
+		for (int i = 0; i < n; i++) {
+			double t = 2 * Math.PI * i / n;
+			x[i] = (int) Math.round(30 + 10 * Math.cos(t));
+			y[i] = (int) Math.round(30 + 6 * Math.sin(t));
+		}
+		assertArrayEquals(FitEllipse.direct(x, y, n), new RansacEllipseFitter(false).fit(x, y, n), 0);
+	}
+
+	/**
+	 * @return Sum of the deviations of the centre and the semi axes from the ground truth
+	 */
+	private static double error(EllipseRecord r, double xc, double yc, double a, double b) {
+		return Math.hypot(r.getX() - xc, r.getY() - yc) + Math.abs(r.getLongAxis() - a)
+				+ Math.abs(r.getShortAxis() - b);
+	}
+}
@@ -0,0 +1,114 @@
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.doube.jama.CholeskyDecomposition;
+import org.doube.jama.EigenvalueDecomposition;
+import org.doube.jama.Matrix;
+import org.doube.jama.SmallMatrix;
+import org.junit.Test;
+
+
+public class SmallMatrixTest {
+
+	@Test
+	public void choleskyEqualsJama() {
+		Random random = new Random(1);
+		for (int k = 0; k < 100; k++) {
+			double[] m = randomSymmetric(random, true);
+			double[] l = new double[36];
+			assertTrue(SmallMatrix.cholesky6(m, l));
+			double[][] expected = new CholeskyDecomposition(toMatrix(m)).getL().getArray();
+			for (int i = 0; i < 6; i++) {
+				assertArrayEquals(expected[i], row(l, i), 1e-10);
+			}
+
+			double[] li = new double[36];
+			double[] identity = new double[36];
+			SmallMatrix.inverseLower6(l, li);
+			SmallMatrix.multiply6(l, li, identity);
+			for (int i = 0; i < 36; i++) {
+				assertEquals(i % 7 == 0 ? 1 : 0, identity[i], 1e-10);
+			}
+		}
+		double[] indefinite = randomSymmetric(random, false);
+		indefinite[0] = -1;
+		assertFalse(SmallMatrix.cholesky6(indefinite, new double[36]));
+	}
+
+	@Test
+	public void symmetricEigenEqualsJama() {
+		Random random = new Random(2);
+		double[] values = new double[6];
+		double[] vectors = new double[36];
+		double[] work = new double[36];
+		for (int k = 0; k < 100; k++) {
+			double[] m = randomSymmetric(random, k % 2 == 0);
+			SmallMatrix.symmetricEigen6(m, values, vectors, work);
+			double[] expected = new EigenvalueDecomposition(toMatrix(m)).getRealEigenvalues();
+			double[] sorted = values.clone();
+			Arrays.sort(sorted);
+			Arrays.sort(expected);
+			assertArrayEquals(expected, sorted, 1e-10);
+			// m v = lambda v for every column
+			for (int c = 0; c < 6; c++) {
+				for (int i = 0; i < 6; i++) {
+					double mv = 0;
+					for (int j = 0; j < 6; j++) {
+						mv += m[i * 6 + j] * vectors[j * 6 + c];
+					}
+					assertEquals(values[c] * vectors[i * 6 + c], mv, 1e-10);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void multiplyTransposed() {
+		Random random = new Random(3);
+		double[] a = randomSymmetric(random, false);
+		double[] b = randomSymmetric(random, false);
+		a[1] += 1;
+		b[2] += 1;
+		double[] c = new double[36];
+		SmallMatrix.multiplyTransposed6(a, b, c);
+		double[][] expected = toMatrix(a).times(toMatrix(b).transpose()).getArray();
+		for (int i = 0; i < 6; i++) {
+			assertArrayEquals(expected[i], row(c, i), 1e-12);
+		}
+		SmallMatrix.multiply6(a, b, c);
+		expected = toMatrix(a).times(toMatrix(b)).getArray();
+		for (int i = 0; i < 6; i++) {
+			assertArrayEquals(expected[i], row(c, i), 1e-12);
+		}
+	}
+
+	private static double[] randomSymmetric(Random random, boolean positiveDefinite) {
+		double[] m = new double[36];
+		for (int i = 0; i < 6; i++) {
+			for (int j = i; j < 6; j++) {
+				m[i * 6 + j] = 2 * random.nextDouble() - 1;
+				m[j * 6 + i] = m[i * 6 + j];
+			}
+			if (positiveDefinite) {
+				m[i * 7] = Math.abs(m[i * 7]) + 6;
+			}
+		}
+		return m;
+	}
+
+	private static Matrix toMatrix(double[] m) {
+		double[][] a = new double[6][];
+		for (int i = 0; i < 6; i++) {
+			a[i] = row(m, i);
+		}
+		return new Matrix(a);
+	}
+
+	private static double[] row(double[] m, int i) {
+		double[] row = new double[6];
+		System.arraycopy(m, i * 6, row, 0, 6);
+		return row;
+	}
+}
@@ -0,0 +1,84 @@
+import static org.junit.Assert.*;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.biomedical_imaging.ij.ellipsesplit.Ellipse;
+import de.biomedical_imaging.ij.ellipsesplit.EllipseSplitOptions;
+import de.biomedical_imaging.ij.ellipsesplit.EllipseSplitter;
+import de.biomedical_imaging.ij.ellipsesplit.ManyEllipses;
+import de.biomedical_imaging.ij.ellipsesplit.SplitBuffers;
+
+
+public class SplitBuffersTest {
+
+	/**
+	 * Splitters per frame which share a pool from several threads, as in the plugin, give
+	 * the same ellipses as splits with fresh buffers, also after the pool was released.
+	 */
+	@Test
+	public void sharedPoolGivesSameEllipses() throws InterruptedException {
+		URL url = getClass().getClassLoader().getResource("Ellipse_Test_Stack.tif");
+		ImagePlus imp = IJ.openImage(url.getPath());
+		final ImageStack stack = imp.getStack();
+		final EllipseSplitOptions options = new EllipseSplitOptions();
+		final ManyEllipses[] expected = new ManyEllipses[stack.getSize()];
+		for (int i = 0; i < expected.length; i++) {
+			expected[i] = new EllipseSplitter(options).split(stack.getProcessor(i + 1), null);
+		}
+		final SplitBuffers buffers = new SplitBuffers();
+		final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+		for (int run = 0; run < 2; run++) {
+			Thread[] threads = new Thread[4];
+			for (int t = 0; t < threads.length; t++) {
+				final int offset = t;
+				threads[t] = new Thread() {
+					@Override
+					public void run() {
+						for (int i = offset; i < expected.length; i += 4) {
+							ManyEllipses ellipses = new EllipseSplitter(options, buffers).split(
+									stack.getProcessor(i + 1), null);
+							if (!same(expected[i], ellipses)) {
+								errors.add("slice " + (i + 1));
+							}
+						}
+					}
+				};
+			}
+			for (Thread thread : threads) {
+				thread.start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			buffers.release();
+		}
+		assertEquals(errors.toString(), 0, errors.size());
+		ManyEllipses reused = new EllipseSplitter(options.withReuseBuffers(true)).split(
+				stack.getProcessor(1), null);
+		assertTrue(same(expected[0], reused));
+	}
+
+	private static boolean same(ManyEllipses expected, ManyEllipses actual) {
+		if (expected.size() != actual.size()) {
+			return false;
+		}
+		for (int i = 0; i < expected.size(); i++) {
+			Ellipse e = expected.get(i);
+			Ellipse f = actual.get(i);
+			if (e.getX() != f.getX() || e.getY() != f.getY()
+					|| e.getLengthLongAxis() != f.getLengthLongAxis()
+					|| e.getLengthShortAxis() != f.getLengthShortAxis()) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,83 @@
+import static org.junit.Assert.*;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.OvalRoi;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+import java.net.URL;
+
+import org.junit.Test;
+
+import de.biomedical_imaging.ij.ellipsesplit.Ellipse;
+import de.biomedical_imaging.ij.ellipsesplit.EllipseSplitOptions;
+import de.biomedical_imaging.ij.ellipsesplit.EllipseSplitter;
+import de.biomedical_imaging.ij.ellipsesplit.ManyEllipses;
+
+
+public class TiledSplitTest {
+
+	@Test
+	public void tiledSplitEqualsWholeImageOnBundledImages() {
+		String[] images = { "ellipse_example.tif", "Ellipse_Test_Stack.tif",
+				"Ellipse_Test_Stack2.tif", "SingleEllipse.tif" };
+		for (String name : images) {
+			URL url = getClass().getClassLoader().getResource(name);
+			ImagePlus imp = IJ.openImage(url.getPath());
+			for (int i = 1; i <= imp.getStackSize(); i++) {
+				ImageProcessor ip = imp.getStack().getProcessor(i);
+				for (boolean merge : new boolean[] { false, true }) {
+					EllipseSplitOptions options = new EllipseSplitOptions()
+							.withMerge(merge, 0.95);
+					assertSameSplit(name + " slice " + i + " merge " + merge, ip,
+							options);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void tiledSplitEqualsWholeImageAcrossSeams() {
+		// tiles of 128 pixels, the objects are cut by the seams and most of them
+		// are larger than the overlap of 8 pixels
+		ByteProcessor ip = new ByteProcessor(400, 400);
+		ip.setValue(255);
+		// large object around the crossing of four tiles
+		ip.fill(new OvalRoi(128 - 100, 128 - 60, 200, 120));
+		// two touching objects on a vertical seam, split by the watershed
+		ip.fill(new OvalRoi(256 - 30, 300, 50, 40));
+		ip.fill(new OvalRoi(256 - 5, 310, 50, 40));
+		// small objects inside the overlap of a horizontal seam
+		ip.fill(new OvalRoi(300, 250, 10, 7));
+		ip.fill(new OvalRoi(330, 252, 6, 6));
+		// object touching the image border
+		ip.fill(new OvalRoi(360, 20, 60, 40));
+		for (boolean merge : new boolean[] { false, true }) {
+			for (boolean removeOnEdge : new boolean[] { false, true }) {
+				EllipseSplitOptions options = new EllipseSplitOptions()
+						.withMerge(merge, 0.95).withRemoveOnEdge(removeOnEdge);
+				assertSameSplit("merge " + merge + " edge " + removeOnEdge, ip,
+						options);
+			}
+		}
+	}
+
+	private static void assertSameSplit(String message, ImageProcessor ip,
+			EllipseSplitOptions options) {
+		ManyEllipses whole = new EllipseSplitter(options).split(ip, null);
+		ManyEllipses tiled = new EllipseSplitter(options.withTiles(128, 8)
+				.withThreads(2)).split(ip, null);
+		assertTrue(message, whole.size() > 0);
+		assertEquals(message, whole.size(), tiled.size());
+		for (int i = 0; i < whole.size(); i++) {
+			Ellipse w = whole.get(i);
+			Ellipse t = tiled.get(i);
+			assertEquals(message, w.getLabel(), t.getLabel());
+			assertEquals(message, w.getX(), t.getX(), 0);
+			assertEquals(message, w.getY(), t.getY(), 0);
+			assertEquals(message, w.getLengthLongAxis(), t.getLengthLongAxis(), 0);
+			assertEquals(message, w.getLengthShortAxis(), t.getLengthShortAxis(), 0);
+			assertEquals(message, w.getRotationAngle(), t.getRotationAngle(), 0);
+		}
+	}
+}
@@ -0,0 +1,231 @@
+package de.biomedical_imaging.ij.ellipsesplit;
+
+import static org.junit.Assert.*;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.PolygonRoi;
+import ij.measure.Calibration;
+
+import java.awt.Polygon;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.seisw.util.geom.Clip;
+import com.seisw.util.geom.Poly;
+import com.seisw.util.geom.PolyDefault;
+
+public class EllipseMergerTest {
+
+	private static final double[] THRESHOLDS = { 0.95, 0.5, 0.2, 0.05 };
+
+	@Test
+	public void gridMergeEqualsBaselineOnBundledImages() {
+		String[] images = { "ellipse_example.tif", "Ellipse_Test_Stack.tif",
+				"Ellipse_Test_Stack2.tif" };
+		EllipseSplitter splitter = new EllipseSplitter(new EllipseSplitOptions());
+		int merged = 0;
+		for (String name : images) {
+			URL url = getClass().getClassLoader().getResource(name);
+			ImagePlus imp = IJ.openImage(url.getPath());
+			for (int i = 1; i <= imp.getStackSize(); i++) {
+				ManyEllipses ellipses = splitter.split(imp.getStack().getProcessor(i),
+						imp.getCalibration());
+				for (double threshold : THRESHOLDS) {
+					merged += assertSameMerge(name + " slice " + i + " threshold " + threshold,
+							splitter, ellipses, threshold, imp.getWidth(), imp.getHeight());
+				}
+			}
+		}
+		assertTrue(merged > 0);
+	}
+
+	@Test
+	public void gridMergeEqualsBaselineOnArcs() {
+		EllipseSplitter splitter = new EllipseSplitter(new EllipseSplitOptions());
+		ArrayList<Ellipse> ellipses = new ArrayList<Ellipse>();
+		// overlapping arcs of the same ellipse, interleaved with arcs of a second one
+		addArcs(ellipses, splitter, 100, 100, 40, 25, 0.4, 5);
+		addArcs(ellipses, splitter, 150, 120, 30, 20, 1.2, 4);
+		addArcs(ellipses, splitter, 300, 300, 50, 45, 0, 6);
+		Collections.shuffle(ellipses, new Random(3));
+		for (double threshold : THRESHOLDS) {
+			int merged = assertSameMerge("threshold " + threshold, splitter, ellipses,
+					threshold, 400, 400);
+			assertTrue(merged > 0);
+		}
+	}
+
+	/**
+	 * The first two ellipses merge, then the two arcs. The results overlap by more than the
+	 * threshold, but as in the original loop the first ellipse takes part in no further merge.
+	 */
+	@Test
+	public void firstEllipseIsNotMergedAgain() {
+		EllipseSplitter splitter = new EllipseSplitter(new EllipseSplitOptions());
+		ArrayList<Ellipse> ellipses = new ArrayList<Ellipse>();
+		addArcs(ellipses, splitter, 113.2, 100.8, 34.1, 16.9, 2.58, 1);
+		addArcs(ellipses, splitter, 136.2, 116.0, 34.1, 31.8, 2.59, 1);
+		addArcs(ellipses, splitter, 126.2, 113.4, 20.5, 19.3, 2.48, 2);
+		assertEquals(2, assertSameMerge("", splitter, ellipses, 0.5, 400, 400));
+	}
+
+	/**
+	 * A merged fit which fails removes its parts. A NaN fit stays in place, as in the original
+	 * loop, and is removed by the geometric filters later.
+	 */
+	@Test
+	public void failedMergeFitsRemoveTheParts() {
+		EllipseSplitter splitter = new EllipseSplitter(new EllipseSplitOptions());
+		ArrayList<Ellipse> ellipses = new ArrayList<Ellipse>();
+		addArcs(ellipses, splitter, 100, 100, 40, 25, 0.4, 3);
+		addArcs(ellipses, splitter, 300, 300, 30, 20, 0, 1);
+		final int singleFit = ellipses.get(0).getPoints().size();
+		EllipseSplitter throwing = new EllipseSplitter(new EllipseSplitOptions().withFitter(
+				new EllipseFitter() {
+					@Override
+					public double[] fit(int[] x, int[] y, int nPoints) {
+						throw new IllegalArgumentException();
+					}
+				}));
+		ArrayList<Ellipse> grid = new ArrayList<Ellipse>(ellipses);
+		new EllipseMerger(throwing, 0.5, new Calibration(), null).merge(grid, 400, 400);
+		assertEquals(1, grid.size());
+		assertSame(ellipses.get(3), grid.get(0));
+
+		EllipseSplitter nan = new EllipseSplitter(new EllipseSplitOptions().withFitter(
+				new EllipseFitter() {
+					@Override
+					public double[] fit(int[] x, int[] y, int nPoints) {
+						double[] conic = EllipseFitMethod.DIRECT.fit(x, y, nPoints);
+						if (nPoints > singleFit) {
+							conic[0] = Double.NaN;
+						}
+						return conic;
+					}
+				}));
+		assertEquals(2, assertSameMerge("", nan, ellipses, 0.5, 400, 400));
+	}
+
+	@Test
+	public void disjointEllipsesAreKept() {
+		EllipseSplitter splitter = new EllipseSplitter(new EllipseSplitOptions());
+		ArrayList<Ellipse> ellipses = new ArrayList<Ellipse>();
+		for (int row = 0; row < 5; row++) {
+			for (int col = 0; col < 5; col++) {
+				addArcs(ellipses, splitter, 40 + 80 * col, 40 + 80 * row, 30, 15, 0.3 * col, 1);
+			}
+		}
+		for (double threshold : THRESHOLDS) {
+			ArrayList<Ellipse> grid = new ArrayList<Ellipse>(ellipses);
+			new EllipseMerger(splitter, threshold, new Calibration(), null).merge(grid, 400, 400);
+			assertEquals(ellipses, grid);
+			assertEquals(0, assertSameMerge("threshold " + threshold, splitter, ellipses,
+					threshold, 400, 400));
+		}
+	}
+
+	/**
+	 * Merges the ellipses with the grid and with the original loop and compares the results,
+	 * including their order.
+	 * @return Number of ellipses removed by merging
+	 */
+	private static int assertSameMerge(String message, EllipseSplitter splitter,
+			ArrayList<Ellipse> ellipses, double threshold, int width, int height) {
+		ArrayList<Ellipse> grid = new ArrayList<Ellipse>(ellipses);
+		new EllipseMerger(splitter, threshold, new Calibration(), null).merge(grid, width, height);
+		ArrayList<Ellipse> baseline = new ArrayList<Ellipse>(ellipses);
+		merge(baseline, threshold, splitter);
+
+		assertEquals(message, baseline.size(), grid.size());
+		for (int i = 0; i < grid.size(); i++) {
+			Ellipse e = grid.get(i);
+			Ellipse f = baseline.get(i);
+			assertEquals(message, f.getX(), e.getX(), 1e-6);
+			assertEquals(message, f.getY(), e.getY(), 1e-6);
+			assertEquals(message, f.getLengthLongAxis(), e.getLengthLongAxis(), 1e-6);
+			assertEquals(message, f.getLengthShortAxis(), e.getLengthShortAxis(), 1e-6);
+		}
+		return ellipses.size() - grid.size();
+	}
+
+	/**
+	 * The merge loop of the plugin as it was before EllipseMerger, unchanged apart from the
+	 * fields which became parameters and the fit, which goes through the splitter. After a
+	 * merge it starts again at index 1, so the first ellipse takes part in no later merge.
+	 */
+	private static void merge(ArrayList<Ellipse> ellipses, double overlappingThreshold,
+			EllipseSplitter splitter){
+		for(int i = 0; i < ellipses.size(); i++){
+			ArrayList<Integer> mergeEllipses = new ArrayList<Integer>();
+			Poly p1 = polygonToPoly(((PolygonRoi)ellipses.get(i).getRoi()).getPolygon());
+			double p1Area = p1.getArea();
+			for(int j = i+1; j < ellipses.size(); j++){
+				if( Math.sqrt(Math.pow(ellipses.get(j).getX()-ellipses.get(i).getX(),2)+
+						Math.pow(ellipses.get(j).getY()-ellipses.get(i).getY(),2)) < (ellipses.get(j).getLengthLongAxis()+ellipses.get(i).getLengthLongAxis())/2.0){
+					Poly p2 = polygonToPoly(((PolygonRoi)ellipses.get(j).getRoi()).getPolygon());
+					double p2Area = p2.getArea();
+					
+					double interArea = Clip.intersection(p1, p2).getArea();
+					if(Math.max(interArea/p2Area,interArea/p1Area)>overlappingThreshold){
+						mergeEllipses.add(j);
+					}
+				}
+			}
+			
+			if(mergeEllipses.size()>0){
+				ArrayList<Integer> newXPoints = ellipses.get(i).getXCoordinates();
+				ArrayList<Integer> newYPoints = ellipses.get(i).getYCoordinates();
+				for(int j = 0; j < mergeEllipses.size(); j++){
+					newXPoints.addAll(ellipses.get(mergeEllipses.get(j)).getXCoordinates());
+					newYPoints.addAll(ellipses.get(mergeEllipses.get(j)).getYCoordinates());
+				}
+				ellipses.set(i, fitEllipse(newXPoints, newYPoints, splitter));
+				Collections.sort(mergeEllipses,Collections.reverseOrder());
+				for(int j = 0; j < mergeEllipses.size(); j++){
+					ellipses.remove(mergeEllipses.get(j).intValue());
+				}
+				i = 0;
+			}
+		}
+	}
+	
+	private static Ellipse fitEllipse(ArrayList<Integer> xpoints, ArrayList<Integer> ypoints,
+			EllipseSplitter splitter){
+		return splitter.fitEllipse(new IntPointList(xpoints, ypoints), new Calibration());
+	}
+	
+	private static Poly polygonToPoly(Polygon p){
+		Poly p2 = new PolyDefault();
+		for(int i = 0; i < p.npoints; i++){
+			p2.add(p.xpoints[i],p.ypoints[i]);
+		}
+		return p2;
+	}
+
+	/**
+	 * Adds one ellipse per arc of the contour of the ellipse with center (x, y), semi
+	 * axes a and b and rotation phi. Neighbouring arcs share half of their points.
+	 */
+	private static void addArcs(ArrayList<Ellipse> ellipses, EllipseSplitter splitter,
+			double x, double y, double a, double b, double phi, int arcs) {
+		int n = 360;
+		int length = arcs == 1 ? n : 2 * n / arcs;
+		for (int arc = 0; arc < arcs; arc++) {
+			IntPointList points = new IntPointList(length);
+			for (int k = 0; k < length; k++) {
+				double t = 2 * Math.PI * (arc * n / arcs + k) / n;
+				double u = a * Math.cos(t);
+				double v = b * Math.sin(t);
+				points.add((int) Math.round(x + u * Math.cos(phi) - v * Math.sin(phi)),
+						(int) Math.round(y + u * Math.sin(phi) + v * Math.cos(phi)));
+			}
+			Ellipse e = splitter.fitEllipse(points, new Calibration());
+			assertNotNull(e);
+			ellipses.add(e);
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package de.biomedical_imaging.ij.ellipsesplit;
+
+import static org.junit.Assert.*;
+
+import java.awt.Polygon;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.seisw.util.geom.Clip;
+import com.seisw.util.geom.Poly;
+import com.seisw.util.geom.PolyDefault;
+
+public class EllipseOverlapTest {
+
+	/**
+	 * The polygons of the ROIs have integer vertices, so the polygon overlap deviates
+	 * from the exact overlap by up to about a pixel along the border. Relative to the
+	 * area this is 1.5 / b for a short semi axis b of the smaller ellipse.
+	 */
+	private static final double POLYGON_TOLERANCE = 1.5;
+
+	/**
+	 * Discretization error of 64 scan lines, relative to the smaller ellipse
+	 */
+	private static final double SCAN_LINE_TOLERANCE = 0.005;
+
+	@Test
+	public void analyticOverlapMatchesPolygonClipping() {
+		Random random = new Random(1);
+		EllipseOverlap overlap = new EllipseOverlap(64);
+		int compared = 0;
+		for (int k = 0; k < 2000; k++) {
+			Ellipse e1 = ellipse(random, 200, 200);
+			Ellipse e2 = ellipse(random, 200 + 60 * (random.nextDouble() - 0.5),
+					200 + 60 * (random.nextDouble() - 0.5));
+			double b = Math.min(e1.getLengthShortAxis(), e2.getLengthShortAxis()) / 2;
+			double expected = polygonOverlap(e1, e2);
+			double actual = overlap.relativeOverlap(e1, e2);
+			assertEquals("pair " + k, expected, actual, POLYGON_TOLERANCE / b);
+			if (expected > 0) {
+				compared++;
+			}
+		}
+		assertTrue(compared > 500);
+	}
+
+	@Test
+	public void scanLinesConverge() {
+		Random random = new Random(2);
+		EllipseOverlap overlap = new EllipseOverlap(64);
+		EllipseOverlap reference = new EllipseOverlap(4096);
+		for (int k = 0; k < 2000; k++) {
+			Ellipse e1 = ellipse(random, 200, 200);
+			Ellipse e2 = ellipse(random, 200 + 60 * (random.nextDouble() - 0.5),
+					200 + 60 * (random.nextDouble() - 0.5));
+			assertEquals("pair " + k, reference.relativeOverlap(e1, e2),
+					overlap.relativeOverlap(e1, e2), SCAN_LINE_TOLERANCE);
+		}
+	}
+
+	@Test
+	public void disjointAndContainedEllipses() {
+		EllipseOverlap overlap = new EllipseOverlap(64);
+		Ellipse big = ellipse(100, 100, 40, 20, 0.3);
+		assertEquals(0, overlap.relativeOverlap(big, ellipse(300, 100, 40, 20, 0.3)), 0);
+		// outside the rotated ellipse, but inside its bounding circle
+		assertEquals(0, overlap.relativeOverlap(big, ellipse(100, 135, 5, 5, 0)), 0);
+		assertEquals(1, overlap.relativeOverlap(big, ellipse(102, 101, 8, 4, 1.0)), 0.002);
+		assertEquals(1, overlap.relativeOverlap(big, big), 0.002);
+	}
+
+	private static Ellipse ellipse(Random random, double x, double y) {
+		double a = 5 + 40 * random.nextDouble();
+		double b = a * (0.2 + 0.8 * random.nextDouble());
+		return ellipse(x, y, a, b, Math.PI * random.nextDouble());
+	}
+
+	/**
+	 * @return Ellipse with center (x, y), semi axes a &gt;= b and the long axis
+	 *         rotated by phi
+	 */
+	static Ellipse ellipse(double x, double y, double a, double b, double phi) {
+		double cos = Math.cos(phi);
+		double sin = Math.sin(phi);
+		// A u^2 + B uv + C v^2 = 1 in centered coordinates
+		double pa = cos * cos / (a * a) + sin * sin / (b * b);
+		double pb = 2 * cos * sin * (1 / (a * a) - 1 / (b * b));
+		double pc = sin * sin / (a * a) + cos * cos / (b * b);
+		double pd = -2 * pa * x - pb * y;
+		double pe = -2 * pc * y - pb * x;
+		double pf = pa * x * x + pb * x * y + pc * y * y - 1;
+		return new Ellipse(new double[] { pa, pb, pc, pd, pe, pf });
+	}
+
+	/**
+	 * The overlap as calculated by EllipseMerger with withPolygonOverlap(true)
+	 */
+	static double polygonOverlap(Ellipse e1, Ellipse e2) {
+		Poly p1 = toPoly(e1.getPolygon());
+		Poly p2 = toPoly(e2.getPolygon());
+		double interArea = Clip.intersection(p1, p2).getArea();
+		return Math.max(interArea / p2.getArea(), interArea / p1.getArea());
+	}
+
+	private static Poly toPoly(Polygon p) {
+		Poly poly = new PolyDefault();
+		for (int i = 0; i < p.npoints; i++) {
+			poly.add(p.xpoints[i], p.ypoints[i]);
+		}
+		return poly;
+	}
+}
@@ -0,0 +1,100 @@
+package de.biomedical_imaging.ij.ellipsesplit;
+
+import static org.junit.Assert.*;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.plugin.ImageCalculator;
+import ij.plugin.filter.EDM;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+import java.net.URL;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SeparatorMaskTest {
+
+	@Test
+	public void maskMatchesNeighbourhoodTestOnWatershed() {
+		URL url = getClass().getClassLoader().getResource("ellipse_example.tif");
+		ImagePlus imp = IJ.openImage(url.getPath());
+		ImageProcessor ip = imp.getProcessor();
+		ImageProcessor splitIp = ip.duplicate();
+		new EDM().toWatershed(splitIp);
+		assertTrue(assertSameAsNeighbourhoodTest(ip, splitIp) > 0);
+	}
+
+	@Test
+	public void maskMatchesNeighbourhoodTestOnRandomImages() {
+		Random random = new Random(1);
+		for (int k = 0; k < 20; k++) {
+			int width = 1 + random.nextInt(70);
+			int height = 1 + random.nextInt(70);
+			ByteProcessor ip = new ByteProcessor(width, height);
+			ByteProcessor splitIp = new ByteProcessor(width, height);
+			for (int i = 0; i < width * height; i++) {
+				if (random.nextInt(3) > 0) {
+					ip.set(i, 255);
+					// separators are foreground pixels which were removed
+					splitIp.set(i, random.nextInt(20) == 0 ? 0 : 255);
+				}
+			}
+			assertSameAsNeighbourhoodTest(ip, splitIp);
+			assertSameAsNeighbourhoodTest(ip.convertToShort(false),
+					splitIp.convertToShort(false));
+		}
+	}
+
+	@Test
+	public void reusedBufferIsCleared() {
+		ByteProcessor ip = new ByteProcessor(10, 10);
+		ip.setValue(255);
+		ip.fill();
+		ByteProcessor splitIp = new ByteProcessor(10, 10);
+		long[] buffer = new SeparatorMask(ip, splitIp).getBits();
+		SeparatorMask mask = new SeparatorMask(ip, ip.duplicate(), buffer);
+		assertSame(buffer, mask.getBits());
+		for (int y = -1; y <= 10; y++) {
+			for (int x = -1; x <= 10; x++) {
+				assertFalse(mask.isNearSeparator(x, y));
+			}
+		}
+	}
+
+	/**
+	 * Compares the mask with the pixel-wise test on the XOR image which it replaced, for
+	 * all points in the image and its one pixel border.
+	 * @return Number of points near a separator
+	 */
+	private static int assertSameAsNeighbourhoodTest(ImageProcessor ip, ImageProcessor splitIp) {
+		SeparatorMask mask = new SeparatorMask(ip, splitIp);
+		ImageProcessor separators = new ImageCalculator().run("XOR create",
+				new ImagePlus("", splitIp), new ImagePlus("", ip.duplicate())).getProcessor();
+		int near = 0;
+		for (int y = -1; y <= ip.getHeight(); y++) {
+			for (int x = -1; x <= ip.getWidth(); x++) {
+				boolean expected = hasSeparatorInNeighbourhood(separators, x, y);
+				assertEquals("(" + x + ", " + y + ")", expected, mask.isNearSeparator(x, y));
+				if (expected) {
+					near++;
+				}
+			}
+		}
+		return near;
+	}
+
+	private static boolean hasSeparatorInNeighbourhood(ImageProcessor ip, int x, int y) {
+		return isSeparator(ip, x, y) || isSeparator(ip, x + 1, y) || isSeparator(ip, x - 1, y)
+				|| isSeparator(ip, x, y + 1) || isSeparator(ip, x, y - 1)
+				|| isSeparator(ip, x + 1, y + 1) || isSeparator(ip, x - 1, y + 1)
+				|| isSeparator(ip, x - 1, y - 1);
+	}
+
+	private static boolean isSeparator(ImageProcessor ip, int x, int y) {
+		if (x < 0 || x >= ip.getWidth() || y < 0 || y >= ip.getHeight()) {
+			return false;
+		}
+		return ip.get(x, y) == 255;
+	}
+}